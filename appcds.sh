@@ -0,0 +1,28 @@
+#!/bin/sh
+# Builds the classes, a glyph metrics file and an AppCDS archive of the classes a typical
+# session loads, so the Shell starts without parsing those classes or rendering glyphs.
+# Run from the repository root; the training session renders the example image.
+set -e
+
+OUT_DIR=${OUT_DIR:-out/fast}
+CLASSES_DIR="$OUT_DIR/classes"
+# CDS archives only classes loaded from JAR files
+JAR="$OUT_DIR/ascii_art.jar"
+ARCHIVE="$OUT_DIR/ascii_art.jsa"
+GLYPH_METRICS="$OUT_DIR/glyph_metrics.properties"
+
+rm -rf "$CLASSES_DIR"
+mkdir -p "$CLASSES_DIR"
+javac -d "$CLASSES_DIR" $(find src -name '*.java')
+javac --add-modules jdk.incubator.vector -cp "$CLASSES_DIR" -d "$CLASSES_DIR" $(find vector -name '*.java')
+jar cf "$JAR" -C "$CLASSES_DIR" .
+
+java -cp "$JAR" image_char_matching.GlyphMetrics "$GLYPH_METRICS"
+
+# Record the classes loaded by the commands of a typical session
+printf 'asciiart\nmatching shape\nasciiart\ndither diffusion\nmatching brightness\nasciiart\nstats\nexit\n' |
+    java -XX:ArchiveClassesAtExit="$ARCHIVE" -Djava.awt.headless=true \
+        -Dascii_art.glyphMetrics="$GLYPH_METRICS" -cp "$JAR" ascii_art.Shell > /dev/null
+
+echo "Run with:"
+echo "  java -XX:SharedArchiveFile=$ARCHIVE -Dascii_art.glyphMetrics=$GLYPH_METRICS -cp $JAR ascii_art.Shell"
@@ -0,0 +1,15 @@
+package Exceptions;
+
+/**
+ * Custom exception for an incorrect format in the "approx" command.
+ */
+public class IncorrectApproxFormatException extends Exception {
+    /**
+     * Constructs an IncorrectApproxFormatException with the specified detail message.
+     *
+     * @param msg The detail message.
+     */
+    public IncorrectApproxFormatException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,15 @@
+package Exceptions;
+
+/**
+ * Custom exception for an incorrect format in the "color" command.
+ */
+public class IncorrectColorFormatException extends Exception {
+    /**
+     * Constructs an IncorrectColorFormatException with the specified detail message.
+     *
+     * @param msg The detail message.
+     */
+    public IncorrectColorFormatException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,15 @@
+package Exceptions;
+
+/**
+ * Custom exception for an incorrect format in the "deadline" command.
+ */
+public class IncorrectDeadlineFormatException extends Exception {
+    /**
+     * Constructs an IncorrectDeadlineFormatException with the specified detail message.
+     *
+     * @param msg The detail message.
+     */
+    public IncorrectDeadlineFormatException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,15 @@
+package Exceptions;
+
+/**
+ * Custom exception for an incorrect format in the "dither" command.
+ */
+public class IncorrectDitherFormatException extends Exception {
+    /**
+     * Constructs an IncorrectDitherFormatException with the specified detail message.
+     *
+     * @param msg The detail message.
+     */
+    public IncorrectDitherFormatException(String msg) {
+        super(msg);
+    }
+}
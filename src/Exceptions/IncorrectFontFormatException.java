@@ -0,0 +1,15 @@
+package Exceptions;
+
+/**
+ * Custom exception for an incorrect format in the "font" command.
+ */
+public class IncorrectFontFormatException extends Exception {
+    /**
+     * Constructs an IncorrectFontFormatException with the specified detail message.
+     *
+     * @param msg The detail message.
+     */
+    public IncorrectFontFormatException(String msg) {
+        super(msg);
+    }
+}
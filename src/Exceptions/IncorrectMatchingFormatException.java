@@ -0,0 +1,15 @@
+package Exceptions;
+
+/**
+ * Custom exception for an incorrect format in the "matching" command.
+ */
+public class IncorrectMatchingFormatException extends Exception {
+    /**
+     * Constructs an IncorrectMatchingFormatException with the specified detail message.
+     *
+     * @param msg The detail message.
+     */
+    public IncorrectMatchingFormatException(String msg) {
+        super(msg);
+    }
+}
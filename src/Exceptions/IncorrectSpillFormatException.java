@@ -0,0 +1,15 @@
+package Exceptions;
+
+/**
+ * Custom exception for an incorrect format in the "spill" command.
+ */
+public class IncorrectSpillFormatException extends Exception {
+    /**
+     * Constructs an IncorrectSpillFormatException with the specified detail message.
+     *
+     * @param msg The detail message.
+     */
+    public IncorrectSpillFormatException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,15 @@
+package Exceptions;
+
+/**
+ * Custom exception for an incorrect format in the "tiling" command.
+ */
+public class IncorrectTilingFormatException extends Exception {
+    /**
+     * Constructs an IncorrectTilingFormatException with the specified detail message.
+     *
+     * @param msg The detail message.
+     */
+    public IncorrectTilingFormatException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,15 @@
+package Exceptions;
+
+/**
+ * Custom exception for a render that was cancelled before it finished.
+ */
+public class RenderCancelledException extends Exception {
+    /**
+     * Constructs a RenderCancelledException with the specified detail message.
+     *
+     * @param msg The detail message.
+     */
+    public RenderCancelledException(String msg) {
+        super(msg);
+    }
+}
@@ -3,25 +3,57 @@
  */
 package ascii_art;
 
+import Exceptions.RenderCancelledException;
+import ascii_output.AsciiOutput;
+import ascii_output.AsciiPatch;
+import image.FusedBrightnessCalc;
 import image.Image;
 import image.ImageCalc;
+import image.TileGrid;
+import image_char_matching.GlyphFont;
 import image_char_matching.SubImgCharMatcher;
+import metrics.Cache;
+import metrics.PipelineMetrics;
+import metrics.RenderEvent;
+import metrics.Stage;
 
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * The `AsciiArtAlgorithm` class represents an algorithm for generating ASCII art from an image.
  * It converts an input image into a grid of characters based on brightness values.
  */
 public class AsciiArtAlgorithm {
+    // a progressive render starts from tiles this many times larger on each side
+    private static final int PROGRESSIVE_COARSE_FACTOR = 4;
+    // a progressive render refines the tiles in this many bands of rows
+    private static final int PROGRESSIVE_BANDS = 8;
     private int resolution;
-    private Image image;
-    private ImageCalc imageCalc = new ImageCalc();
+    private TileGrid tileGrid;
+    private long imageFingerprint;
+    private BufferedImage decodedImage;
+    private FusedBrightnessCalc fusedBrightnessCalc = new FusedBrightnessCalc();
     private SubImgCharMatcher subImgCharMatcher;
-    private List<Character> newCharArr = new ArrayList<>();
-    private int newCharArrIdx = 0;
+    private final char[] charSet;
+    private FrameRenderer frameRenderer;
+    private char[][] lastResult;
+    private DitherMode ditherMode = DitherMode.NONE;
+    private GlyphFont glyphFont = GlyphFont.DEFAULT;
+    private final boolean withColors;
+    private int[] tileColors;
+    // subsampling step of decodedImage, 1 if every pixel was decoded
+    private int sampleStep = 1;
+    private int imageWidth;
+    private int imageHeight;
+    // whether the latest progressive run refined every tile
+    private boolean complete = true;
+    // whether the brightness is cached under the image fingerprint, false for images not read
+    // from their file
+    private boolean cacheable = true;
+    // share of a tile a sample may stand for, 0 to render exactly
+    private double sampleShare = 0;
 
     /**
      * Constructor for `AsciiArtAlgorithm` class.
@@ -31,9 +63,152 @@ public class AsciiArtAlgorithm {
      * @param charSet    The character set to be used in the ASCII art.
      */
     public AsciiArtAlgorithm(String imagePath, int resolution, char[] charSet) throws IOException {
-        this.resolution = resolution;
-        image = new Image(imagePath);
+        this(imagePath, TileGrid.square(resolution), charSet);
+    }
+
+    /**
+     * Constructor for `AsciiArtAlgorithm` class trading exactness for speed on large images: the
+     * image is decoded subsampled, every sample standing for at most the given share of its tile,
+     * so one sample unlike the pixels it stands for moves the tile brightness by at most that
+     * share.
+     * Images too small to subsample at this resolution are rendered exactly.
+     *
+     * @param imagePath          The file path to the input image.
+     * @param resolution         The desired resolution (number of characters) for the output ASCII art.
+     * @param charSet            The character set to be used in the ASCII art.
+     * @param sampleShare        The share of a tile a sample may stand for, between 0 and 1.
+     */
+    public AsciiArtAlgorithm(String imagePath, int resolution, char[] charSet, double sampleShare)
+            throws IOException {
+        this(imagePath, new ImageCalc().getFileFingerprint(imagePath), TileGrid.square(resolution), charSet,
+                false, sampleShare);
+    }
+
+    /**
+     * Constructor for `AsciiArtAlgorithm` class with a custom division of the image into tiles,
+     * such as an aspect correct grid over the unpadded image.
+     *
+     * @param imagePath The file path to the input image.
+     * @param tileGrid  The division of the image into tiles, one per output character.
+     * @param charSet   The character set to be used in the ASCII art.
+     */
+    public AsciiArtAlgorithm(String imagePath, TileGrid tileGrid, char[] charSet) throws IOException {
+        this(imagePath, tileGrid, charSet, false);
+    }
+
+    /**
+     * Constructor for `AsciiArtAlgorithm` class that optionally gathers the average colour of
+     * every tile along with its brightness, for colour outputs.
+     *
+     * @param imagePath  The file path to the input image.
+     * @param tileGrid   The division of the image into tiles, one per output character.
+     * @param charSet    The character set to be used in the ASCII art.
+     * @param withColors Whether run also calculates the tile colours returned by getTileColors.
+     */
+    public AsciiArtAlgorithm(String imagePath, TileGrid tileGrid, char[] charSet, boolean withColors)
+            throws IOException {
+        this(imagePath, new ImageCalc().getFileFingerprint(imagePath), tileGrid, charSet, withColors);
+    }
+
+    /**
+     * Constructor for `AsciiArtAlgorithm` class for an image file whose fingerprint is known.
+     *
+     * @param imagePath        The file path to the input image.
+     * @param imageFingerprint The fingerprint of the image file, from ImageCalc.getFileFingerprint.
+     * @param tileGrid         The division of the image into tiles, one per output character.
+     * @param charSet          The character set to be used in the ASCII art.
+     * @param withColors       Whether run also calculates the tile colours.
+     */
+    AsciiArtAlgorithm(String imagePath, long imageFingerprint, TileGrid tileGrid, char[] charSet,
+                      boolean withColors) throws IOException {
+        this(imagePath, imageFingerprint, tileGrid, charSet, withColors, 0);
+    }
+
+    /**
+     * Constructor for `AsciiArtAlgorithm` class for an image file whose fingerprint is known,
+     * optionally approximating the brightness of a square grid without colours from a subsampled
+     * decode. Other grids, and images whose exact brightness is already known, are rendered
+     * exactly.
+     *
+     * @param imagePath          The file path to the input image.
+     * @param imageFingerprint   The fingerprint of the image file, from ImageCalc.getFileFingerprint.
+     * @param tileGrid           The division of the image into tiles, one per output character.
+     * @param charSet            The character set to be used in the ASCII art.
+     * @param withColors         Whether run also calculates the tile colours.
+     * @param sampleShare        The share of a tile a sample may stand for, 0 to render exactly.
+     */
+    AsciiArtAlgorithm(String imagePath, long imageFingerprint, TileGrid tileGrid, char[] charSet,
+                      boolean withColors, double sampleShare) throws IOException {
+        this.resolution = tileGrid.getCols();
+        this.tileGrid = tileGrid;
+        this.withColors = withColors;
+        this.imageFingerprint = imageFingerprint;
+        this.sampleShare = sampleShare;
+        // Decode only if the brightness, or the needed colours, of this image are not known yet
+        if (!Shell.ImgBrightnessContains(imageFingerprint, tileGrid)
+                || (withColors && !Shell.ImgColorsContains(imageFingerprint, tileGrid))) {
+            if (canApproximate()) {
+                // The header alone tells how coarsely the image can be sampled
+                Dimension size = Image.readDimensions(imagePath);
+                imageWidth = size.width;
+                imageHeight = size.height;
+                sampleStep = FusedBrightnessCalc.sampleStep(imageWidth, imageHeight, resolution,
+                        sampleShare);
+            }
+            decodedImage = sampleStep > 1 ? Image.readImage(imagePath, sampleStep) : Image.readImage(imagePath);
+            if (sampleStep == 1) {
+                imageWidth = decodedImage.getWidth();
+                imageHeight = decodedImage.getHeight();
+            }
+        }
+        subImgCharMatcher = new SubImgCharMatcher(charSet);
+        this.charSet = charSet;
+    }
+
+    /**
+     * Constructor for `AsciiArtAlgorithm` class for an image already decoded, such as an image
+     * re-read for runIncremental. The image may not match its file anymore, so its brightness
+     * is neither looked up nor cached.
+     *
+     * @param image              The image.
+     * @param tileGrid           The division of the image into tiles, one per output character.
+     * @param charSet            The character set to be used in the ASCII art.
+     * @param sampleShare        The share of a tile a sample may stand for, 0 to render exactly.
+     */
+    public AsciiArtAlgorithm(Image image, TileGrid tileGrid, char[] charSet, double sampleShare) {
+        this.resolution = tileGrid.getCols();
+        this.tileGrid = tileGrid;
+        this.withColors = false;
+        this.sampleShare = sampleShare;
+        cacheable = false;
+        setImage(image);
         subImgCharMatcher = new SubImgCharMatcher(charSet);
+        this.charSet = charSet;
+    }
+
+    /**
+     * Sets how brightness levels between the characters of the set are spread over neighbouring
+     * tiles. Dithering applies to brightness matching only, tiles divided into cells are always
+     * matched on shape.
+     *
+     * @param ditherMode The dithering mode, NONE by default.
+     */
+    public void setDitherMode(DitherMode ditherMode) {
+        this.ditherMode = ditherMode;
+    }
+
+    /**
+     * Sets the font and pixel resolution the glyphs of the set are measured in. Glyphs already
+     * measured in the font, by any algorithm, are not rendered again.
+     *
+     * @param glyphFont The glyph font, GlyphFont.DEFAULT by default.
+     */
+    public void setGlyphFont(GlyphFont glyphFont) {
+        if (!glyphFont.equals(this.glyphFont)) {
+            this.glyphFont = glyphFont;
+            // The matcher renders nothing until its first match
+            subImgCharMatcher = new SubImgCharMatcher(charSet, glyphFont);
+        }
     }
 
     /**
@@ -42,65 +217,323 @@ public class AsciiArtAlgorithm {
      * @return A 2D array of characters representing the generated ASCII art.
      */
     public char[][] run(){
-        // Create the full image array by filling gaps in the input image
-        Image filledImage = imageCalc.imageFill(image);
+        return render(null);
+    }
+
+    /**
+     * Executes the ASCII art generation algorithm, stopping early if the token is cancelled.
+     * The deadline of the token does not apply, nothing being ready before the render ends.
+     *
+     * @param token The token the render checks for cancellation.
+     * @return A 2D array of characters representing the generated ASCII art.
+     * @throws RenderCancelledException If the token was cancelled before the render ended.
+     */
+    public char[][] run(RenderToken token) throws RenderCancelledException {
+        token.throwIfCancelled();
+        char[][] res = render(token);
+        token.throwIfCancelled();
+        return res;
+    }
 
-        // Result array to hold the generated ASCII art
+    /**
+     * Executes the ASCII art generation algorithm progressively: the art is first matched from
+     * the brightness of coarse tiles estimated on a share of the image rows, then refined a band
+     * of rows at a time to exactly what run returns. Every result but the last one is delivered
+     * to the output as soon as it is ready, and a render past the deadline of the token returns
+     * the latest one, partly refined.
+     * Brightness known from a previous render, approximate renders, colours, cells and dithering
+     * need every tile before matching, so they are rendered as by run instead.
+     *
+     * @param output The output the intermediate results are delivered to, or null. The array it
+     *               receives is refined further after the call, so it must not be kept.
+     * @param token  The token the render checks for cancellation and for its deadline.
+     * @return A 2D array of characters representing the generated ASCII art, which isComplete
+     * tells whether every tile of was refined.
+     * @throws RenderCancelledException If the token was cancelled before the render ended.
+     */
+    public char[][] runProgressive(AsciiOutput output, RenderToken token) throws RenderCancelledException {
+        complete = true;
+        if (decodedImage == null || sampleStep > 1 || withColors || !tileGrid.isPadded()
+                || tileGrid.getCellsPerSide() != 1 || ditherMode != DitherMode.NONE) {
+            return run(token);
+        }
+        token.throwIfCancelled();
+        // One image row per row of final tiles is read for the coarse tiles
+        int coarseResolution = Math.max(1, resolution / PROGRESSIVE_COARSE_FACTOR);
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.BRIGHTNESS);
+        double[] coarseBrightnesses = fusedBrightnessCalc.getRowSampledTileBrightnesses(decodedImage,
+                coarseResolution, resolution / coarseResolution);
+        sample.stop((long) imageWidth * Math.min(imageHeight, resolution), 0);
+        char[] coarseChars = new char[coarseBrightnesses.length];
+        for (int tile = 0; tile < coarseChars.length; tile++) {
+            coarseChars[tile] = subImgCharMatcher.getCharByImageBrightness(coarseBrightnesses[tile]);
+        }
         char[][] res = new char[resolution][resolution];
+        for (int i = 0; i < resolution; i++) {
+            int coarseRowOffset = i * coarseResolution / resolution * coarseResolution;
+            for (int j = 0; j < resolution; j++) {
+                res[i][j] = coarseChars[coarseRowOffset + j * coarseResolution / resolution];
+            }
+        }
+        token.throwIfCancelled();
+        if (output != null) {
+            output.out(res);
+        }
 
-        // Divide the filled image into sub-images based on the desired resolution
-        List<Image> subImagesList = imageCalc.getSubImages(filledImage, resolution);
+        double[] brightnessesArr = new double[resolution * resolution];
+        int bandRows = (resolution + PROGRESSIVE_BANDS - 1) / PROGRESSIVE_BANDS;
+        for (int firstRow = 0; firstRow < resolution; firstRow += bandRows) {
+            if (token.isExpired()) {
+                complete = false;
+                return res;
+            }
+            int lastRow = Math.min(firstRow + bandRows, resolution);
+            sample = PipelineMetrics.start(Stage.BRIGHTNESS);
+            double[] band = fusedBrightnessCalc.getTileBrightnesses(decodedImage, resolution, firstRow, lastRow);
+            sample.stop((long) imageWidth * imageHeight * (lastRow - firstRow) / resolution, 0);
+            System.arraycopy(band, 0, brightnessesArr, firstRow * resolution, band.length);
+            for (int i = firstRow; i < lastRow; i++) {
+                for (int j = 0; j < resolution; j++) {
+                    res[i][j] = subImgCharMatcher.getCharByImageBrightness(brightnessesArr[i * resolution + j]);
+                }
+            }
+            token.throwIfCancelled();
+            if (output != null && lastRow < resolution) {
+                output.out(res);
+            }
+        }
+        // Every band was read, so the brightness is the exact one a run calculates
+        if (cacheable) {
+            Shell.setImgBrightness(imageFingerprint, tileGrid, brightnessesArr);
+        }
+        return res;
+    }
 
-        // Replace each sub-image with the closest character in terms of brightness
-        handleBrightnessCalc(subImagesList);
+    /**
+     * Checks whether the latest progressive run refined every tile before its deadline.
+     *
+     * @return False if the latest runProgressive returned coarse tiles, true otherwise.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
 
-        // Fill the result array with the generated characters
-        for (int i = 0; i < resolution; i++) {
+    /**
+     * Renders the image, checking the token for cancellation between rows of tiles.
+     *
+     * @param token The token to check, or null if the render cannot be cancelled.
+     * @return A 2D array of characters representing the generated ASCII art, or null if the
+     * token was cancelled.
+     */
+    private char[][] render(RenderToken token) {
+        RenderEvent event = new RenderEvent();
+        event.begin();
+        if (decodedImage != null) {
+            event.imageWidth = imageWidth;
+            event.imageHeight = imageHeight;
+        }
+        // Brightness of every sub-image, or of every cell of every sub-image, row by row
+        double[] brightnessesArr = handleBrightnessCalc();
+        if (token != null && token.isCancelled()) {
+            return null;
+        }
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.MATCHING);
+        long cacheHits = subImgCharMatcher.getMatchCacheHits();
+        long cacheMisses = subImgCharMatcher.getMatchCacheMisses();
+        char[][] res = matchTiles(brightnessesArr, token);
+        if (res == null) {
+            return null;
+        }
+        sample.stop((long) res.length * resolution, 0);
+        cacheHits = subImgCharMatcher.getMatchCacheHits() - cacheHits;
+        cacheMisses = subImgCharMatcher.getMatchCacheMisses() - cacheMisses;
+        PipelineMetrics.recordCacheLookups(Cache.CHAR_MATCH, cacheHits, cacheMisses);
+        if (event.shouldCommit()) {
+            event.resolution = resolution;
+            event.rows = res.length;
+            event.tileCount = res.length * resolution;
+            event.cellsPerSide = tileGrid.getCellsPerSide();
+            event.charSetSize = charSet.length;
+            event.ditherMode = ditherMode.name();
+            event.brightnessCacheHit = decodedImage == null;
+            event.charMatchCacheHits = cacheHits;
+            event.charMatchCacheMisses = cacheMisses;
+            event.commit();
+        }
+        return res;
+    }
+
+    /**
+     * Matches every tile to a character.
+     *
+     * @param brightnessesArr The brightness of every sub-image, or of every cell of every
+     *                        sub-image, row by row.
+     * @param token           The token to check between rows, or null.
+     * @return A 2D array of characters representing the generated ASCII art, or null if the
+     * token was cancelled.
+     */
+    private char[][] matchTiles(double[] brightnessesArr, RenderToken token) {
+        int cellsPerSide = tileGrid.getCellsPerSide();
+        int cellsPerTile = cellsPerSide * cellsPerSide;
+        if (cellsPerSide == 1 && ditherMode == DitherMode.ORDERED) {
+            return new Ditherer(subImgCharMatcher).ordered(brightnessesArr, resolution);
+        }
+        if (cellsPerSide == 1 && ditherMode == DitherMode.ERROR_DIFFUSION) {
+            return new Ditherer(subImgCharMatcher).errorDiffusion(brightnessesArr, resolution);
+        }
+
+        // Result array to hold the generated ASCII art, as many rows as the grid has
+        char[][] res = new char[brightnessesArr.length / (resolution * cellsPerTile)][resolution];
+
+        // Replace each sub-image with the closest character in terms of brightness, or of shape
+        // when the sub-images are divided into cells
+        for (int i = 0; i < res.length; i++) {
+            if (token != null && token.isCancelled()) {
+                return null;
+            }
             for (int j = 0; j < resolution; j++) {
-                res[i][j] = newCharArr.get(newCharArrIdx);
-                newCharArrIdx++;
+                int tile = i * resolution + j;
+                if (cellsPerSide == 1) {
+                    res[i][j] = subImgCharMatcher.getCharByImageBrightness(brightnessesArr[tile]);
+                } else {
+                    res[i][j] = subImgCharMatcher.getCharByCellBrightnesses(brightnessesArr,
+                            tile * cellsPerTile, cellsPerSide);
+                }
             }
         }
         return res;
     }
 
     /**
-     * This method handles the calculation of brightness for a list of sub-images and assigns
-     * corresponding characters.
-     * The brightness calculation is based on the image's pixel values.
-     * If the global image brightness information is available in the Shell and matches the current image,
-     * it retrieves the brightness array and assigns characters accordingly.
-     * Otherwise, it calculates the brightness for each sub-image, assigns characters, and updates the global
-     * brightness information.
+     * Gets the average colour of every tile of the latest run.
      *
-     * @param subImagesList A list of sub-images to calculate brightness for.
+     * @return The RGB colour (0xRRGGBB) of every tile, in the shape of the result of run, or
+     * null if the algorithm was created without colours or never run.
      */
-    private void handleBrightnessCalc(List<Image> subImagesList) {
-        // Check if the global image brightness information contains the current image
-        if (Shell.ImgBrightnessContains(image)) {
-            // If available, retrieve the brightness array from the Shell
-            List<Double> brightnessesArr = Shell.getImgBrightness(image);
+    public int[][] getTileColors() {
+        if (tileColors == null) {
+            return null;
+        }
+        int[][] colors = new int[tileColors.length / resolution][resolution];
+        for (int i = 0; i < colors.length; i++) {
+            System.arraycopy(tileColors, i * resolution, colors[i], 0, resolution);
+        }
+        return colors;
+    }
 
-            // Assign characters based on the brightness array
-            for (double brightness : brightnessesArr) {
-                newCharArr.add(subImgCharMatcher.getCharByImageBrightness(brightness));
+    /**
+     * Renders an updated version of the image, recomputing brightness and characters only for
+     * the tiles that changed since the previous call. Aspect grids, tiles divided into cells,
+     * dithering and approximation render every tile, and only the changed cells are returned.
+     * The first call renders every tile.
+     *
+     * @param updatedImage The new content of the image, with the same dimensions as before.
+     * @return The cells whose character changed since the previous call.
+     */
+    public AsciiPatch runIncremental(Image updatedImage) {
+        if (!tileGrid.isPadded() || tileGrid.getCellsPerSide() != 1 || ditherMode != DitherMode.NONE
+                || canApproximate()) {
+            // Reusing tiles needs tiles matched independently on exact brightness, other
+            // settings render every tile and output the chars that changed
+            cacheable = false;
+            setImage(updatedImage);
+            char[][] res = render(null);
+            boolean full = lastResult == null || lastResult.length != res.length;
+            AsciiPatch patch = new AsciiPatch(res.length, resolution, full);
+            for (int i = 0; i < res.length; i++) {
+                for (int j = 0; j < resolution; j++) {
+                    if (full || lastResult[i][j] != res[i][j]) {
+                        patch.addCell(i, j, res[i][j]);
+                    }
+                }
             }
-        } else {
-            // If brightness information is not available in Shell, calculate and update
-            List<Double> brightnessesArr = new ArrayList<>();
+            lastResult = res;
+            return patch;
+        }
+        if (frameRenderer == null) {
+            // An epsilon of zero re-matches every changed tile, so the result stays exact
+            frameRenderer = new FrameRenderer(resolution, charSet, 0, glyphFont);
+            lastResult = new char[resolution][resolution];
+        }
+        AsciiPatch patch = frameRenderer.renderPatch(updatedImage);
+        patch.applyTo(lastResult);
+        return patch;
+    }
 
-            // Calculate brightness for each sub-image and assign characters
-            for (Image subImage : subImagesList) {
-                double subImgBrightness = imageCalc.getImageBrightness(subImage);
-                newCharArr.add(subImgCharMatcher.getCharByImageBrightness(subImgBrightness));
+    /**
+     * Decodes the image for the next render, subsampled as readImage would decode its file in
+     * approximate mode.
+     */
+    private void setImage(Image image) {
+        imageWidth = image.getWidth();
+        imageHeight = image.getHeight();
+        sampleStep = canApproximate()
+                ? FusedBrightnessCalc.sampleStep(imageWidth, imageHeight, resolution, sampleShare) : 1;
+        decodedImage = image.toBufferedImage(sampleStep);
+    }
 
-                // Store the calculated brightness for each sub-image
-                brightnessesArr.add(subImgBrightness);
+    /**
+     * Checks whether the settings allow approximating the brightness from a subsampled image:
+     * a square grid of undivided tiles without colours, and an error bound.
+     */
+    private boolean canApproximate() {
+        return sampleShare > 0 && tileGrid.isPadded() && tileGrid.getCellsPerSide() == 1 && !withColors;
+    }
+
+    /**
+     * Gets the full result of the latest incremental render.
+     *
+     * @return A 2D array of characters representing the latest incremental render, or null if
+     * runIncremental was never called.
+     */
+    public char[][] getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * This method handles the calculation of brightness for all sub-images of the image.
+     * If the global image brightness information, and the colours if needed, are available in the
+     * Shell for the current image and tile grid, they are used as is.
+     * Otherwise, the brightness is calculated in a single pass over the decoded image and the
+     * global brightness information is updated.
+     *
+     * @return The brightness of every sub-image, or of every cell of every sub-image, row by row.
+     */
+    private double[] handleBrightnessCalc() {
+        // Check if the global image brightness information contains the current image
+        PipelineMetrics.recordCacheLookup(Cache.BRIGHTNESS, decodedImage == null);
+        if (decodedImage == null) {
+            if (withColors) {
+                tileColors = Shell.getImgColors(imageFingerprint, tileGrid);
             }
+            return Shell.getImgBrightness(imageFingerprint, tileGrid);
+        }
+        if (sampleStep > 1) {
+            // Approximate brightness is not cached, so an exact render never picks it up
+            PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.BRIGHTNESS);
+            double[] brightnessesArr = fusedBrightnessCalc.getSampledTileBrightnesses(decodedImage, imageWidth,
+                    imageHeight, sampleStep, resolution);
+            sample.stop((long) decodedImage.getWidth() * decodedImage.getHeight(), 0);
+            return brightnessesArr;
+        }
+        // The colours are gathered from the same rows as the brightness
+        int[] colors = withColors
+                ? new int[tileGrid.getCols() * tileGrid.getRows(decodedImage.getWidth(), decodedImage.getHeight())]
+                : null;
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.BRIGHTNESS);
+        double[] brightnessesArr = fusedBrightnessCalc.getTileBrightnesses(decodedImage, tileGrid, colors);
+        sample.stop((long) decodedImage.getWidth() * decodedImage.getHeight(), 0);
 
-            // Update the global brightness information in the Shell
-            Shell.setImgBrightness(image, brightnessesArr);
+        if (!cacheable) {
+            return brightnessesArr;
+        }
+        // Update the global brightness information in the Shell
+        Shell.setImgBrightness(imageFingerprint, tileGrid, brightnessesArr);
+        if (withColors) {
+            Shell.setImgColors(imageFingerprint, tileGrid, colors);
+            tileColors = colors;
         }
+        return brightnessesArr;
     }
 
 }
@@ -0,0 +1,101 @@
+package ascii_art;
+
+import image_char_matching.SubImgCharMatcher;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the cost of the dithering modes with plain nearest brightness matching, on a square
+ * grid of seeded tile brightnesses matched to the default digits of the Shell.
+ * Plain matching runs on the calling thread; ordered dithering and error diffusion run on 1 to N
+ * threads. For every thread count it prints the best of several timings of each mode, and whether
+ * error diffusion gave the same chars as on one thread.
+ */
+public class DitherBenchmark {
+    // timed runs per mode and thread count, the fastest one is reported
+    private static final int RUNS = 5;
+    // side of the grid when none is given
+    private static final int DEFAULT_GRID_SIZE = 1024;
+    private static final char[] CHARS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+    private static final long SEED = 42;
+
+    /**
+     * A matching of the whole grid.
+     */
+    private interface Match {
+        char[][] run() throws InterruptedException, ExecutionException;
+    }
+
+    private DitherBenchmark() {
+    }
+
+    /**
+     * Runs the comparison.
+     *
+     * @param args Optionally the side of the grid, then the largest number of threads.
+     * @throws InterruptedException If the benchmark is interrupted.
+     * @throws ExecutionException   If a matching fails.
+     */
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int gridSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GRID_SIZE;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        // Smooth gradients, where banding shows, with some noise
+        Random random = new Random(SEED);
+        double[] brightnesses = new double[gridSize * gridSize];
+        for (int i = 0; i < gridSize; i++) {
+            for (int j = 0; j < gridSize; j++) {
+                double value = (double) (i + j) / (2 * gridSize) + random.nextGaussian() * 0.02;
+                brightnesses[i * gridSize + j] = Math.max(0, Math.min(1, value));
+            }
+        }
+        SubImgCharMatcher subImgCharMatcher = new SubImgCharMatcher(CHARS);
+        Ditherer ditherer = new Ditherer(subImgCharMatcher);
+
+        long plainNanos = time(() -> {
+            char[][] res = new char[gridSize][gridSize];
+            for (int i = 0; i < gridSize; i++) {
+                for (int j = 0; j < gridSize; j++) {
+                    res[i][j] = subImgCharMatcher.getCharByImageBrightness(brightnesses[i * gridSize + j]);
+                }
+            }
+            return res;
+        });
+        char[][] sequential = ditherer.errorDiffusion(brightnesses, gridSize, 1);
+        System.out.printf("%dx%d grid, %d chars, plain matching %.1f ms%n", gridSize, gridSize, CHARS.length,
+                plainNanos / 1e6);
+        System.out.println("threads  ordered ms  relative  diffusion ms  relative  same as 1 thread");
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            // Parallel streams run in the pool of the task that starts them
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long orderedNanos;
+            try {
+                orderedNanos = time(() -> pool.submit(() -> ditherer.ordered(brightnesses, gridSize)).get());
+            } finally {
+                pool.shutdown();
+            }
+            int workers = threads;
+            long diffusionNanos = time(() -> ditherer.errorDiffusion(brightnesses, gridSize, workers));
+            boolean same = Arrays.deepEquals(sequential, ditherer.errorDiffusion(brightnesses, gridSize, workers));
+            System.out.printf("%7d  %10.1f  %7.2fx  %12.1f  %7.2fx  %s%n", threads, orderedNanos / 1e6,
+                    (double) orderedNanos / plainNanos, diffusionNanos / 1e6, (double) diffusionNanos / plainNanos,
+                    same ? "yes" : "no");
+        }
+    }
+
+    private static long time(Match match) throws InterruptedException, ExecutionException {
+        long best = Long.MAX_VALUE;
+        // An untimed run first, so the first timings are not of interpreted code
+        for (int run = -1; run < RUNS; run++) {
+            long start = System.nanoTime();
+            match.run();
+            if (run >= 0) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return best;
+    }
+}
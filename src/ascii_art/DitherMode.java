@@ -0,0 +1,22 @@
+package ascii_art;
+
+/**
+ * How tile brightness levels between two characters of the set are spread over neighbouring
+ * tiles, instead of every tile taking the character of the closest brightness.
+ */
+public enum DitherMode {
+    /**
+     * Every tile takes the character of the closest brightness.
+     */
+    NONE,
+    /**
+     * Every tile picks between the characters just below and just above its brightness by
+     * comparing its position between them to a Bayer matrix threshold.
+     */
+    ORDERED,
+    /**
+     * Floyd-Steinberg error diffusion: the brightness missed by every tile is passed on to the
+     * tiles right of it and below it.
+     */
+    ERROR_DIFFUSION
+}
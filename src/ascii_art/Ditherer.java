@@ -0,0 +1,276 @@
+package ascii_art;
+
+import image_char_matching.SubImgCharMatcher;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Matches a grid of tile brightnesses to characters with dithering.
+ * The brightness levels of the character set are copied into sorted primitive arrays when the
+ * ditherer is created, so the grid can be matched from several threads at once.
+ * Ordered dithering matches every row independently. Error diffusion runs as a row pipeline:
+ * each worker thread takes every n-th row and follows the row above it two tiles behind, which
+ * is as soon as all the error a tile receives from that row is known. The result is the same as
+ * a sequential pass.
+ */
+class Ditherer {
+    // side of the Bayer matrix used by ordered dithering
+    private static final int BAYER_SIZE = 8;
+    // Bayer matrix thresholds between 0 and 1, row by row
+    private static final double[] BAYER_THRESHOLDS = createBayerThresholds();
+    // Floyd-Steinberg weights of the error passed right, down left, down and down right
+    private static final double RIGHT_WEIGHT = 7 / 16.0;
+    private static final double DOWN_LEFT_WEIGHT = 3 / 16.0;
+    private static final double DOWN_WEIGHT = 5 / 16.0;
+    private static final double DOWN_RIGHT_WEIGHT = 1 / 16.0;
+    // tiles a row is diffused further than the row below it may read, so the error it passes
+    // down is complete
+    private static final int PIPELINE_LAG = 2;
+    // busy waits for the row above before yielding the thread
+    private static final int MAX_SPINS = 100;
+    // tiles diffused between two progress updates of a row
+    private static final int PROGRESS_STEP = 32;
+    // tiles below which error diffusion is not worth starting threads for
+    private static final int MIN_PARALLEL_TILES = 1 << 14;
+
+    private final double[] levels;
+    private final char[] levelChars;
+
+    /**
+     * Constructor for `Ditherer` class.
+     *
+     * @param subImgCharMatcher The matcher holding the character set and its brightness levels.
+     */
+    Ditherer(SubImgCharMatcher subImgCharMatcher) {
+        // Chars sharing a level are represented by the smallest, as in getCharByImageBrightness
+        double[] allLevels = new double[subImgCharMatcher.getSetSize()];
+        char[] allChars = new char[allLevels.length];
+        Integer[] order = new Integer[allLevels.length];
+        int index = 0;
+        for (char c : subImgCharMatcher.getKeysSet()) {
+            allChars[index] = c;
+            allLevels[index] = subImgCharMatcher.getNormalizedBrightness(c);
+            order[index] = index;
+            index++;
+        }
+        // The key set is ascending and the sort is stable, so equal levels stay in char order
+        Arrays.sort(order, (a, b) -> Double.compare(allLevels[a], allLevels[b]));
+        double[] sortedLevels = new double[allLevels.length];
+        char[] sortedChars = new char[allLevels.length];
+        int count = 0;
+        for (int i : order) {
+            if (count == 0 || allLevels[i] != sortedLevels[count - 1]) {
+                sortedLevels[count] = allLevels[i];
+                sortedChars[count] = allChars[i];
+                count++;
+            }
+        }
+        levels = Arrays.copyOf(sortedLevels, count);
+        levelChars = Arrays.copyOf(sortedChars, count);
+    }
+
+    /**
+     * Matches the tiles with ordered dithering.
+     *
+     * @param brightnesses The brightness of every tile, row by row.
+     * @param cols         The number of tile columns.
+     * @return The characters of the tiles.
+     */
+    char[][] ordered(double[] brightnesses, int cols) {
+        char[][] res = new char[brightnesses.length / cols][cols];
+        IntStream.range(0, res.length).parallel().forEach(i -> {
+            int thresholdsRow = (i % BAYER_SIZE) * BAYER_SIZE;
+            for (int j = 0; j < cols; j++) {
+                double threshold = BAYER_THRESHOLDS[thresholdsRow + j % BAYER_SIZE];
+                res[i][j] = levelChars[orderedLevel(brightnesses[i * cols + j], threshold)];
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Matches the tiles with Floyd-Steinberg error diffusion.
+     *
+     * @param brightnesses The brightness of every tile, row by row.
+     * @param cols         The number of tile columns.
+     * @return The characters of the tiles.
+     */
+    char[][] errorDiffusion(double[] brightnesses, int cols) {
+        return errorDiffusion(brightnesses, cols, brightnesses.length < MIN_PARALLEL_TILES ? 1
+                : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Matches the tiles with Floyd-Steinberg error diffusion on a given number of threads.
+     *
+     * @param brightnesses The brightness of every tile, row by row.
+     * @param cols         The number of tile columns.
+     * @param threadCount  The number of threads diffusing rows, the calling one included.
+     * @return The characters of the tiles.
+     */
+    char[][] errorDiffusion(double[] brightnesses, int cols, int threadCount) {
+        int rows = brightnesses.length / cols;
+        char[][] res = new char[rows][cols];
+        // Error received by every tile from the row above it
+        double[][] errors = new double[rows + 1][cols];
+        // Number of tiles of every row diffused so far
+        AtomicIntegerArray progress = new AtomicIntegerArray(rows);
+        int workers = Math.max(1, Math.min(rows, threadCount));
+        // The threads are owned by this call: a pool shared with other work could leave the
+        // owner of a row unstarted while the row below it waits
+        Thread[] threads = new Thread[workers - 1];
+        for (int w = 1; w < workers; w++) {
+            int worker = w;
+            threads[w - 1] = new Thread(() -> diffuseRows(brightnesses, cols, worker, workers, errors,
+                    progress, res));
+            threads[w - 1].start();
+        }
+        diffuseRows(brightnesses, cols, 0, workers, errors, progress, res);
+        // Every row must be written before the art is returned, so an interrupt only takes effect
+        // once all workers finished, which they do without blocking for long
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException interruptedException) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return res;
+    }
+
+    /**
+     * Diffuses the rows of one worker, every workers-th row starting at the first one.
+     */
+    private void diffuseRows(double[] brightnesses, int cols, int firstRow, int workers,
+                             double[][] errors, AtomicIntegerArray progress, char[][] res) {
+        for (int i = firstRow; i < res.length; i += workers) {
+            double[] rowErrors = errors[i];
+            double[] nextRowErrors = errors[i + 1];
+            int aboveDone = i == 0 ? cols : progress.get(i - 1);
+            double rightError = 0;
+            for (int j = 0; j < cols; j++) {
+                // Wait until the row above passed down all the error this tile receives
+                int needed = Math.min(cols, j + PIPELINE_LAG);
+                for (int spins = 0; aboveDone < needed; spins++) {
+                    // Give the core away if the row above is not running right now
+                    if (spins < MAX_SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                    }
+                    aboveDone = progress.get(i - 1);
+                }
+                double brightness = brightnesses[i * cols + j] + rowErrors[j] + rightError;
+                int level = nearestLevel(brightness);
+                res[i][j] = levelChars[level];
+                double error = brightness - levels[level];
+                rightError = error * RIGHT_WEIGHT;
+                if (j > 0) {
+                    nextRowErrors[j - 1] += error * DOWN_LEFT_WEIGHT;
+                }
+                nextRowErrors[j] += error * DOWN_WEIGHT;
+                if (j + 1 < cols) {
+                    nextRowErrors[j + 1] += error * DOWN_RIGHT_WEIGHT;
+                }
+                if ((j + 1) % PROGRESS_STEP == 0) {
+                    progress.set(i, j + 1);
+                }
+            }
+            progress.set(i, cols);
+        }
+    }
+
+    /**
+     * Finds the level closest to a brightness, the lower one if both neighbours are as close.
+     *
+     * @param brightness The brightness.
+     * @return The index of the closest level.
+     */
+    private int nearestLevel(double brightness) {
+        int upper = upperLevel(brightness);
+        if (upper == 0) {
+            return 0;
+        }
+        if (upper == levels.length) {
+            return levels.length - 1;
+        }
+        double lowerDistance = brightness - levels[upper - 1];
+        double upperDistance = levels[upper] - brightness;
+        if (upperDistance < lowerDistance
+                || (upperDistance == lowerDistance && levelChars[upper] < levelChars[upper - 1])) {
+            return upper;
+        }
+        return upper - 1;
+    }
+
+    /**
+     * Picks between the levels just below and just above a brightness, taking the upper one if
+     * the brightness lies past the threshold between them.
+     *
+     * @param brightness The brightness.
+     * @param threshold  The threshold, between 0 and 1.
+     * @return The index of the picked level.
+     */
+    private int orderedLevel(double brightness, double threshold) {
+        int upper = upperLevel(brightness);
+        if (upper == 0) {
+            return 0;
+        }
+        if (upper == levels.length) {
+            return levels.length - 1;
+        }
+        double position = (brightness - levels[upper - 1]) / (levels[upper] - levels[upper - 1]);
+        return position > threshold ? upper : upper - 1;
+    }
+
+    /**
+     * Finds the first level above a brightness.
+     *
+     * @param brightness The brightness.
+     * @return The index of the first level greater than the brightness, or the number of levels.
+     */
+    private int upperLevel(double brightness) {
+        int low = 0;
+        int high = levels.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (levels[mid] <= brightness) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Creates the thresholds of a Bayer matrix, built by the recursion M(2n) = 4 M(n) + M(2),
+     * with M(2) = [[0, 2], [3, 1]]: the lowest bits of a cell's coordinates give the most
+     * significant digit of its rank.
+     *
+     * @return The thresholds, centred in their rank, row by row.
+     */
+    private static double[] createBayerThresholds() {
+        int bits = Integer.numberOfTrailingZeros(BAYER_SIZE);
+        double[] thresholds = new double[BAYER_SIZE * BAYER_SIZE];
+        for (int y = 0; y < BAYER_SIZE; y++) {
+            for (int x = 0; x < BAYER_SIZE; x++) {
+                int rank = 0;
+                for (int bit = 0; bit < bits; bit++) {
+                    int digit = 2 * ((x ^ y) >> bit & 1) + (y >> bit & 1);
+                    rank += digit << (2 * (bits - 1 - bit));
+                }
+                thresholds[y * BAYER_SIZE + x] = (rank + 0.5) / thresholds.length;
+            }
+        }
+        return thresholds;
+    }
+}
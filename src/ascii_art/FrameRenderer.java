@@ -0,0 +1,112 @@
+package ascii_art;
+
+import ascii_output.AsciiPatch;
+import image.FusedBrightnessCalc;
+import image.Image;
+import image_char_matching.GlyphFont;
+import image_char_matching.SubImgCharMatcher;
+import metrics.PipelineMetrics;
+import metrics.Stage;
+
+/**
+ * The `FrameRenderer` class renders a sequence of frames to ASCII art, reusing the work done for
+ * the previous frame wherever a tile did not change.
+ * A tile whose pixel fingerprint equals the previous frame's keeps its character and state as
+ * is, and a tile whose brightness moved by less than the epsilon keeps its character without
+ * matching.
+ */
+public class FrameRenderer {
+    private final int resolution;
+    private final double brightnessEpsilon;
+    private final FusedBrightnessCalc fusedBrightnessCalc = new FusedBrightnessCalc();
+    private final SubImgCharMatcher subImgCharMatcher;
+    private long[] prevFingerprints;
+    private double[] prevBrightnesses;
+    private char[] prevChars;
+
+    /**
+     * Constructor for `FrameRenderer` class.
+     *
+     * @param resolution        The desired resolution (number of characters) for each frame.
+     * @param charSet           The character set to be used in the ASCII art.
+     * @param brightnessEpsilon The brightness change below which a tile keeps its previous character.
+     */
+    public FrameRenderer(int resolution, char[] charSet, double brightnessEpsilon) {
+        this(resolution, charSet, brightnessEpsilon, GlyphFont.DEFAULT);
+    }
+
+    /**
+     * Constructor for `FrameRenderer` class measuring the glyphs in the given font.
+     *
+     * @param resolution        The desired resolution (number of characters) for each frame.
+     * @param charSet           The character set to be used in the ASCII art.
+     * @param brightnessEpsilon The brightness change below which a tile keeps its previous character.
+     * @param glyphFont         The font and pixel resolution the glyphs are measured in.
+     */
+    public FrameRenderer(int resolution, char[] charSet, double brightnessEpsilon, GlyphFont glyphFont) {
+        this.resolution = resolution;
+        this.brightnessEpsilon = brightnessEpsilon;
+        subImgCharMatcher = new SubImgCharMatcher(charSet, glyphFont);
+    }
+
+    /**
+     * Renders the next frame of the sequence.
+     * All frames of a sequence are expected to have the same dimensions.
+     *
+     * @param frame The frame to render.
+     * @return A 2D array of characters representing the frame.
+     */
+    public char[][] render(Image frame) {
+        renderPatch(frame);
+        char[][] res = new char[resolution][resolution];
+        for (int i = 0; i < prevChars.length; i++) {
+            res[i / resolution][i % resolution] = prevChars[i];
+        }
+        return res;
+    }
+
+    /**
+     * Renders the next frame of the sequence, returning only the cells whose character changed
+     * since the previous frame.
+     * All frames of a sequence are expected to have the same dimensions.
+     *
+     * @param frame The frame to render.
+     * @return The changed cells, or every cell if this is the first frame.
+     */
+    public AsciiPatch renderPatch(Image frame) {
+        int tilesCount = resolution * resolution;
+        // One pass over the frame rows gives both the brightness and the fingerprint of each tile
+        long[] fingerprints = new long[tilesCount];
+        PipelineMetrics.Sample brightnessSample = PipelineMetrics.start(Stage.BRIGHTNESS);
+        double[] brightnesses = fusedBrightnessCalc.getTileBrightnesses(frame, resolution, fingerprints);
+        brightnessSample.stop((long) frame.getWidth() * frame.getHeight(), 0);
+        // The first frame, or a frame of a different size, has nothing to reuse
+        boolean hasPrevFrame = prevChars != null && prevChars.length == tilesCount;
+        if (!hasPrevFrame) {
+            prevFingerprints = new long[tilesCount];
+            prevBrightnesses = new double[tilesCount];
+            prevChars = new char[tilesCount];
+        }
+        AsciiPatch patch = new AsciiPatch(resolution, resolution, !hasPrevFrame);
+        for (int i = 0; i < tilesCount; i++) {
+            long fingerprint = fingerprints[i];
+            if (hasPrevFrame && fingerprint == prevFingerprints[i]) {
+                // Identical pixels, keep everything from the previous frame
+                continue;
+            }
+            double brightness = brightnesses[i];
+            // A tile that moved by less than the epsilon keeps its old brightness as reference, so
+            // a slow drift still triggers a re-match
+            if (!hasPrevFrame || Math.abs(brightness - prevBrightnesses[i]) >= brightnessEpsilon) {
+                char ch = subImgCharMatcher.getCharByImageBrightness(brightness);
+                if (!hasPrevFrame || ch != prevChars[i]) {
+                    patch.addCell(i / resolution, i % resolution, ch);
+                }
+                prevChars[i] = ch;
+                prevBrightnesses[i] = brightness;
+            }
+            prevFingerprints[i] = fingerprint;
+        }
+        return patch;
+    }
+}
@@ -0,0 +1,111 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+import image.FusedBrightnessCalc;
+import image.Image;
+import image.ImageCalc;
+import image.TileGrid;
+import image_char_matching.GlyphFont;
+import metrics.PipelineMetrics;
+import metrics.Stage;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The `MultiResolutionAsciiArt` class renders one image to ASCII art at several resolutions of
+ * square grids, decoding it once and reading its pixels in a single pass.
+ * The brightness of every resolution is stored in the Shell like the brightness of a single
+ * run, so the characters of every resolution are then matched as an AsciiArtAlgorithm would.
+ */
+public class MultiResolutionAsciiArt {
+    private final String imagePath;
+    private final char[] charSet;
+    private final FusedBrightnessCalc fusedBrightnessCalc = new FusedBrightnessCalc();
+    private DitherMode ditherMode = DitherMode.NONE;
+    private GlyphFont glyphFont = GlyphFont.DEFAULT;
+
+    /**
+     * Constructor for `MultiResolutionAsciiArt` class.
+     *
+     * @param imagePath The file path to the input image.
+     * @param charSet   The character set to be used in the ASCII art.
+     */
+    public MultiResolutionAsciiArt(String imagePath, char[] charSet) {
+        this.imagePath = imagePath;
+        this.charSet = charSet;
+    }
+
+    /**
+     * Sets how brightness levels between the characters of the set are spread over neighbouring
+     * tiles, at every resolution.
+     *
+     * @param ditherMode The dithering mode, NONE by default.
+     */
+    public void setDitherMode(DitherMode ditherMode) {
+        this.ditherMode = ditherMode;
+    }
+
+    /**
+     * Sets the font and pixel resolution the glyphs of the set are measured in, at every
+     * resolution.
+     *
+     * @param glyphFont The glyph font, GlyphFont.DEFAULT by default.
+     */
+    public void setGlyphFont(GlyphFont glyphFont) {
+        this.glyphFont = glyphFont;
+    }
+
+    /**
+     * Renders the image at every resolution.
+     *
+     * @param resolutions The numbers of characters per dimension.
+     * @return The ASCII art of every resolution, in the order of the resolutions.
+     * @throws IOException If there is an issue with the image file.
+     */
+    public char[][][] run(int[] resolutions) throws IOException {
+        long imageFingerprint = new ImageCalc().getFileFingerprint(imagePath);
+        // Only the resolutions whose brightness is not known yet need the pixels
+        int[] missingResolutions = Arrays.stream(resolutions).distinct()
+                .filter(resolution -> !Shell.ImgBrightnessContains(imageFingerprint, TileGrid.square(resolution)))
+                .toArray();
+        if (missingResolutions.length > 0) {
+            BufferedImage decodedImage = Image.readImage(imagePath);
+            PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.BRIGHTNESS);
+            double[][] brightnesses = fusedBrightnessCalc.getTileBrightnesses(decodedImage, missingResolutions);
+            sample.stop((long) decodedImage.getWidth() * decodedImage.getHeight(), 0);
+            for (int k = 0; k < missingResolutions.length; k++) {
+                Shell.setImgBrightness(imageFingerprint, TileGrid.square(missingResolutions[k]), brightnesses[k]);
+            }
+        }
+        char[][][] arts = new char[resolutions.length][][];
+        for (int k = 0; k < resolutions.length; k++) {
+            AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(imagePath, imageFingerprint,
+                    TileGrid.square(resolutions[k]), charSet, false);
+            asciiArtAlgorithm.setDitherMode(ditherMode);
+            asciiArtAlgorithm.setGlyphFont(glyphFont);
+            arts[k] = asciiArtAlgorithm.run();
+        }
+        return arts;
+    }
+
+    /**
+     * Renders the image at every resolution, writing every result to its own output.
+     *
+     * @param resolutions The numbers of characters per dimension.
+     * @param outputs     The output of every resolution, in the same order.
+     * @throws IOException If there is an issue with the image file.
+     */
+    public void run(int[] resolutions, AsciiOutput[] outputs) throws IOException {
+        if (outputs.length != resolutions.length) {
+            throw new IllegalArgumentException("Expected an output per resolution");
+        }
+        char[][][] arts = run(resolutions);
+        for (int k = 0; k < arts.length; k++) {
+            PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.OUTPUT);
+            outputs[k].out(arts[k]);
+            sample.stop((long) arts[k].length * resolutions[k], 0);
+        }
+    }
+}
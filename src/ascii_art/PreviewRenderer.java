@@ -0,0 +1,94 @@
+package ascii_art;
+
+import Exceptions.RenderCancelledException;
+import ascii_output.AsciiOutput;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders previews in the background, one at a time, so the shell keeps reading commands while
+ * the art catches up with them.
+ * Every submitted preview cancels the previous ones: a preview that did not start is dropped,
+ * and one that is rendering stops at its next check of its token, its art never output.
+ */
+final class PreviewRenderer {
+    /**
+     * A render of the settings captured when the preview was submitted.
+     */
+    interface Render {
+        char[][] run(RenderToken token) throws IOException, RenderCancelledException;
+    }
+
+    // printed before the error a preview failed with, which would be lost in its future
+    private static final String RENDER_ERROR = "Did not render the preview due to an error: ";
+
+    private final Object renderLock;
+    private final String ioError;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "preview-render");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> inFlight;
+    private RenderToken inFlightToken;
+
+    /**
+     * Constructor for `PreviewRenderer` class.
+     *
+     * @param renderLock The lock every render of the shell holds, so previews never run
+     *                   alongside a render of the command thread.
+     * @param ioError    The message printed when a preview cannot read the image.
+     */
+    PreviewRenderer(Object renderLock, String ioError) {
+        this.renderLock = renderLock;
+        this.ioError = ioError;
+    }
+
+    /**
+     * Renders a preview in the background and outputs it unless it was cancelled meanwhile.
+     *
+     * @param render The render, reading no state of the shell that may change after this call.
+     * @param output The output the art is shown in.
+     */
+    synchronized void submit(Render render, AsciiOutput output) {
+        cancel();
+        RenderToken token = new RenderToken();
+        inFlightToken = token;
+        inFlight = executor.submit(() -> {
+            synchronized (renderLock) {
+                if (token.isCancelled()) {
+                    return;
+                }
+                try {
+                    char[][] chars = render.run(token);
+                    if (!token.isCancelled()) {
+                        output.out(chars);
+                    }
+                } catch (RenderCancelledException renderCancelledException) {
+                    // A newer preview replaces this one
+                } catch (IOException ioException) {
+                    System.out.println(ioError);
+                } catch (RuntimeException runtimeException) {
+                    System.out.println(RENDER_ERROR + runtimeException);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels every submitted preview.
+     */
+    synchronized void cancel() {
+        if (inFlight != null) {
+            // The token stops a preview that started, interrupting it would close the channels
+            // of the shared brightness cache
+            inFlightToken.cancel();
+            inFlight.cancel(false);
+            inFlight = null;
+            inFlightToken = null;
+        }
+    }
+}
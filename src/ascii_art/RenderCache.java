@@ -0,0 +1,248 @@
+package ascii_art;
+
+import ascii_output.BinaryAsciiOutput;
+import ascii_output.BinaryAsciiReader;
+import image.TileGrid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Caches finished renders, keyed by everything that determines them, so that a request equal to
+ * an earlier one goes straight to the output.
+ * Renders are kept in memory in least recently used order up to a size budget. When a spill
+ * directory is set, renders evicted from memory are written there in the binary frame format
+ * and read back on a later request, instead of being rendered again.
+ */
+class RenderCache {
+    // estimated bytes of a char[][] beyond its chars: the outer array and one header per row
+    private static final int ARRAY_OVERHEAD = 16;
+    // suffix of spilled render files
+    private static final String SPILL_SUFFIX = ".asciib";
+    // render parameter holding the full key of a spilled render
+    private static final String KEY_PARAM = "key";
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, char[][]> renders = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private File spillDirectory;
+    private long hits = 0;
+    private long spillHits = 0;
+    private long misses = 0;
+
+    /**
+     * Everything a render depends on.
+     */
+    static final class Key {
+        private final long imageFingerprint;
+        private final TileGrid tileGrid;
+        private final char[] sortedCharSet;
+        private final String fontName;
+        private final DitherMode ditherMode;
+        private final double sampleShare;
+        private final int hashCode;
+
+        /**
+         * Constructor for `Key` class.
+         *
+         * @param imageFingerprint   The fingerprint of the image file.
+         * @param tileGrid           The division of the image into tiles, which also tells
+         *                           brightness from shape matching.
+         * @param charSet            The charset, in any order.
+         * @param fontName           The font glyphs are measured in.
+         * @param ditherMode         The dithering mode.
+         * @param sampleShare        The share of a tile one sample of an approximate render stands
+         *                           for, 0 if exact.
+         */
+        Key(long imageFingerprint, TileGrid tileGrid, char[] charSet, String fontName, DitherMode ditherMode,
+            double sampleShare) {
+            this.imageFingerprint = imageFingerprint;
+            this.tileGrid = tileGrid;
+            sortedCharSet = charSet.clone();
+            Arrays.sort(sortedCharSet);
+            this.fontName = fontName;
+            this.ditherMode = ditherMode;
+            this.sampleShare = sampleShare;
+            hashCode = Objects.hash(imageFingerprint, tileGrid, Arrays.hashCode(sortedCharSet), fontName,
+                    ditherMode, sampleShare);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) obj;
+            return imageFingerprint == key.imageFingerprint && tileGrid.equals(key.tileGrid)
+                    && Arrays.equals(sortedCharSet, key.sortedCharSet) && fontName.equals(key.fontName)
+                    && ditherMode == key.ditherMode
+                    && Double.compare(sampleShare, key.sampleShare) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        /**
+         * Describes the key in full, to tell a spilled render of this key from one whose file
+         * name collides.
+         */
+        @Override
+        public String toString() {
+            String description = String.format("%016x %s %s %s %s", imageFingerprint, tileGrid,
+                    new String(sortedCharSet), fontName, ditherMode);
+            return sampleShare == 0 ? description : description + " sample share " + sampleShare;
+        }
+    }
+
+    /**
+     * Constructor for `RenderCache` class.
+     *
+     * @param maxBytes The estimated memory the cached renders may take.
+     */
+    RenderCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Sets the directory renders evicted from memory are spilled to.
+     *
+     * @param spillDirectory The directory, created if missing, or null to drop evicted renders.
+     * @throws IOException If the directory cannot be created.
+     */
+    void setSpillDirectory(File spillDirectory) throws IOException {
+        if (spillDirectory != null && !spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + spillDirectory);
+        }
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Gets the render of a key, from memory or from the spill directory.
+     *
+     * @param key The render parameters.
+     * @return The render, which must not be modified, or null if it is not cached.
+     */
+    char[][] get(Key key) {
+        char[][] chars = renders.get(key);
+        if (chars != null) {
+            hits++;
+            return chars;
+        }
+        chars = readSpilled(key);
+        if (chars != null) {
+            spillHits++;
+            put(key, chars);
+            return chars;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Caches the render of a key, evicting the least recently used renders beyond the budget.
+     *
+     * @param key   The render parameters.
+     * @param chars The render, which must not be modified afterwards.
+     */
+    void put(Key key, char[][] chars) {
+        char[][] previous = renders.put(key, chars);
+        if (previous != null) {
+            bytes -= estimateBytes(previous);
+        }
+        bytes += estimateBytes(chars);
+        Iterator<Map.Entry<Key, char[][]>> eldest = renders.entrySet().iterator();
+        // The render just added stays even if it alone exceeds the budget
+        while (bytes > maxBytes && renders.size() > 1) {
+            Map.Entry<Key, char[][]> entry = eldest.next();
+            bytes -= estimateBytes(entry.getValue());
+            spill(entry.getKey(), entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Gets the number of requests answered from memory.
+     *
+     * @return The number of memory hits.
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of requests answered from the spill directory.
+     *
+     * @return The number of spill hits.
+     */
+    long getSpillHits() {
+        return spillHits;
+    }
+
+    /**
+     * Gets the number of requests that had to be rendered.
+     *
+     * @return The number of misses.
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    private void spill(Key key, char[][] chars) {
+        if (spillDirectory == null) {
+            return;
+        }
+        File file = spillFile(key);
+        // A render is only ever spilled once per key, and is never modified
+        if (!file.exists()) {
+            Map<String, String> renderParams = Collections.singletonMap(KEY_PARAM, key.toString());
+            new BinaryAsciiOutput(file.getPath(), key.sortedCharSet, renderParams, true).out(chars);
+        }
+    }
+
+    private char[][] readSpilled(Key key) {
+        if (spillDirectory == null) {
+            return null;
+        }
+        File file = spillFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (BinaryAsciiReader reader = new BinaryAsciiReader(file.getPath())) {
+            if (reader.getFrameCount() == 0 || !key.toString().equals(reader.getRenderParams().get(KEY_PARAM))) {
+                return null;
+            }
+            return reader.readFrame(0);
+        } catch (IOException e) {
+            // A damaged spill file is just a miss
+            return null;
+        }
+    }
+
+    private File spillFile(Key key) {
+        // FNV-1a of the full key description
+        long nameHash = 0xcbf29ce484222325L;
+        for (char c : key.toString().toCharArray()) {
+            nameHash = (nameHash ^ c) * 0x100000001b3L;
+        }
+        return new File(spillDirectory, String.format("%016x%s", nameHash, SPILL_SUFFIX));
+    }
+
+    private static long estimateBytes(char[][] chars) {
+        long size = ARRAY_OVERHEAD;
+        for (char[] row : chars) {
+            size += ARRAY_OVERHEAD + (long) row.length * Character.BYTES;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,73 @@
+package ascii_art;
+
+import Exceptions.RenderCancelledException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `RenderToken` class lets the caller of a render stop it from another thread, or bound the
+ * time it may take.
+ * A cancelled render throws as soon as it checks the token, while a render past its deadline
+ * stops refining and returns what is ready.
+ */
+public final class RenderToken {
+    private static final String CANCELLED_MESSAGE = "Render cancelled.";
+    private final long deadlineNanos;
+    private final boolean hasDeadline;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Constructor for `RenderToken` class, for a render that runs until it finishes or is
+     * cancelled.
+     */
+    public RenderToken() {
+        deadlineNanos = 0;
+        hasDeadline = false;
+    }
+
+    /**
+     * Constructor for `RenderToken` class, for a render bounded in time.
+     *
+     * @param timeoutMillis The time the render may take from now, in milliseconds.
+     */
+    public RenderToken(long timeoutMillis) {
+        deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        hasDeadline = true;
+    }
+
+    /**
+     * Cancels the render, which throws the next time it checks the token.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks whether the render was cancelled.
+     *
+     * @return True if cancel was called.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Checks whether the deadline of the render passed.
+     *
+     * @return True if the token has a deadline and it passed, false otherwise.
+     */
+    public boolean isExpired() {
+        return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * Throws if the render was cancelled.
+     *
+     * @throws RenderCancelledException If cancel was called.
+     */
+    void throwIfCancelled() throws RenderCancelledException {
+        if (cancelled) {
+            throw new RenderCancelledException(CANCELLED_MESSAGE);
+        }
+    }
+}
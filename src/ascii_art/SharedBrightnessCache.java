@@ -0,0 +1,377 @@
+package ascii_art;
+
+import image.TileGrid;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Shares the tile brightness of images between the processes of a host through a memory-mapped
+ * file, keyed by the image fingerprint and the tile grid, so one process's calculation serves
+ * all others without a decode.
+ * The file holds a fixed-size open addressing index followed by an append-only record area.
+ * Readers take no lock: a writer appends the record first and only then publishes its offset in
+ * the index and the new end of the records, both with release semantics.
+ * Writers serialize on a file lock. When the record area or the index fills up, the writer
+ * compacts the newest records into a fresh file, renames it over the shared path and marks the
+ * old file stale, so the other processes map the new file on their next access. Records are never
+ * modified in place, so a reader still holding the old mapping reads consistent data.
+ */
+class SharedBrightnessCache {
+    // "ASBC", telling a cache file from any other file at the path
+    private static final int MAGIC = 0x41534243;
+    private static final int VERSION = 1;
+    // header fields, in bytes from the start of the file
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOTS_OFFSET = 8;
+    private static final int USED_SLOTS_OFFSET = 12;
+    private static final int END_OFFSET = 16;
+    private static final int STALE_OFFSET = 24;
+    private static final int HEADER_SIZE = 64;
+    // an index slot holds the key hash and the record offset, 0 while the slot is empty
+    private static final int SLOT_SIZE = 16;
+    // index slots per byte of file, one slot per 16 KiB, the size of a 45 x 45 grid
+    private static final int BYTES_PER_SLOT = 16 << 10;
+    // an index fuller than this is compacted, so probes stay short
+    private static final double MAX_LOAD = 0.5;
+    // share of the record area the newest records may take after compaction
+    private static final double COMPACTED_SHARE = 0.5;
+    // suffix of the file a compaction writes before renaming it over the shared path
+    private static final String COMPACTION_SUFFIX = ".tmp";
+    // long fields accessed with acquire and release semantics, shared with other processes
+    private static final VarHandle LONG_HANDLE =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;
+    private final long fileSize;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int slots;
+
+    /**
+     * Opens the shared cache file, creating it with the given size if it does not exist yet.
+     *
+     * @param path     The path of the cache file, the same in every sharing process.
+     * @param fileSize The size of a new cache file, in bytes.
+     * @throws IOException If the file cannot be mapped, or is not a cache file.
+     */
+    SharedBrightnessCache(Path path, long fileSize) throws IOException {
+        this.path = path;
+        this.fileSize = fileSize;
+        open();
+    }
+
+    /**
+     * Gets the brightness of an image for a tile grid.
+     *
+     * @param imageFingerprint The fingerprint of the image file.
+     * @param tileGrid         The tile grid the brightness was calculated for.
+     * @return A copy of the brightness, or null if no process published it.
+     */
+    synchronized double[] get(long imageFingerprint, TileGrid tileGrid) {
+        try {
+            reopenIfStale();
+        } catch (IOException e) {
+            // A cache that cannot be reopened is just a miss
+            return null;
+        }
+        byte[] grid = tileGrid.toString().getBytes(StandardCharsets.UTF_8);
+        long record = find(keyHash(imageFingerprint, grid), imageFingerprint, grid);
+        if (record == 0) {
+            return null;
+        }
+        int countOffset = (int) record + Long.BYTES + Integer.BYTES + grid.length;
+        double[] brightness = new double[buffer.getInt(countOffset)];
+        ByteBuffer values = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        values.position(valuesOffset(countOffset));
+        values.asDoubleBuffer().get(brightness);
+        return brightness;
+    }
+
+    /**
+     * Publishes the brightness of an image for a tile grid, unless a process already did.
+     * A brightness too large to fit in the cache is not published.
+     *
+     * @param imageFingerprint The fingerprint of the image file.
+     * @param tileGrid         The tile grid the brightness was calculated for.
+     * @param brightness       The brightness.
+     * @throws IOException If the file cannot be locked, or a compaction fails.
+     */
+    @SuppressWarnings("try")
+    synchronized void put(long imageFingerprint, TileGrid tileGrid, double[] brightness) throws IOException {
+        byte[] grid = tileGrid.toString().getBytes(StandardCharsets.UTF_8);
+        long keyHash = keyHash(imageFingerprint, grid);
+        int recordSize = recordSize(grid.length, brightness.length);
+        if (recordSize > (buffer.capacity() - recordsStart(slots)) * COMPACTED_SHARE) {
+            return;
+        }
+        while (true) {
+            try (FileLock lock = channel.lock()) {
+                // A stale file was compacted by another process while this one waited for the lock
+                if (!isStale()) {
+                    if (find(keyHash, imageFingerprint, grid) != 0) {
+                        return;
+                    }
+                    long end = (long) LONG_HANDLE.getAcquire(buffer, END_OFFSET);
+                    if (end + recordSize <= buffer.capacity()
+                            && buffer.getInt(USED_SLOTS_OFFSET) + 1 <= slots * MAX_LOAD) {
+                        writeRecord((int) end, imageFingerprint, grid, brightness);
+                        insert(keyHash, end);
+                        LONG_HANDLE.setRelease(buffer, END_OFFSET, end + recordSize);
+                        return;
+                    }
+                    compact();
+                }
+            }
+            // The lock is released before the channel it was taken on is closed
+            open();
+        }
+    }
+
+    /**
+     * Maps the file at the shared path, initializing it if it was just created, or if a process
+     * creating it died before writing its header.
+     *
+     * @throws IOException If the file cannot be mapped, or is not a cache file.
+     */
+    @SuppressWarnings("try")
+    private void open() throws IOException {
+        FileChannel newChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            try (FileLock lock = newChannel.lock()) {
+                if (isUninitialized(newChannel)) {
+                    initialize(newChannel, fileSize);
+                }
+            }
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, newChannel.size());
+            newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (newBuffer.capacity() < HEADER_SIZE || newBuffer.getInt(MAGIC_OFFSET) != MAGIC
+                    || newBuffer.getInt(VERSION_OFFSET) != VERSION) {
+                throw new IOException("Not a brightness cache file: " + path);
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            channel = newChannel;
+            buffer = newBuffer;
+            slots = buffer.getInt(SLOTS_OFFSET);
+        } catch (IOException e) {
+            newChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether a cache file, locked by the caller, is empty or was extended by a process
+     * that died before writing the header, which is never all zeroes once written.
+     */
+    private static boolean isUninitialized(FileChannel channel) throws IOException {
+        if (channel.size() == 0) {
+            return true;
+        }
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            channel.read(header, header.position());
+        }
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            if (header.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the header of an empty cache file, the index and the records left zeroed.
+     */
+    private static void initialize(FileChannel channel, long fileSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int slots = slotsFor(fileSize);
+        header.putInt(MAGIC_OFFSET, MAGIC);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putInt(SLOTS_OFFSET, slots);
+        header.putInt(USED_SLOTS_OFFSET, 0);
+        header.putLong(END_OFFSET, recordsStart(slots));
+        header.putLong(STALE_OFFSET, 0);
+        // Extend the file first, so the header is the last thing a reader can see
+        channel.write(ByteBuffer.allocate(1), fileSize - 1);
+        channel.write(header, 0);
+        channel.force(true);
+    }
+
+    private boolean isStale() {
+        return (long) LONG_HANDLE.getAcquire(buffer, STALE_OFFSET) != 0;
+    }
+
+    private void reopenIfStale() throws IOException {
+        if (isStale()) {
+            open();
+        }
+    }
+
+    /**
+     * Copies the newest records into a fresh file, renames it over the shared path and marks the
+     * current file stale. Must be called with the file lock held, the fresh file is mapped once
+     * it is released.
+     *
+     * @throws IOException If the fresh file cannot be written.
+     */
+    private void compact() throws IOException {
+        List<long[]> entries = new ArrayList<>();
+        for (int slot = 0; slot < slots; slot++) {
+            long record = (long) LONG_HANDLE.getAcquire(buffer, slotOffset(slot) + Long.BYTES);
+            if (record != 0) {
+                entries.add(new long[]{buffer.getLong(slotOffset(slot)), record});
+            }
+        }
+        // Records are appended in order, so the highest offsets are the newest
+        entries.sort(Comparator.comparingLong((long[] entry) -> entry[1]).reversed());
+        Path compactedPath = Paths.get(path + COMPACTION_SUFFIX);
+        long size = buffer.capacity();
+        Files.deleteIfExists(compactedPath);
+        try (FileChannel compactedChannel = FileChannel.open(compactedPath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            initialize(compactedChannel, size);
+            MappedByteBuffer compacted = compactedChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            compacted.order(ByteOrder.LITTLE_ENDIAN);
+            long start = recordsStart(slots);
+            long end = start;
+            int used = 0;
+            for (long[] entry : entries) {
+                int record = (int) entry[1];
+                int gridLength = buffer.getInt(record + Long.BYTES);
+                int count = buffer.getInt(record + Long.BYTES + Integer.BYTES + gridLength);
+                int recordSize = recordSize(gridLength, count);
+                if (end + recordSize - start > (size - start) * COMPACTED_SHARE
+                        || used + 1 > slots * MAX_LOAD * COMPACTED_SHARE) {
+                    break;
+                }
+                compacted.put((int) end, buffer, record, recordSize);
+                insert(compacted, entry[0], end);
+                used++;
+                end += recordSize;
+            }
+            compacted.putInt(USED_SLOTS_OFFSET, used);
+            compacted.putLong(END_OFFSET, end);
+            compacted.force();
+        }
+        Files.move(compactedPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LONG_HANDLE.setRelease(buffer, STALE_OFFSET, 1L);
+    }
+
+    /**
+     * Finds the record of a key.
+     *
+     * @return The offset of the record, or 0 if the key is not in the index.
+     */
+    private long find(long keyHash, long imageFingerprint, byte[] grid) {
+        int slot = (int) Long.remainderUnsigned(keyHash, slots);
+        for (int probes = 0; probes < slots; probes++) {
+            int slotOffset = slotOffset(slot);
+            // The acquire pairs with the release of insert: the key hash and record are visible
+            long record = (long) LONG_HANDLE.getAcquire(buffer, slotOffset + Long.BYTES);
+            if (record == 0) {
+                return 0;
+            }
+            if (buffer.getLong(slotOffset) == keyHash && matches((int) record, imageFingerprint, grid)) {
+                return record;
+            }
+            slot = (slot + 1) % slots;
+        }
+        return 0;
+    }
+
+    private boolean matches(int record, long imageFingerprint, byte[] grid) {
+        if (buffer.getLong(record) != imageFingerprint || buffer.getInt(record + Long.BYTES) != grid.length) {
+            return false;
+        }
+        int gridOffset = record + Long.BYTES + Integer.BYTES;
+        for (int i = 0; i < grid.length; i++) {
+            if (buffer.get(gridOffset + i) != grid[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(long keyHash, long record) {
+        insert(buffer, keyHash, record);
+        buffer.putInt(USED_SLOTS_OFFSET, buffer.getInt(USED_SLOTS_OFFSET) + 1);
+    }
+
+    private void insert(MappedByteBuffer target, long keyHash, long record) {
+        int slot = (int) Long.remainderUnsigned(keyHash, slots);
+        while ((long) LONG_HANDLE.getAcquire(target, slotOffset(slot) + Long.BYTES) != 0) {
+            slot = (slot + 1) % slots;
+        }
+        target.putLong(slotOffset(slot), keyHash);
+        LONG_HANDLE.setRelease(target, slotOffset(slot) + Long.BYTES, record);
+    }
+
+    /**
+     * Writes a record: the image fingerprint, the tile grid description and the brightness
+     * values, aligned to 8 bytes.
+     */
+    private void writeRecord(int record, long imageFingerprint, byte[] grid, double[] brightness) {
+        buffer.putLong(record, imageFingerprint);
+        buffer.putInt(record + Long.BYTES, grid.length);
+        buffer.put(record + Long.BYTES + Integer.BYTES, grid);
+        int countOffset = record + Long.BYTES + Integer.BYTES + grid.length;
+        buffer.putInt(countOffset, brightness.length);
+        ByteBuffer values = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        values.position(valuesOffset(countOffset));
+        values.asDoubleBuffer().put(brightness);
+    }
+
+    private static int valuesOffset(int countOffset) {
+        return (countOffset + Integer.BYTES + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+    }
+
+    private static int recordSize(int gridLength, int count) {
+        return valuesOffset(Long.BYTES + Integer.BYTES + gridLength) + count * Double.BYTES;
+    }
+
+    private static int slotsFor(long fileSize) {
+        return (int) Math.max(16, fileSize / BYTES_PER_SLOT);
+    }
+
+    private static long recordsStart(int slots) {
+        return HEADER_SIZE + (long) slots * SLOT_SIZE;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static long keyHash(long imageFingerprint, byte[] grid) {
+        // FNV-1a over the fingerprint bytes and the grid description
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash ^ ((imageFingerprint >>> (i * 8)) & 0xFF)) * 0x100000001b3L;
+        }
+        for (byte b : grid) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
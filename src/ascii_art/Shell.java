@@ -1,14 +1,42 @@
 package ascii_art;
 
 import Exceptions.*;
+import ascii_output.AsciiAnimationOutput;
 import ascii_output.AsciiOutput;
+import ascii_output.AsciiPatch;
+import ascii_output.AsciiPatchOutput;
+import ascii_output.BinaryAsciiOutput;
+import ascii_output.ColorAsciiOutput;
+import ascii_output.ConsoleAsciiAnimationOutput;
 import ascii_output.ConsoleAsciiOutput;
+import ascii_output.ConsoleScreen;
+import ascii_output.HtmlAsciiAnimationOutput;
 import ascii_output.HtmlAsciiOutput;
+import ascii_output.LivePreviewAsciiOutput;
 import image.Image;
+import image.ImageCalc;
+import image.ImageSequence;
+import image.TileGrid;
+import image_char_matching.GlyphFont;
+import image_char_matching.GlyphMetrics;
+import image_char_matching.GlyphRegistry;
 import image_char_matching.SubImgCharMatcher;
+import metrics.Cache;
+import metrics.PipelineMetrics;
+import metrics.Stage;
+import metrics.StartupTimer;
 
+import java.awt.Dimension;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.logging.Logger;
 
 /**
  * The Shell class represents a command-line shell for generating ASCII art from an image.
@@ -106,6 +134,173 @@ public class Shell {
     private final String INVALID_OUTPUT_FORMAT_ERROR =
             "Did not change output method due to incorrect format.";
 
+    /**
+     * File the binary output appends rendered frames to.
+     */
+    private final String BINARY_OUTPUT_FILE = "out.asciib";
+
+    /**
+     * Error message for art that cannot be appended to the binary output file.
+     */
+    private final String BINARY_OUTPUT_MISMATCH_ERROR =
+            "Did not output. " + BINARY_OUTPUT_FILE + " holds art of another charset or settings.";
+
+    /**
+     * Index after the "tiling" command in user input.
+     */
+    private final int INDEX_AFTER_TILING_COMMAND = 7;
+
+    /**
+     * Error message for invalid "tiling" command format.
+     */
+    private final String INVALID_TILING_FORMAT_ERROR = "Did not change tiling due to incorrect format.";
+
+    /**
+     * Index after the "matching" command in user input.
+     */
+    private final int INDEX_AFTER_MATCHING_COMMAND = 9;
+
+    /**
+     * Error message for invalid "matching" command format.
+     */
+    private final String INVALID_MATCHING_FORMAT_ERROR = "Did not change matching due to incorrect format.";
+
+    /**
+     * Index after the "dither" command in user input.
+     */
+    private final int INDEX_AFTER_DITHER_COMMAND = 7;
+
+    /**
+     * Error message for invalid "dither" command format.
+     */
+    private final String INVALID_DITHER_FORMAT_ERROR = "Did not change dithering due to incorrect format.";
+
+    /**
+     * Index after the "color" command in user input.
+     */
+    private final int INDEX_AFTER_COLOR_COMMAND = 6;
+
+    /**
+     * Error message for invalid "color" command format.
+     */
+    private final String INVALID_COLOR_FORMAT_ERROR = "Did not change color mode due to incorrect format.";
+
+    /**
+     * Index after the "spill" command in user input.
+     */
+    private final int INDEX_AFTER_SPILL_COMMAND = 6;
+
+    /**
+     * Error message for invalid "spill" command format or an unusable spill directory.
+     */
+    private final String INVALID_SPILL_FORMAT_ERROR = "Did not change spill directory due to incorrect format.";
+
+    /**
+     * Index after the "approx" command in user input.
+     */
+    private final int INDEX_AFTER_APPROX_COMMAND = 7;
+
+    /**
+     * Error message for invalid "approx" command format.
+     */
+    private final String INVALID_APPROX_FORMAT_ERROR = "Did not change approximation due to incorrect format.";
+
+    /**
+     * Index after the "deadline" command in user input.
+     */
+    private final int INDEX_AFTER_DEADLINE_COMMAND = 9;
+
+    /**
+     * Error message for invalid "deadline" command format.
+     */
+    private final String INVALID_DEADLINE_FORMAT_ERROR = "Did not change deadline due to incorrect format.";
+
+    /**
+     * Error message for a render cancelled before it finished.
+     */
+    private final String RENDER_CANCELLED_ERROR = "Did not output because the render was cancelled.";
+
+    /**
+     * Index after the "font" command in user input.
+     */
+    private final int INDEX_AFTER_FONT_COMMAND = 5;
+
+    /**
+     * Error message for invalid "font" command format.
+     */
+    private final String INVALID_FONT_FORMAT_ERROR = "Did not change font due to incorrect format.";
+
+    /**
+     * Smallest pixel resolution glyphs can be measured at.
+     */
+    private final int MIN_GLYPH_RESOLUTION = 8;
+
+    /**
+     * Largest pixel resolution glyphs can be measured at.
+     */
+    private final int MAX_GLYPH_RESOLUTION = 128;
+
+    /**
+     * Largest number of redraws per second of the live preview output.
+     */
+    private final int LIVE_PREVIEW_FPS = 30;
+
+    /**
+     * Estimated memory finished renders may take before the least recently used ones are evicted.
+     */
+    private static final long RENDER_CACHE_BYTES = 64L << 20;
+
+    /**
+     * System property naming a glyph metrics file written by GlyphMetrics, whose brightness
+     * levels are used instead of rendering the glyphs.
+     */
+    private static final String GLYPH_METRICS_PROPERTY = "ascii_art.glyphMetrics";
+
+    /**
+     * System property naming a directory the brightness levels of every glyph font are kept in
+     * across runs.
+     */
+    private static final String GLYPH_CACHE_PROPERTY = "ascii_art.glyphCache";
+
+    /**
+     * System property naming a memory-mapped file through which the processes of a host share the
+     * tile brightness they calculate.
+     */
+    private static final String SHARED_BRIGHTNESS_CACHE_PROPERTY = "ascii_art.sharedBrightnessCache";
+
+    /**
+     * Size of a new shared brightness cache file.
+     */
+    private static final long SHARED_BRIGHTNESS_CACHE_BYTES = 64L << 20;
+
+    /**
+     * Command-line option running the commands of a file, or of the standard input with "-",
+     * as a batch.
+     */
+    private static final String SCRIPT_OPTION = "--script";
+
+    /**
+     * Path of the standard input as a script.
+     */
+    private static final String STANDARD_INPUT = "-";
+
+    /**
+     * Number of cells per tile side compared against the glyphs when matching on shape.
+     */
+    private final int SHAPE_CELLS_PER_SIDE = 3;
+
+    /**
+     * Width of a console glyph cell divided by its height: every char is printed followed by a
+     * space, which makes the cell about as wide as a terminal line is high.
+     */
+    private final double CONSOLE_CELL_ASPECT = 1.0;
+
+    /**
+     * Width of an HTML glyph cell divided by its height: a Courier New advance of 0.6em plus the
+     * 0.15em letter spacing, over the 0.8em line height of HtmlAsciiOutput.
+     */
+    private final double HTML_CELL_ASPECT = 0.75 / 0.8;
+
     /**
      * Error message for empty character set during execution.
      */
@@ -116,6 +311,11 @@ public class Shell {
      */
     private final String INVALID_COMMAND_ERROR = "Did not execute due to incorrect command.";
 
+    /**
+     * Brightness change below which an animation tile keeps its character from the previous frame.
+     */
+    private final double FRAME_BRIGHTNESS_EPSILON = 0.01;
+
     // fields
     /**
      * Current resolution for ASCII art generation.
@@ -123,185 +323,745 @@ public class Shell {
     private int resolution = 128;
 
     /**
-     * The Image object representing the source image.
+     * The size of the source image, read from its header when first needed.
      */
-    private Image image;
+    private Dimension imageSize;
 
     /**
      * Path of the current image file.
      */
     private String imagePath = DEFAULT_IMAGE_PATH;
 
+    /**
+     * Whether the image is divided into an aspect correct grid instead of a padded square one.
+     */
+    private boolean aspectTiling = false;
+
+    /**
+     * Width divided by height of a glyph cell of the current output method.
+     */
+    private double cellAspect = CONSOLE_CELL_ASPECT;
+
+    /**
+     * Whether tiles are matched to characters on shape instead of mean brightness.
+     */
+    private boolean shapeMatching = false;
+
+    /**
+     * How brightness levels between the characters of the set are spread over neighbouring tiles.
+     */
+    private DitherMode ditherMode = DitherMode.NONE;
+
+    /**
+     * The share of a tile one sample of a subsampled decode may stand for, 0 to render exactly.
+     */
+    private double sampleShare = 0;
+
+    /**
+     * The time in milliseconds a render may refine its art before outputting what is ready, 0
+     * to always render every tile exactly.
+     */
+    private long renderDeadlineMillis = 0;
+
+    /**
+     * Whether every char is output in the average colour of its tile.
+     */
+    private boolean colorOutput = false;
+
+    /**
+     * Whether ASCII art is appended to a binary file instead of the current output method, with
+     * the charset and parameters it was rendered with.
+     */
+    private boolean binaryOutput = false;
+
     /**
      * Output method for displaying ASCII art (default: ConsoleAsciiOutput).
      */
     private AsciiOutput asciiOutput = new ConsoleAsciiOutput();
+
+    /**
+     * Output method for playing back animations, matching the current output method.
+     */
+    private AsciiAnimationOutput asciiAnimationOutput = new ConsoleAsciiAnimationOutput();
+
+    /**
+     * Algorithm kept between "refresh" commands, so only the changed tiles are rendered again.
+     */
+    private AsciiArtAlgorithm refreshAlgorithm;
+
+    /**
+     * Tile grid the refresh algorithm was created with.
+     */
+    private TileGrid refreshTileGrid;
+
+    /**
+     * Character set the refresh algorithm was created with.
+     */
+    private char[] refreshCharSet;
+
+    /**
+     * Glyph font the refresh algorithm was created with.
+     */
+    private GlyphFont refreshGlyphFont;
+
+    /**
+     * Dithering mode the refresh algorithm was created with.
+     */
+    private DitherMode refreshDitherMode;
+
+    /**
+     * Sample share the refresh algorithm was created with.
+     */
+    private double refreshSampleShare;
+
+    /**
+     * Font and pixel resolution the glyphs are measured in.
+     */
+    private GlyphFont glyphFont = GlyphFont.DEFAULT;
     /**
      * subImgCharMatcher object to handle the data structure (chars set).
      */
     private SubImgCharMatcher subImgCharMatcher = new SubImgCharMatcher(DEFAULT_CHARS_SET);
+
     /**
-     * HashMap object to store pairs of image and its corresponding (list of) brightness values.
+     * Whether commands run as a batch, deferring character set changes and image switches until
+     * a command needs them.
      */
-    private static HashMap<Image, List<Double>> imgBrightnessMap = new HashMap<>();
+    private boolean batchMode = false;
 
     /**
-     * HashMap object to store pairs of character and its corresponding brightness values.
+     * Character set changes deferred by a batch: whether every changed char is in the set after
+     * them.
+     */
+    private final TreeMap<Character, Boolean> pendingCharset = new TreeMap<>();
+
+    /**
+     * Image switch deferred by a batch, or null.
+     */
+    private String pendingImagePath;
+
+    /**
+     * ImageCalc object fingerprinting image files, to look up their cached brightness and renders.
+     */
+    private ImageCalc imageCalc = new ImageCalc();
+
+    /**
+     * Finished renders, keyed by the image fingerprint and every setting that affects the chars.
+     */
+    private static RenderCache renderCache = new RenderCache(RENDER_CACHE_BYTES);
+    /**
+     * HashMap object to store pairs of image file fingerprint and its corresponding brightness
+     * values, one array per tile grid.
      */
-    private static HashMap<Character, Double> charBrightnessMap = new HashMap<>();
+    private static HashMap<Long, HashMap<TileGrid, double[]>> imgBrightnessMap = new HashMap<>();
+
+    /**
+     * HashMap object to store pairs of image file fingerprint and its corresponding average tile
+     * colours, one array per tile grid.
+     */
+    private static HashMap<Long, HashMap<TileGrid, int[]>> imgColorMap = new HashMap<>();
+
+    /**
+     * Tile brightness shared with the other processes of the host, or null if not configured.
+     */
+    private static SharedBrightnessCache sharedBrightnessCache;
+
+    /**
+     * Whether a failure to publish to the shared brightness cache was already logged.
+     */
+    private static boolean sharedBrightnessCacheFailureLogged = false;
+
+    /**
+     * Lock held by every render, so background previews and commands never render at once.
+     */
+    private final Object renderLock = new Object();
+
+    /**
+     * Renders the live preview again in the background after a change of the settings.
+     */
+    private final PreviewRenderer previewRenderer = new PreviewRenderer(renderLock, IO_ERROR);
 
     /**
      * Initializes the character set and image for ASCII art generation.
      */
     public void run() throws Exception {
-        initializeCharsSet(DEFAULT_CHARS_SET);
-        image = new Image(DEFAULT_IMAGE_PATH);
+        initialize();
         // Main command loop
         while (true) {
-            try {
-                // Get user input
-                System.out.print(">>> ");
-                String userInput = KeyboardInput.readLine();
-                // Check various commands
-                if (userInput.isEmpty()) {}  // If user entered enter, continue loop
-                else if (userInput.equalsIgnoreCase("exit")) {
-                    // Exit the program
-                    break;
-                } else if (userInput.equalsIgnoreCase("chars")) {
-                    // Display the set of characters
-                    handleChars();
-                } else if (userInput.toLowerCase().contains("add")) {
-                    // Add characters to the set
-                    handleAdd(userInput);
-                } else if (userInput.toLowerCase().contains("remove")) {
-                    // Remove characters from the set
-                    handleRemove(userInput);
-                } else if (userInput.toLowerCase().contains("res")) {
-                    // Change the image's resolution
-                    handleResolution(userInput);
-                } else if (userInput.toLowerCase().contains("image")) {
-                    // Change the image file
-                    handleImage(userInput);
-                } else if (userInput.toLowerCase().contains("output")) {
-                    // Change the output source
-                    handleOutput(userInput);
-                } else if (userInput.equalsIgnoreCase("asciiart")) {
-                    // Run the ASCII art algorithm
-                    handleAsciiArt();
-                } else {
-                    // Invalid command
-                    throw new InvalidCommandException(INVALID_COMMAND_ERROR);
-                }
-            } catch (EmptySetException emptySetException) {
-                System.out.println(EMPTY_CHAR_SET_ERROR);
-            } catch (ExceedingValueException exceedingValueException) {
-                System.out.println(EXCEED_VALUE_ERROR);
-            } catch (IncorrectAddFormatException incorrectFormatException) {
-                System.out.println(INVALID_ADD_FORMAT_ERROR);
-            } catch (IncorrectRemoveFormatException incorrectRemoveFormatException) {
-                System.out.println(INVALID_REMOVE_FORMAT_ERROR);
-            } catch (IncorrectResFormatException incorrectResFormatException) {
-                System.out.println(INVALID_RES_FORMAT_ERROR);
-            } catch (IncorrectOutputFormatException incorrectOutputFormatException) {
-                System.out.println(INVALID_OUTPUT_FORMAT_ERROR);
-            } catch (IOException ioException) {
-                System.out.println(IO_ERROR);
+            // Get user input
+            System.out.print(">>> ");
+            StartupTimer.markFirstPrompt();
+            String userInput = KeyboardInput.readLine();
+            // The terminal echoed the command and its line break under the prompt
+            ConsoleScreen.inputLineEchoed();
+            if (!executeCommand(userInput)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Runs the commands of a script as a batch, without prompts.
+     * Consecutive additions and removals of characters are coalesced into one change of the set,
+     * and image switches are checked for a readable file but the image is only decoded, and the
+     * set only normalized, when a following command needs them. Resolution changes just update a
+     * number once the image is known, so they run as read.
+     *
+     * @param script The script, one command per line, ending at its end or at "exit".
+     * @throws IOException If an error occurs while reading the script.
+     */
+    public void runScript(BufferedReader script) throws IOException {
+        initialize();
+        batchMode = true;
+        String line;
+        while ((line = script.readLine()) != null) {
+            if (!executeCommand(line.trim())) {
+                break;
             }
-            catch (InvalidCommandException invalidCommandException) {
-                System.out.println(INVALID_COMMAND_ERROR);
+        }
+    }
+
+    /**
+     * Initializes the character set. Glyphs are rendered and the image decoded on the first
+     * render, and the MBeans are registered off the way to the first command.
+     */
+    private void initialize() {
+        // Console outputs patch art in place only as long as they know what was printed below it
+        ConsoleScreen.install();
+        Thread registration = new Thread(PipelineMetrics::registerMBeans, "metrics-registration");
+        registration.setDaemon(true);
+        registration.start();
+        initializeCharsSet(DEFAULT_CHARS_SET);
+    }
+
+    /**
+     * Executes a single command, printing an error message if it fails.
+     *
+     * @param userInput The command, trimmed.
+     * @return False if the command is "exit", true otherwise.
+     */
+    private boolean executeCommand(String userInput) {
+        try {
+            // Check various commands
+            if (userInput.isEmpty()) {}  // If user entered enter, continue loop
+            else if (userInput.equalsIgnoreCase("exit")) {
+                // Exit the program
+                return false;
+            } else if (userInput.equalsIgnoreCase("chars")) {
+                // Display the set of characters
+                handleChars();
+            } else if (userInput.equalsIgnoreCase("stats")) {
+                // Display the pipeline metrics
+                handleStats();
+            } else if (userInput.equalsIgnoreCase("refresh")) {
+                // Re-read the image and redraw only what changed
+                handleRefresh();
+            } else if (userInput.toLowerCase().startsWith("spill")) {
+                // Change where renders evicted from memory are kept, checked first since a
+                // directory name may contain any other command
+                handleSpill(userInput);
+            } else if (userInput.toLowerCase().startsWith("font")) {
+                // Change the font and resolution glyphs are measured in
+                handleFont(userInput);
+            } else if (userInput.toLowerCase().contains("add")) {
+                // Add characters to the set
+                handleAdd(userInput);
+                schedulePreview();
+            } else if (userInput.toLowerCase().contains("remove")) {
+                // Remove characters from the set
+                handleRemove(userInput);
+                schedulePreview();
+            } else if (userInput.toLowerCase().contains("res")) {
+                // Change the image's resolution
+                handleResolution(userInput);
+                schedulePreview();
+            } else if (userInput.toLowerCase().contains("image")) {
+                // Change the image file
+                handleImage(userInput);
+            } else if (userInput.toLowerCase().contains("output")) {
+                // Change the output source
+                handleOutput(userInput);
+            } else if (userInput.toLowerCase().contains("tiling")) {
+                // Change how the image is divided into tiles
+                handleTiling(userInput);
+            } else if (userInput.toLowerCase().contains("matching")) {
+                // Change how tiles are matched to characters
+                handleMatching(userInput);
+            } else if (userInput.toLowerCase().contains("dither")) {
+                // Change how brightness levels between characters are spread over tiles
+                handleDither(userInput);
+            } else if (userInput.toLowerCase().contains("color")) {
+                // Turn colour output on or off
+                handleColor(userInput);
+            } else if (userInput.toLowerCase().contains("approx")) {
+                // Turn approximate rendering of large images on or off
+                handleApprox(userInput);
+            } else if (userInput.toLowerCase().contains("deadline")) {
+                // Bound the time a render may take
+                handleDeadline(userInput);
+            } else if (userInput.equalsIgnoreCase("asciiart")) {
+                // Run the ASCII art algorithm
+                handleAsciiArt();
+            } else if (userInput.equalsIgnoreCase("animate")) {
+                // Run the ASCII art algorithm on every frame of the image
+                handleAnimate();
+            } else {
+                // Invalid command
+                throw new InvalidCommandException(INVALID_COMMAND_ERROR);
             }
+        } catch (EmptySetException emptySetException) {
+            System.out.println(EMPTY_CHAR_SET_ERROR);
+        } catch (ExceedingValueException exceedingValueException) {
+            System.out.println(EXCEED_VALUE_ERROR);
+        } catch (IncorrectAddFormatException incorrectFormatException) {
+            System.out.println(INVALID_ADD_FORMAT_ERROR);
+        } catch (IncorrectRemoveFormatException incorrectRemoveFormatException) {
+            System.out.println(INVALID_REMOVE_FORMAT_ERROR);
+        } catch (IncorrectResFormatException incorrectResFormatException) {
+            System.out.println(INVALID_RES_FORMAT_ERROR);
+        } catch (IncorrectOutputFormatException incorrectOutputFormatException) {
+            System.out.println(INVALID_OUTPUT_FORMAT_ERROR);
+        } catch (IncorrectTilingFormatException incorrectTilingFormatException) {
+            System.out.println(INVALID_TILING_FORMAT_ERROR);
+        } catch (IncorrectMatchingFormatException incorrectMatchingFormatException) {
+            System.out.println(INVALID_MATCHING_FORMAT_ERROR);
+        } catch (IncorrectDitherFormatException incorrectDitherFormatException) {
+            System.out.println(INVALID_DITHER_FORMAT_ERROR);
+        } catch (IncorrectColorFormatException incorrectColorFormatException) {
+            System.out.println(INVALID_COLOR_FORMAT_ERROR);
+        } catch (IncorrectSpillFormatException incorrectSpillFormatException) {
+            System.out.println(INVALID_SPILL_FORMAT_ERROR);
+        } catch (IncorrectApproxFormatException incorrectApproxFormatException) {
+            System.out.println(INVALID_APPROX_FORMAT_ERROR);
+        } catch (IncorrectFontFormatException incorrectFontFormatException) {
+            System.out.println(INVALID_FONT_FORMAT_ERROR);
+        } catch (IncorrectDeadlineFormatException incorrectDeadlineFormatException) {
+            System.out.println(INVALID_DEADLINE_FORMAT_ERROR);
+        } catch (RenderCancelledException renderCancelledException) {
+            System.out.println(RENDER_CANCELLED_ERROR);
+        } catch (IOException ioException) {
+            System.out.println(IO_ERROR);
         }
+        catch (InvalidCommandException invalidCommandException) {
+            System.out.println(INVALID_COMMAND_ERROR);
+        }
+        return true;
     }
 
     /**
      * The main method to start the ASCII art shell.
      *
-     * @param args Command-line arguments (not used in this application).
+     * @param args Command-line arguments: none for interactive commands, or "--script" followed
+     *             by a script file, or "-" for the standard input, to run as a batch.
      */
     public static void main(String[] args) throws Exception {
+        String glyphCachePath = System.getProperty(GLYPH_CACHE_PROPERTY);
+        if (glyphCachePath != null) {
+            GlyphRegistry.setDirectory(Paths.get(glyphCachePath));
+        }
+        String glyphMetricsPath = System.getProperty(GLYPH_METRICS_PROPERTY);
+        if (glyphMetricsPath != null) {
+            // Precomputed levels spare rendering the glyphs of brightness matching
+            GlyphFont metricsFont = GlyphMetrics.readFont(Paths.get(glyphMetricsPath));
+            GlyphRegistry.register(metricsFont, GlyphMetrics.read(Paths.get(glyphMetricsPath), metricsFont));
+        }
+        String sharedBrightnessCachePath = System.getProperty(SHARED_BRIGHTNESS_CACHE_PROPERTY);
+        if (sharedBrightnessCachePath != null) {
+            sharedBrightnessCache = new SharedBrightnessCache(Paths.get(sharedBrightnessCachePath),
+                    SHARED_BRIGHTNESS_CACHE_BYTES);
+        }
         Shell shell = new Shell();
-        shell.run();
+        if (args.length == 2 && args[0].equals(SCRIPT_OPTION)) {
+            Reader reader = args[1].equals(STANDARD_INPUT)
+                    ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                    : Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8);
+            try (BufferedReader script = new BufferedReader(reader)) {
+                shell.runScript(script);
+            }
+        } else {
+            shell.run();
+        }
     }
 
     /**
      * Gets the brightness of the given image.
      *
-     * @param image The image to return its brightness.
+     * @param imageFingerprint The fingerprint of the image file to return its brightness.
+     * @param tileGrid The tile grid the brightness was calculated for.
      * @return The brightness.
      */
-    public static List<Double> getImgBrightness(Image image){
-        return imgBrightnessMap.get(image);
+    public static double[] getImgBrightness(long imageFingerprint, TileGrid tileGrid){
+        return imgBrightnessMap.get(imageFingerprint).get(tileGrid);
     }
 
     /**
-     * Sets the brightness of the given image.
+     * Sets the brightness of the given image, and publishes it to the other processes of the host
+     * if a shared brightness cache is configured.
      *
-     * @param image The image to set its brightness.
+     * @param imageFingerprint The fingerprint of the image file to set its brightness.
+     * @param tileGrid The tile grid the brightness was calculated for.
      * @param brightness the brightness of the image.
      */
-    public static void setImgBrightness(Image image, List<Double> brightness){
-        imgBrightnessMap.put(image, brightness);
+    public static void setImgBrightness(long imageFingerprint, TileGrid tileGrid, double[] brightness){
+        imgBrightnessMap.computeIfAbsent(imageFingerprint, key -> new HashMap<>()).put(tileGrid, brightness);
+        if (sharedBrightnessCache != null) {
+            try {
+                sharedBrightnessCache.put(imageFingerprint, tileGrid, brightness);
+            } catch (IOException ioException) {
+                // Publishing is best effort, this process keeps its own copy
+                if (!sharedBrightnessCacheFailureLogged) {
+                    sharedBrightnessCacheFailureLogged = true;
+                    Logger.getGlobal().warning(String.format("Cannot publish to the shared brightness cache: %s",
+                            ioException.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the brightness and colours of every image, so the next render of an image reads its
+     * pixels again. The shared brightness cache is left as is.
+     */
+    static void clearImgBrightness() {
+        imgBrightnessMap.clear();
+        imgColorMap.clear();
     }
 
     /**
-     * checks if the imgBrightnessMap contains the given image.
+     * checks if the imgBrightnessMap contains the given image with the given tile grid, loading it
+     * from the shared brightness cache if another process published it.
      *
-     * @param image The image to check if it is contained in imgBrightnessMap.
+     * @param imageFingerprint The fingerprint of the image file to check.
+     * @param tileGrid The tile grid to check.
      * @return if the image is in imgBrightnessMap or not.
      */
-    public static boolean ImgBrightnessContains(Image image){
-        return imgBrightnessMap.containsKey(image);
+    public static boolean ImgBrightnessContains(long imageFingerprint, TileGrid tileGrid){
+        if (imgBrightnessMap.containsKey(imageFingerprint)
+                && imgBrightnessMap.get(imageFingerprint).containsKey(tileGrid)) {
+            return true;
+        }
+        if (sharedBrightnessCache == null) {
+            return false;
+        }
+        double[] brightness = sharedBrightnessCache.get(imageFingerprint, tileGrid);
+        PipelineMetrics.recordCacheLookup(Cache.SHARED_BRIGHTNESS, brightness != null);
+        if (brightness == null) {
+            return false;
+        }
+        imgBrightnessMap.computeIfAbsent(imageFingerprint, key -> new HashMap<>()).put(tileGrid, brightness);
+        return true;
     }
 
     /**
-     * Gets the brightness of the given character.
+     * Gets the average tile colours of the given image.
      *
-     * @param ch The character to return its brightness.
-     * @return The brightness.
+     * @param imageFingerprint The fingerprint of the image file to return its colours.
+     * @param tileGrid The tile grid the colours were calculated for.
+     * @return The colours.
      */
-    public static double getCharBrightness(char ch){
-        return charBrightnessMap.get(ch);
+    public static int[] getImgColors(long imageFingerprint, TileGrid tileGrid){
+        return imgColorMap.get(imageFingerprint).get(tileGrid);
     }
 
     /**
-     * Sets the brightness of the given character.
+     * Sets the average tile colours of the given image.
      *
-     * @param ch The character to set its brightness.
-     * @param brightness the brightness of the character.
+     * @param imageFingerprint The fingerprint of the image file to set its colours.
+     * @param tileGrid The tile grid the colours were calculated for.
+     * @param colors The colours to set.
      */
-    public static void setCharBrightness(char ch, double brightness){
-        charBrightnessMap.put(ch, brightness);
+    public static void setImgColors(long imageFingerprint, TileGrid tileGrid, int[] colors){
+        imgColorMap.computeIfAbsent(imageFingerprint, key -> new HashMap<>()).put(tileGrid, colors);
     }
 
     /**
-     * checks if the charBrightnessMap contains the given character.
+     * Checks if the imgColorMap contains the given image and tile grid.
      *
-     * @param ch The character to check if it is contained in charBrightnessMap.
-     * @return if the image is in charBrightnessMap or not.
+     * @param imageFingerprint The fingerprint of the image file to check.
+     * @param tileGrid The tile grid to check.
+     * @return if the colours are in imgColorMap or not.
      */
-    public static boolean charBrightnessContains(char ch){
-        return charBrightnessMap.containsKey(ch);
+    public static boolean ImgColorsContains(long imageFingerprint, TileGrid tileGrid){
+        return imgColorMap.containsKey(imageFingerprint)
+                && imgColorMap.get(imageFingerprint).containsKey(tileGrid);
     }
 
     /**
      * Generates and displays ASCII art using the current settings.
      *
+     * @throws EmptySetException        If the character set is empty.
+     * @throws IOException              If there is an issue with the image file.
+     * @throws RenderCancelledException If the render was cancelled before it finished.
+     */
+    private void handleAsciiArt() throws EmptySetException, IOException, RenderCancelledException {
+        char[] charSet = getCharSet();
+        TileGrid tileGrid = getTileGrid();
+        if (charSet.length == 0) {
+            throw new EmptySetException(EMPTY_CHAR_SET_ERROR);
+        }
+        AsciiOutput output = binaryOutput ? createBinaryOutput(charSet, tileGrid) : asciiOutput;
+        boolean withColors = colorOutput && output instanceof ColorAsciiOutput;
+        long imageFingerprint = imageCalc.getFileFingerprint(imagePath);
+        // A preview still rendering would overwrite this art with older settings
+        previewRenderer.cancel();
+        synchronized (renderLock) {
+            if (withColors) {
+                // The render cache holds chars only, colour renders always run
+                AsciiArtAlgorithm asciiArtAlgorithm =
+                        new AsciiArtAlgorithm(imagePath, imageFingerprint, tileGrid, charSet, true);
+                asciiArtAlgorithm.setDitherMode(ditherMode);
+                asciiArtAlgorithm.setGlyphFont(glyphFont);
+                char[][] chars = asciiArtAlgorithm.run();
+                PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.OUTPUT);
+                ((ColorAsciiOutput) output).outColor(chars, asciiArtAlgorithm.getTileColors());
+                sample.stop(countChars(chars), 0);
+                StartupTimer.markFirstRender();
+            } else {
+                // The binary file records complete renders only
+                RenderToken token = renderDeadlineMillis > 0 && !binaryOutput
+                        ? new RenderToken(renderDeadlineMillis) : null;
+                // Outputs other than the live preview would print every refinement anew
+                AsciiOutput progressOutput =
+                        token != null && output instanceof LivePreviewAsciiOutput ? output : null;
+                char[][] chars = render(imagePath, imageFingerprint, tileGrid, charSet, glyphFont,
+                        ditherMode, sampleShare, progressOutput, token);
+                PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.OUTPUT);
+                try {
+                    output.out(chars);
+                    sample.stop(countChars(chars), 0);
+                    StartupTimer.markFirstRender();
+                } catch (IllegalArgumentException illegalArgumentException) {
+                    // The binary file holds art of other settings
+                    System.out.println(BINARY_OUTPUT_MISMATCH_ERROR);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the chars of an image, taking them from the render cache if it holds them.
+     * Every argument is passed in, so a preview can render settings that changed since.
+     * With a token the render is progressive, and only art that was refined before the deadline
+     * of the token is cached.
+     *
+     * @param imagePath          The path of the image file.
+     * @param imageFingerprint   The fingerprint of the image file.
+     * @param tileGrid           The division of the image into tiles.
+     * @param charSet            The character set to be used in the ASCII art.
+     * @param glyphFont          The font and pixel resolution the glyphs are measured in.
+     * @param ditherMode         How brightness levels between characters are spread over tiles.
+     * @param sampleShare        The share of a tile one sample may stand for, 0 to render exactly.
+     * @param progressOutput     The output the coarser art of a progressive render is delivered
+     *                           to, or null.
+     * @param token              The token of a progressive render, or null to render at once.
+     * @return A 2D array of characters representing the image.
+     * @throws IOException              If there is an issue with the image file.
+     * @throws RenderCancelledException If the token was cancelled before the render ended.
+     */
+    private static char[][] render(String imagePath, long imageFingerprint, TileGrid tileGrid,
+                                   char[] charSet, GlyphFont glyphFont, DitherMode ditherMode,
+                                   double sampleShare, AsciiOutput progressOutput,
+                                   RenderToken token) throws IOException, RenderCancelledException {
+        RenderCache.Key key = new RenderCache.Key(imageFingerprint, tileGrid, charSet,
+                glyphFont.toString(), ditherMode, sampleShare);
+        char[][] chars = renderCache.get(key);
+        PipelineMetrics.recordCacheLookup(Cache.RENDER, chars != null);
+        if (chars == null) {
+            AsciiArtAlgorithm asciiArtAlgorithm =
+                    new AsciiArtAlgorithm(imagePath, imageFingerprint, tileGrid, charSet, false,
+                            sampleShare);
+            asciiArtAlgorithm.setDitherMode(ditherMode);
+            asciiArtAlgorithm.setGlyphFont(glyphFont);
+            if (token == null) {
+                chars = asciiArtAlgorithm.run();
+                renderCache.put(key, chars);
+            } else {
+                chars = asciiArtAlgorithm.runProgressive(progressOutput, token);
+                if (asciiArtAlgorithm.isComplete()) {
+                    renderCache.put(key, chars);
+                }
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * Renders the art again in the background when the live preview is the output method, so
+     * the preview follows changes of the resolution and the character set as they are typed.
+     * The art is refined progressively, and a newer change cancels the render in flight.
+     * Scripts never preview, their changes are coalesced until a command needs them.
+     *
+     * @throws IOException If there is an issue with the image file.
+     */
+    private void schedulePreview() throws IOException {
+        if (batchMode || binaryOutput || !(asciiOutput instanceof LivePreviewAsciiOutput)) {
+            return;
+        }
+        char[] charSet = getCharSet();
+        if (charSet.length == 0) {
+            return;
+        }
+        // Capture the settings now, the render runs while the next commands change them
+        String previewImagePath = imagePath;
+        long imageFingerprint = imageCalc.getFileFingerprint(previewImagePath);
+        TileGrid tileGrid = getTileGrid();
+        GlyphFont previewGlyphFont = glyphFont;
+        DitherMode previewDitherMode = ditherMode;
+        double previewSampleShare = sampleShare;
+        AsciiOutput previewOutput = asciiOutput;
+        previewRenderer.submit(token -> render(previewImagePath, imageFingerprint, tileGrid, charSet,
+                previewGlyphFont, previewDitherMode, previewSampleShare, previewOutput, token),
+                previewOutput);
+    }
+
+    /**
+     * Divides the image into tiles according to the current settings.
+     *
+     * @return The tile grid of the current resolution, tiling and matching.
+     */
+    private TileGrid getTileGrid() {
+        TileGrid tileGrid = aspectTiling ? TileGrid.aspect(resolution, cellAspect) : TileGrid.square(resolution);
+        if (shapeMatching) {
+            tileGrid = tileGrid.withCellsPerSide(SHAPE_CELLS_PER_SIDE);
+        }
+        return tileGrid;
+    }
+
+    /**
+     * Creates the binary output for the current settings. Frames are appended to the binary
+     * file as long as they are rendered with the charset and parameters it already holds.
+     *
+     * @param charSet  The charset the art is rendered with.
+     * @param tileGrid The division of the image into tiles.
+     * @return The binary output.
+     */
+    private AsciiOutput createBinaryOutput(char[] charSet, TileGrid tileGrid) {
+        Map<String, String> renderParams = new LinkedHashMap<>();
+        renderParams.put("resolution", String.valueOf(resolution));
+        renderParams.put("tiling", aspectTiling ? "aspect " + cellAspect : "square");
+        renderParams.put("cells", String.valueOf(tileGrid.getCellsPerSide()));
+        renderParams.put("dither", ditherMode.name());
+        if (sampleShare > 0) {
+            renderParams.put("sampleShare", String.valueOf(sampleShare));
+        }
+        if (!glyphFont.equals(GlyphFont.DEFAULT)) {
+            renderParams.put("font", glyphFont.toString());
+        }
+        return new BinaryAsciiOutput(BINARY_OUTPUT_FILE, charSet, renderParams, true);
+    }
+
+    /**
+     * Generates and plays back ASCII art for every frame of the current image, reusing the
+     * characters of tiles that did not change between frames.
+     *
+     * @throws EmptySetException If the character set is empty.
+     * @throws IOException       If there is an issue with the image file.
+     */
+    private void handleAnimate() throws EmptySetException, IOException {
+        char[] charSet = getCharSet();
+        if (charSet.length == 0) {
+            throw new EmptySetException(EMPTY_CHAR_SET_ERROR);
+        }
+        ImageSequence imageSequence = new ImageSequence(imagePath);
+        FrameRenderer frameRenderer = new FrameRenderer(resolution, charSet, FRAME_BRIGHTNESS_EPSILON, glyphFont);
+        List<char[][]> frames = new ArrayList<>();
+        synchronized (renderLock) {
+            for (int i = 0; i < imageSequence.getFrameCount(); i++) {
+                frames.add(frameRenderer.render(imageSequence.getFrame(i)));
+            }
+        }
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.OUTPUT);
+        asciiAnimationOutput.out(frames, imageSequence.getFrameDelays());
+        long charsCount = 0;
+        for (char[][] frame : frames) {
+            charsCount += countChars(frame);
+        }
+        sample.stop(charsCount, 0);
+    }
+
+    /**
+     * Displays the latency and throughput of every pipeline stage and the hit ratio of every
+     * cache since the program started.
+     */
+    private void handleStats() {
+        System.out.print(PipelineMetrics.getReport());
+    }
+
+    /**
+     * Counts the chars of ASCII art.
+     *
+     * @param chars The ASCII art.
+     * @return The number of chars.
+     */
+    private static long countChars(char[][] chars) {
+        long charsCount = 0;
+        for (char[] row : chars) {
+            charsCount += row.length;
+        }
+        return charsCount;
+    }
+
+    /**
+     * Re-reads the current image file and renders it again with the tiling, matching, dither,
+     * approximation and font settings of asciiart, recomputing only the tiles that changed since
+     * the previous refresh where the settings allow it. Outputs that support it receive only the
+     * changed cells.
+     *
      * @throws EmptySetException If the character set is empty.
      * @throws IOException       If there is an issue with the image file.
      */
-    private void handleAsciiArt() throws EmptySetException, IOException {
-        // Transform char set TreeMap to an array of chars
+    private void handleRefresh() throws EmptySetException, IOException {
+        char[] charSet = getCharSet();
+        if (charSet.length == 0) {
+            throw new EmptySetException(EMPTY_CHAR_SET_ERROR);
+        }
+        Image updatedImage = new Image(imagePath);
+        TileGrid tileGrid = getTileGrid();
+        // Start over when the settings or the image dimensions changed since the last refresh
+        if (refreshAlgorithm == null || imageSize == null || !tileGrid.equals(refreshTileGrid)
+                || !Arrays.equals(refreshCharSet, charSet) || !glyphFont.equals(refreshGlyphFont)
+                || ditherMode != refreshDitherMode || sampleShare != refreshSampleShare
+                || updatedImage.getWidth() != imageSize.width
+                || updatedImage.getHeight() != imageSize.height) {
+            // The image was just decoded, the algorithm renders it as is
+            refreshAlgorithm = new AsciiArtAlgorithm(updatedImage, tileGrid, charSet, sampleShare);
+            refreshAlgorithm.setDitherMode(ditherMode);
+            refreshAlgorithm.setGlyphFont(glyphFont);
+            refreshTileGrid = tileGrid;
+            refreshCharSet = charSet;
+            refreshGlyphFont = glyphFont;
+            refreshDitherMode = ditherMode;
+            refreshSampleShare = sampleShare;
+        }
+        imageSize = new Dimension(updatedImage.getWidth(), updatedImage.getHeight());
+        AsciiPatch patch;
+        synchronized (renderLock) {
+            patch = refreshAlgorithm.runIncremental(updatedImage);
+        }
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.OUTPUT);
+        if (asciiOutput instanceof AsciiPatchOutput) {
+            ((AsciiPatchOutput) asciiOutput).outPatch(patch);
+            sample.stop(patch.size(), 0);
+        } else {
+            asciiOutput.out(refreshAlgorithm.getLastResult());
+            sample.stop(countChars(refreshAlgorithm.getLastResult()), 0);
+        }
+    }
+
+    /**
+     * Transforms the char set TreeMap to an array of chars.
+     *
+     * @return The characters currently in the set, in ascending order.
+     */
+    private char[] getCharSet() {
+        applyPendingChanges();
         char[] charSet = new char[subImgCharMatcher.getSetSize()];
         int i = 0;
         for (char chKey : subImgCharMatcher.getKeysSet()) {
             charSet[i] = chKey;
             i++;
         }
-        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(imagePath, resolution, charSet);
-        if (charSet.length == 0) {
-            throw new EmptySetException(EMPTY_CHAR_SET_ERROR);
-        }
-        asciiOutput.out(asciiArtAlgorithm.run());
+        return charSet;
     }
 
     /**
@@ -315,15 +1075,286 @@ public class Shell {
             throw new IncorrectOutputFormatException(INVALID_OUTPUT_FORMAT_ERROR);
         }
         String specificCmd = userInput.substring(INDEX_AFTER_OUTPUT_COMMAND);
-        if (specificCmd.equalsIgnoreCase("html")) {
-            asciiOutput = new HtmlAsciiOutput("out.html", "Courier New");
+        // Previews of the previous output method are not shown anymore
+        previewRenderer.cancel();
+        if (specificCmd.equalsIgnoreCase("binary")) {
+            // Art keeps the proportions of the previous output method
+            binaryOutput = true;
+        } else if (specificCmd.equalsIgnoreCase("html")) {
+            binaryOutput = false;
+            asciiOutput = new HtmlAsciiOutput("out.html", glyphFont.getName());
+            asciiAnimationOutput = new HtmlAsciiAnimationOutput("out.html", glyphFont.getName());
+            cellAspect = HTML_CELL_ASPECT;
         } else if (specificCmd.equalsIgnoreCase("console")) {
+            binaryOutput = false;
             asciiOutput = new ConsoleAsciiOutput();
+            asciiAnimationOutput = new ConsoleAsciiAnimationOutput();
+            cellAspect = CONSOLE_CELL_ASPECT;
+        } else if (specificCmd.equalsIgnoreCase("live")) {
+            // Redraws the console in place, animations play back as on the console
+            binaryOutput = false;
+            asciiOutput = new LivePreviewAsciiOutput(LIVE_PREVIEW_FPS);
+            asciiAnimationOutput = new ConsoleAsciiAnimationOutput();
+            cellAspect = CONSOLE_CELL_ASPECT;
         } else {
             throw new IncorrectOutputFormatException(INVALID_OUTPUT_FORMAT_ERROR);
         }
     }
 
+    /**
+     * Changes how the image is divided into tiles: "square" pads the image to power of 2
+     * dimensions and uses resolution x resolution tiles, "aspect" keeps the image as is and uses
+     * resolution columns and as many rows as keep its proportions in the current output.
+     *
+     * @param userInput The user input containing the tiling command.
+     * @throws IncorrectTilingFormatException If the tiling command is in an incorrect format.
+     */
+    private void handleTiling(String userInput) throws IncorrectTilingFormatException {
+        if (userInput.length() < INDEX_AFTER_TILING_COMMAND){
+            throw new IncorrectTilingFormatException(INVALID_TILING_FORMAT_ERROR);
+        }
+        String specificCmd = userInput.substring(INDEX_AFTER_TILING_COMMAND);
+        if (specificCmd.equalsIgnoreCase("square")) {
+            aspectTiling = false;
+        } else if (specificCmd.equalsIgnoreCase("aspect")) {
+            aspectTiling = true;
+        } else {
+            throw new IncorrectTilingFormatException(INVALID_TILING_FORMAT_ERROR);
+        }
+    }
+
+    /**
+     * Changes how tiles are matched to characters: "brightness" picks the character of the
+     * closest mean brightness, "shape" divides every tile into cells and picks the character
+     * whose glyph covers the same cells most alike.
+     *
+     * @param userInput The user input containing the matching command.
+     * @throws IncorrectMatchingFormatException If the matching command is in an incorrect format.
+     */
+    private void handleMatching(String userInput) throws IncorrectMatchingFormatException {
+        if (userInput.length() < INDEX_AFTER_MATCHING_COMMAND){
+            throw new IncorrectMatchingFormatException(INVALID_MATCHING_FORMAT_ERROR);
+        }
+        String specificCmd = userInput.substring(INDEX_AFTER_MATCHING_COMMAND);
+        if (specificCmd.equalsIgnoreCase("brightness")) {
+            shapeMatching = false;
+        } else if (specificCmd.equalsIgnoreCase("shape")) {
+            shapeMatching = true;
+        } else {
+            throw new IncorrectMatchingFormatException(INVALID_MATCHING_FORMAT_ERROR);
+        }
+    }
+
+    /**
+     * Changes how brightness levels between the characters of the set are spread over
+     * neighbouring tiles: "none" matches every tile to the closest character, "ordered" uses a
+     * Bayer matrix and "diffusion" Floyd-Steinberg error diffusion.
+     *
+     * @param userInput The user input containing the dither command.
+     * @throws IncorrectDitherFormatException If the dither command is in an incorrect format.
+     */
+    private void handleDither(String userInput) throws IncorrectDitherFormatException {
+        if (userInput.length() < INDEX_AFTER_DITHER_COMMAND){
+            throw new IncorrectDitherFormatException(INVALID_DITHER_FORMAT_ERROR);
+        }
+        String specificCmd = userInput.substring(INDEX_AFTER_DITHER_COMMAND);
+        if (specificCmd.equalsIgnoreCase("none")) {
+            ditherMode = DitherMode.NONE;
+        } else if (specificCmd.equalsIgnoreCase("ordered")) {
+            ditherMode = DitherMode.ORDERED;
+        } else if (specificCmd.equalsIgnoreCase("diffusion")) {
+            ditherMode = DitherMode.ERROR_DIFFUSION;
+        } else {
+            throw new IncorrectDitherFormatException(INVALID_DITHER_FORMAT_ERROR);
+        }
+    }
+
+    /**
+     * Turns colour output on or off: with "on", every char is output in the average colour of
+     * its tile, quantized to a palette.
+     *
+     * @param userInput The user input containing the color command.
+     * @throws IncorrectColorFormatException If the color command is in an incorrect format.
+     */
+    private void handleColor(String userInput) throws IncorrectColorFormatException {
+        if (userInput.length() < INDEX_AFTER_COLOR_COMMAND){
+            throw new IncorrectColorFormatException(INVALID_COLOR_FORMAT_ERROR);
+        }
+        String specificCmd = userInput.substring(INDEX_AFTER_COLOR_COMMAND);
+        if (specificCmd.equalsIgnoreCase("on")) {
+            colorOutput = true;
+        } else if (specificCmd.equalsIgnoreCase("off")) {
+            colorOutput = false;
+        } else {
+            throw new IncorrectColorFormatException(INVALID_COLOR_FORMAT_ERROR);
+        }
+    }
+
+    /**
+     * Sets the directory renders evicted from the render cache are spilled to, so they are read
+     * back instead of rendered again, or turns spilling off with "off".
+     *
+     * @param userInput The user input containing the spill command.
+     * @throws IncorrectSpillFormatException If the spill command is in an incorrect format, or
+     *                                       the directory cannot be created.
+     */
+    private void handleSpill(String userInput) throws IncorrectSpillFormatException {
+        if (userInput.length() <= INDEX_AFTER_SPILL_COMMAND){
+            throw new IncorrectSpillFormatException(INVALID_SPILL_FORMAT_ERROR);
+        }
+        String specificCmd = userInput.substring(INDEX_AFTER_SPILL_COMMAND);
+        try {
+            renderCache.setSpillDirectory(specificCmd.equalsIgnoreCase("off") ? null : new File(specificCmd));
+        } catch (IOException ioException) {
+            throw new IncorrectSpillFormatException(INVALID_SPILL_FORMAT_ERROR);
+        }
+    }
+
+    /**
+     * Turns approximate rendering on with the share of a tile one sample may stand for, e.g.
+     * "approx 0.05", or off with "approx off". The share sets the subsampling step and is no
+     * bound on the brightness error. Approximation applies to square grids matched on
+     * brightness without colours, other renders stay exact.
+     *
+     * @param userInput The user input containing the approx command.
+     * @throws IncorrectApproxFormatException If the approx command is in an incorrect format, or
+     *                                        the share is not between 0 and 1.
+     */
+    private void handleApprox(String userInput) throws IncorrectApproxFormatException {
+        if (userInput.length() <= INDEX_AFTER_APPROX_COMMAND){
+            throw new IncorrectApproxFormatException(INVALID_APPROX_FORMAT_ERROR);
+        }
+        String specificCmd = userInput.substring(INDEX_AFTER_APPROX_COMMAND);
+        if (specificCmd.equalsIgnoreCase("off")) {
+            sampleShare = 0;
+            return;
+        }
+        try {
+            double value = Double.parseDouble(specificCmd);
+            if (!(value > 0 && value < 1)) {
+                throw new IncorrectApproxFormatException(INVALID_APPROX_FORMAT_ERROR);
+            }
+            sampleShare = value;
+        } catch (NumberFormatException numberFormatException) {
+            throw new IncorrectApproxFormatException(INVALID_APPROX_FORMAT_ERROR);
+        }
+    }
+
+    /**
+     * Bounds the time a render may take, e.g. "deadline 200" in milliseconds, or renders every
+     * tile exactly again with "deadline off". A bounded render outputs art matched on coarse
+     * tiles, refined band by band until the deadline; the live preview shows every refinement.
+     * The deadline has no effect on renders with dithering, shape matching, aspect tiling,
+     * colours or approximation, which always render every tile.
+     * Binary output always renders every tile.
+     *
+     * @param userInput The user input containing the deadline command.
+     * @throws IncorrectDeadlineFormatException If the deadline command is in an incorrect format,
+     *                                          or the deadline is not positive.
+     */
+    private void handleDeadline(String userInput) throws IncorrectDeadlineFormatException {
+        if (userInput.length() <= INDEX_AFTER_DEADLINE_COMMAND){
+            throw new IncorrectDeadlineFormatException(INVALID_DEADLINE_FORMAT_ERROR);
+        }
+        String specificCmd = userInput.substring(INDEX_AFTER_DEADLINE_COMMAND);
+        if (specificCmd.equalsIgnoreCase("off")) {
+            renderDeadlineMillis = 0;
+            return;
+        }
+        try {
+            long value = Long.parseLong(specificCmd);
+            if (value <= 0) {
+                throw new IncorrectDeadlineFormatException(INVALID_DEADLINE_FORMAT_ERROR);
+            }
+            renderDeadlineMillis = value;
+        } catch (NumberFormatException numberFormatException) {
+            throw new IncorrectDeadlineFormatException(INVALID_DEADLINE_FORMAT_ERROR);
+        }
+    }
+
+    /**
+     * Changes the font and pixel resolution glyphs are measured in, e.g. "font Courier New 32",
+     * or goes back to the default with "font default". Glyphs of a font are rendered on the
+     * first render that needs them, and the HTML output switches to the font.
+     *
+     * @param userInput The user input containing the font command.
+     * @throws IncorrectFontFormatException If the font command is in an incorrect format, or the
+     *                                      resolution is out of bounds.
+     */
+    private void handleFont(String userInput) throws IncorrectFontFormatException {
+        if (userInput.length() <= INDEX_AFTER_FONT_COMMAND){
+            throw new IncorrectFontFormatException(INVALID_FONT_FORMAT_ERROR);
+        }
+        String specificCmd = userInput.substring(INDEX_AFTER_FONT_COMMAND).trim();
+        if (specificCmd.equalsIgnoreCase("default")) {
+            glyphFont = GlyphFont.DEFAULT;
+        } else {
+            int lastSpace = specificCmd.lastIndexOf(' ');
+            if (lastSpace <= 0) {
+                throw new IncorrectFontFormatException(INVALID_FONT_FORMAT_ERROR);
+            }
+            int pixelResolution;
+            try {
+                pixelResolution = Integer.parseInt(specificCmd.substring(lastSpace + 1));
+            } catch (NumberFormatException numberFormatException) {
+                throw new IncorrectFontFormatException(INVALID_FONT_FORMAT_ERROR);
+            }
+            if (pixelResolution < MIN_GLYPH_RESOLUTION || pixelResolution > MAX_GLYPH_RESOLUTION) {
+                throw new IncorrectFontFormatException(INVALID_FONT_FORMAT_ERROR);
+            }
+            glyphFont = new GlyphFont(specificCmd.substring(0, lastSpace).trim(), pixelResolution);
+        }
+        if (asciiOutput instanceof HtmlAsciiOutput) {
+            asciiOutput = new HtmlAsciiOutput("out.html", glyphFont.getName());
+            asciiAnimationOutput = new HtmlAsciiAnimationOutput("out.html", glyphFont.getName());
+        }
+    }
+
+    /**
+     * Applies the character set changes and the image switch a batch has deferred, the set
+     * changes as one removal and one addition.
+     */
+    private void applyPendingChanges() {
+        if (!pendingCharset.isEmpty()) {
+            StringBuilder removed = new StringBuilder();
+            StringBuilder added = new StringBuilder();
+            for (Map.Entry<Character, Boolean> entry : pendingCharset.entrySet()) {
+                if (entry.getValue()) {
+                    added.append(entry.getKey());
+                } else if (subImgCharMatcher.getKeysSet().contains(entry.getKey())) {
+                    removed.append(entry.getKey());
+                }
+            }
+            pendingCharset.clear();
+            if (removed.length() > 0) {
+                subImgCharMatcher.removeChars(removed.toString().toCharArray());
+            }
+            if (added.length() > 0) {
+                subImgCharMatcher.addChars(added.toString().toCharArray());
+            }
+        }
+        if (pendingImagePath != null) {
+            imagePath = pendingImagePath;
+            imageSize = null;
+            pendingImagePath = null;
+        }
+    }
+
+    /**
+     * Gets the size of the source image, reading only the header of the file on the first call
+     * since the image was set, so the renders that follow are the only decodes.
+     *
+     * @return The size of the source image.
+     * @throws IOException If there is an issue with the image file.
+     */
+    private Dimension getImageSize() throws IOException {
+        applyPendingChanges();
+        if (imageSize == null) {
+            imageSize = Image.readDimensions(imagePath);
+        }
+        return imageSize;
+    }
+
     /**
      * Changes the image file used for ASCII art generation.
      *
@@ -335,8 +1366,16 @@ public class Shell {
             throw new IOException(IO_ERROR);
         }
         String specificCmd = userInput.substring(INDEX_AFTER_IMAGE_COMMAND);
+        if (batchMode) {
+            // Read when a following command needs it, only the last of a run of switches is
+            if (!new File(specificCmd).isFile()) {
+                throw new IOException(IO_ERROR);
+            }
+            pendingImagePath = specificCmd;
+            return;
+        }
         try {
-            image = new Image(specificCmd);
+            imageSize = Image.readDimensions(specificCmd);
             imagePath = specificCmd;
         } catch (IOException ioException) {
             throw new IOException(IO_ERROR);
@@ -349,23 +1388,25 @@ public class Shell {
      * @param userInput The user input containing the resolution command.
      * @throws ExceedingValueException        If the new resolution exceeds boundaries.
      * @throws IncorrectResFormatException    If the resolution command is in an incorrect format.
+     * @throws IOException                    If there is an issue with the image file.
      */
     private void handleResolution(String userInput) throws
-            ExceedingValueException, IncorrectResFormatException {
+            ExceedingValueException, IncorrectResFormatException, IOException {
         if (userInput.length() < INDEX_AFTER_RES_COMMAND){
             throw new IncorrectResFormatException(INVALID_RES_FORMAT_ERROR);
         }
         String specificCmd = userInput.substring(INDEX_AFTER_RES_COMMAND);
         if (specificCmd.equalsIgnoreCase("up")) {
             // Check if exceeds the max resolution
-            if (resolution * 2 > image.getWidth()) {
+            if (resolution * 2 > getImageSize().width) {
                 throw new ExceedingValueException(EXCEED_VALUE_ERROR);
             }
             resolution *= 2;
             System.out.println(CUR_NUM_OF_CHARS + resolution);
         } else if (specificCmd.equalsIgnoreCase("down")) {
             // Check if exceeds the min resolution
-            if (resolution / 2 < Math.max(1, image.getWidth() / image.getHeight())) {
+            Dimension size = getImageSize();
+            if (resolution / 2 < Math.max(1, size.width / size.height)) {
                 throw new ExceedingValueException(EXCEED_VALUE_ERROR);
             }
             resolution /= 2;
@@ -385,30 +1426,18 @@ public class Shell {
         if (userInput.length() < INDEX_AFTER_REMOVE_COMMAND){
             throw new IncorrectRemoveFormatException(INVALID_REMOVE_FORMAT_ERROR);
         }
-        String specificCmd = userInput.substring(INDEX_AFTER_REMOVE_COMMAND);
-        // Remove single char from the set
-        if (specificCmd.length() == ADD_CHAR_LENGTH) {
-            char charToRemove = userInput.charAt(INDEX_AFTER_REMOVE_COMMAND);
-            subImgCharMatcher.removeChar(charToRemove);
-        } else if (specificCmd.equalsIgnoreCase("all")) {
-            // Remove all possible characters from the set
-            for (int i = MIN_ASCII_VAL; i < MAX_ASCII_VAL + 1; i++) {
-                subImgCharMatcher.removeChar((char) i);
-            }
-        } else if (specificCmd.equalsIgnoreCase("space")) {
-            // Remove the space character from the set
-            subImgCharMatcher.removeChar((char) SPACE_ASCII);
-        } else if (specificCmd.matches("\\b([^\\s])-([^\\s])\\b")) {
-            // Remove all characters in a given range character1-character2
-            char char1 = specificCmd.charAt(0);
-            char char2 = specificCmd.charAt(2);
-            for (int i = Math.min(char1, char2); i < Math.max(char1, char2) + 1; i++) {
-                subImgCharMatcher.removeChar((char) i);
-            }
-        } else {
+        char[] chars = parseChars(userInput.substring(INDEX_AFTER_REMOVE_COMMAND));
+        if (chars == null) {
             // Throw custom informative error
             throw new IncorrectRemoveFormatException(INVALID_REMOVE_FORMAT_ERROR);
         }
+        if (batchMode) {
+            for (char ch : chars) {
+                pendingCharset.put(ch, false);
+            }
+        } else {
+            subImgCharMatcher.removeChars(chars);
+        }
     }
 
     /**
@@ -421,36 +1450,62 @@ public class Shell {
         if (userInput.length() < INDEX_AFTER_ADD_COMMAND){
             throw new IncorrectAddFormatException(INVALID_ADD_FORMAT_ERROR);
         }
-        String specificCmd = userInput.substring(INDEX_AFTER_ADD_COMMAND);
-        // Add single char to the set
+        char[] chars = parseChars(userInput.substring(INDEX_AFTER_ADD_COMMAND));
+        if (chars == null) {
+            // Throw custom informative error
+            throw new IncorrectAddFormatException(INVALID_ADD_FORMAT_ERROR);
+        }
+        if (batchMode) {
+            for (char ch : chars) {
+                pendingCharset.put(ch, true);
+            }
+        } else {
+            subImgCharMatcher.addChars(chars);
+        }
+    }
+
+    /**
+     * Parses the characters an add or remove command applies to: a single character, "all"
+     * printable characters, "space", or a range character1-character2.
+     *
+     * @param specificCmd The user input following the command.
+     * @return The characters, or null if the input is in an incorrect format.
+     */
+    private char[] parseChars(String specificCmd) {
         if (specificCmd.length() == ADD_CHAR_LENGTH) {
-            char charToAdd = userInput.charAt(INDEX_AFTER_ADD_COMMAND);
-            subImgCharMatcher.addChar(charToAdd);
+            return new char[]{specificCmd.charAt(0)};
         } else if (specificCmd.equalsIgnoreCase("all")) {
-            // Add all possible characters to the set
-            for (int i = MIN_ASCII_VAL; i < MAX_ASCII_VAL + 1; i++) {
-                subImgCharMatcher.addChar((char) i);
-            }
+            return charRange((char) MIN_ASCII_VAL, (char) MAX_ASCII_VAL);
         } else if (specificCmd.equalsIgnoreCase("space")) {
-            // Add the space character to the set
-            subImgCharMatcher.addChar((char) SPACE_ASCII);
+            return new char[]{(char) SPACE_ASCII};
         } else if (specificCmd.matches("\\b([^\\s])-([^\\s])\\b")) {
-            // Add all characters in a given range character1-character2
             char char1 = specificCmd.charAt(0);
             char char2 = specificCmd.charAt(2);
-            for (int i = Math.min(char1, char2); i < Math.max(char1, char2) + 1; i++) {
-                subImgCharMatcher.addChar((char) i);
-            }
-        } else {
-            // Throw custom informative error
-            throw new IncorrectAddFormatException(INVALID_ADD_FORMAT_ERROR);
+            return charRange((char) Math.min(char1, char2), (char) Math.max(char1, char2));
+        }
+        return null;
+    }
+
+    /**
+     * Lists the characters of a range.
+     *
+     * @param first The first character, inclusive.
+     * @param last  The last character, inclusive.
+     * @return The characters from first to last.
+     */
+    private static char[] charRange(char first, char last) {
+        char[] chars = new char[last - first + 1];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (first + i);
         }
+        return chars;
     }
 
     /**
      * Displays the set of characters.
      */
     private void handleChars() {
+        applyPendingChanges();
         for (char ch : subImgCharMatcher.getKeysSet()) {
             System.out.print(ch + " ");
         }
@@ -0,0 +1,14 @@
+package ascii_output;
+
+import java.util.List;
+
+/**
+ * An object implementing this interface can play back a sequence of 2D arrays of chars
+ * in some fashion.
+ */
+public interface AsciiAnimationOutput {
+    /**
+     * Output the specified frames, each shown for its matching delay in milliseconds
+     */
+    void out(List<char[][]> frames, List<Integer> frameDelays);
+}
@@ -0,0 +1,128 @@
+package ascii_output;
+
+import java.util.Arrays;
+
+/**
+ * A set of changed cells of a 2D array of chars, produced when an image is rendered again
+ * and only some of its tiles changed.
+ */
+public class AsciiPatch {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int height;
+    private final int width;
+    private final boolean full;
+    private int[] cellRows = new int[INITIAL_CAPACITY];
+    private int[] cellCols = new int[INITIAL_CAPACITY];
+    private char[] cellChars = new char[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Constructs an empty patch for a 2D array of chars of the given dimensions.
+     *
+     * @param height The number of rows of the patched array.
+     * @param width  The number of columns of the patched array.
+     * @param full   Whether the patch holds every cell, i.e. nothing was rendered before it.
+     */
+    public AsciiPatch(int height, int width, boolean full) {
+        this.height = height;
+        this.width = width;
+        this.full = full;
+    }
+
+    /**
+     * Records a changed cell.
+     *
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param ch  The new character of the cell.
+     */
+    public void addCell(int row, int col, char ch) {
+        if (size == cellRows.length) {
+            cellRows = Arrays.copyOf(cellRows, size * 2);
+            cellCols = Arrays.copyOf(cellCols, size * 2);
+            cellChars = Arrays.copyOf(cellChars, size * 2);
+        }
+        cellRows[size] = row;
+        cellCols[size] = col;
+        cellChars[size] = ch;
+        size++;
+    }
+
+    /**
+     * Writes the changed cells into the given 2D array of chars.
+     *
+     * @param chars The array to patch, of the patch's dimensions.
+     */
+    public void applyTo(char[][] chars) {
+        for (int i = 0; i < size; i++) {
+            chars[cellRows[i]][cellCols[i]] = cellChars[i];
+        }
+    }
+
+    /**
+     * Gets the number of rows of the patched array.
+     *
+     * @return The number of rows.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of columns of the patched array.
+     *
+     * @return The number of columns.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Checks whether the patch holds every cell of the array.
+     *
+     * @return True if nothing was rendered before this patch.
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Gets the number of changed cells.
+     *
+     * @return The number of changed cells.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the row of the changed cell at the given index. Cells are stored in row-major order.
+     *
+     * @param index The index of the changed cell.
+     * @return The row of the cell.
+     */
+    public int getRow(int index) {
+        return cellRows[index];
+    }
+
+    /**
+     * Gets the column of the changed cell at the given index.
+     *
+     * @param index The index of the changed cell.
+     * @return The column of the cell.
+     */
+    public int getCol(int index) {
+        return cellCols[index];
+    }
+
+    /**
+     * Gets the new character of the changed cell at the given index.
+     *
+     * @param index The index of the changed cell.
+     * @return The new character of the cell.
+     */
+    public char getChar(int index) {
+        return cellChars[index];
+    }
+}
@@ -0,0 +1,12 @@
+package ascii_output;
+
+/**
+ * An object implementing this interface can output only the changed cells of a
+ * previously output 2D array of chars.
+ */
+public interface AsciiPatchOutput extends AsciiOutput {
+    /**
+     * Output the changed cells of the specified patch
+     */
+    void outPatch(AsciiPatch patch);
+}
@@ -0,0 +1,145 @@
+package ascii_output;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * Output 2D arrays of chars as frames appended to a compact binary file, which
+ * BinaryAsciiReader reads back by frame index.
+ * Every char is stored as its index in the charset, bit-packed and optionally Deflate
+ * compressed. The file header is written with the first frame; if the file already holds frames
+ * of the same dimensions, charset and render parameters, new frames are appended after them.
+ * The file is only indexed on the first frame, and again if it changed since this output last
+ * appended to it, so appending costs the same however many frames the file holds.
+ */
+public class BinaryAsciiOutput implements AsciiOutput {
+    private final String filename;
+    private final char[] charSet;
+    private final Map<String, String> renderParams;
+    private final boolean compressed;
+    // index of every char of the charset, by char
+    private final Map<Character, Integer> charIndices = new LinkedHashMap<>();
+    private final int bits;
+    // header of the file as of the last append, null until the file was checked
+    private BinaryFrameFormat.Header appendedHeader;
+    // length of the file after the last append
+    private long appendedEnd;
+
+    /**
+     * Constructor for `BinaryAsciiOutput` class.
+     *
+     * @param filename     The file frames are appended to.
+     * @param charSet      The chars frames are made of.
+     * @param renderParams Parameters the frames were rendered with, such as the resolution,
+     *                     stored in the header as is.
+     * @param compressed   Whether frames are Deflate compressed.
+     */
+    public BinaryAsciiOutput(String filename, char[] charSet, Map<String, String> renderParams,
+                             boolean compressed) {
+        this.filename = filename;
+        this.charSet = charSet.clone();
+        this.renderParams = new LinkedHashMap<>(renderParams);
+        this.compressed = compressed;
+        for (int i = 0; i < this.charSet.length; i++) {
+            charIndices.put(this.charSet[i], i);
+        }
+        bits = BinaryFrameFormat.bitsPerChar(this.charSet.length);
+    }
+
+    /**
+     * Appends the chars as one frame.
+     *
+     * @throws IllegalArgumentException If a char is not in the charset, or the frame does not
+     *                                  have the dimensions of the frames already in the file.
+     */
+    @Override
+    public void out(char[][] chars) {
+        int rows = chars.length;
+        int cols = chars[0].length;
+        int[] indices = new int[rows * cols];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                Integer index = charIndices.get(chars[y][x]);
+                if (index == null) {
+                    throw new IllegalArgumentException("Char '" + chars[y][x] + "' is not in the charset");
+                }
+                indices[y * cols + x] = index;
+            }
+        }
+        byte[] payload = BinaryFrameFormat.pack(indices, bits);
+        if (compressed) {
+            payload = deflate(payload);
+        }
+        BinaryFrameFormat.Header header =
+                new BinaryFrameFormat.Header(compressed, rows, cols, charSet, renderParams);
+        try {
+            File file = new File(filename);
+            boolean hasHeader = appendedHeader != null && appendedHeader.isCompatible(header)
+                    && file.length() == appendedEnd || checkExistingHeader(header);
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(filename, true)))) {
+                if (!hasHeader) {
+                    header.write(output);
+                }
+                output.writeInt(payload.length);
+                output.write(payload);
+            }
+            appendedHeader = header;
+            appendedEnd = file.length();
+        } catch (IOException e) {
+            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        }
+    }
+
+    /**
+     * Checks that frames of the given header can be appended to the file, and drops a frame cut
+     * short by an interrupted write so the new frames directly follow the complete ones.
+     *
+     * @return True if the file already starts with a header, false if it is empty or missing.
+     */
+    private boolean checkExistingHeader(BinaryFrameFormat.Header header) throws IOException {
+        File file = new File(filename);
+        if (file.length() == 0) {
+            return false;
+        }
+        long end;
+        try (BinaryAsciiReader reader = new BinaryAsciiReader(filename)) {
+            if (!reader.getHeader().isCompatible(header)) {
+                throw new IllegalArgumentException("\"" + filename + "\" holds frames of other dimensions, "
+                        + "charset or render parameters");
+            }
+            end = reader.getEndOffset();
+        }
+        if (file.length() > end) {
+            try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+                truncated.setLength(end);
+            }
+        }
+        return true;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        deflater.end();
+        return Arrays.copyOf(buffer, length);
+    }
+}
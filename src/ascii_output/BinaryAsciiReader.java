@@ -0,0 +1,208 @@
+package ascii_output;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the frames of a file written by BinaryAsciiOutput, in any order.
+ * Opening the file reads its header and the length of every frame, skipping the payloads, so
+ * any frame can then be read with a single seek. A frame cut short by an interrupted write is
+ * ignored.
+ */
+public class BinaryAsciiReader implements AutoCloseable {
+    private final RandomAccessFile file;
+    private final BinaryFrameFormat.Header header;
+    private final int bits;
+    // file offset of the payload of every frame, and its length
+    private long[] frameOffsets = new long[16];
+    private int[] frameLengths = new int[16];
+    private int frameCount = 0;
+    private long endOffset;
+
+    /**
+     * Opens a binary ASCII art file.
+     *
+     * @param filename The file to read.
+     * @throws IOException If the file cannot be read or is not a binary ASCII art file.
+     */
+    public BinaryAsciiReader(String filename) throws IOException {
+        file = new RandomAccessFile(filename, "r");
+        try {
+            header = BinaryFrameFormat.Header.read(file);
+            bits = BinaryFrameFormat.bitsPerChar(header.charSet.length);
+            indexFrames();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of complete frames in the file.
+     *
+     * @return The number of frames.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Gets the number of rows of every frame.
+     *
+     * @return The number of rows.
+     */
+    public int getRows() {
+        return header.rows;
+    }
+
+    /**
+     * Gets the number of columns of every frame.
+     *
+     * @return The number of columns.
+     */
+    public int getCols() {
+        return header.cols;
+    }
+
+    /**
+     * Gets the chars frames are made of.
+     *
+     * @return The charset, in the order stored.
+     */
+    public char[] getCharSet() {
+        return header.charSet.clone();
+    }
+
+    /**
+     * Gets the parameters the frames were rendered with.
+     *
+     * @return The render parameters, in the order stored.
+     */
+    public Map<String, String> getRenderParams() {
+        return Collections.unmodifiableMap(header.renderParams);
+    }
+
+    /**
+     * Reads the frame at the given index.
+     *
+     * @param index The index of the frame.
+     * @return The chars of the frame.
+     * @throws IOException If the frame cannot be read or is corrupt.
+     */
+    public char[][] readFrame(int index) throws IOException {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + frameCount);
+        }
+        byte[] payload = new byte[frameLengths[index]];
+        file.seek(frameOffsets[index]);
+        file.readFully(payload);
+        int packedSize = BinaryFrameFormat.packedSize(header.rows, header.cols, bits);
+        if (header.compressed) {
+            payload = inflate(payload, packedSize);
+        } else if (payload.length != packedSize) {
+            throw new IOException("Corrupt frame " + index);
+        }
+        int[] indices = new int[header.rows * header.cols];
+        BinaryFrameFormat.unpack(payload, bits, indices);
+        char[][] chars = new char[header.rows][header.cols];
+        for (int y = 0; y < header.rows; y++) {
+            for (int x = 0; x < header.cols; x++) {
+                int charIndex = indices[y * header.cols + x];
+                if (charIndex >= header.charSet.length) {
+                    throw new IOException("Corrupt frame " + index);
+                }
+                chars[y][x] = header.charSet[charIndex];
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * Outputs the frame at the given index again, e.g. to the console or an HTML file.
+     *
+     * @param index       The index of the frame.
+     * @param asciiOutput The output to send the frame to.
+     * @throws IOException If the frame cannot be read or is corrupt.
+     */
+    public void exportFrame(int index, AsciiOutput asciiOutput) throws IOException {
+        asciiOutput.out(readFrame(index));
+    }
+
+    /**
+     * Gets the header of the file.
+     */
+    BinaryFrameFormat.Header getHeader() {
+        return header;
+    }
+
+    /**
+     * Gets the offset right after the last complete frame, where the next frame belongs.
+     */
+    long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Records where every complete frame of the file starts, reading only the frame lengths.
+     */
+    private void indexFrames() throws IOException {
+        long length = file.length();
+        long position = file.getFilePointer();
+        while (position + Integer.BYTES <= length) {
+            file.seek(position);
+            int frameLength = file.readInt();
+            long payloadOffset = position + Integer.BYTES;
+            if (frameLength < 0 || payloadOffset + frameLength > length) {
+                break;
+            }
+            if (frameCount == frameOffsets.length) {
+                frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+                frameLengths = Arrays.copyOf(frameLengths, frameCount * 2);
+            }
+            frameOffsets[frameCount] = payloadOffset;
+            frameLengths[frameCount] = frameLength;
+            frameCount++;
+            position = payloadOffset + frameLength;
+        }
+        endOffset = position;
+    }
+
+    private static byte[] inflate(byte[] data, int size) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[size];
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int inflated = inflater.inflate(result, length, size - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != size) {
+                throw new IOException("Corrupt compressed frame");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package ascii_output;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The layout of binary ASCII art files, shared by their writer and reader.
+ * A file starts with a header:
+ * <pre>
+ *   int    magic "ASCB"
+ *   byte   version
+ *   byte   flags, bit 0 set if frames are Deflate compressed
+ *   int    rows, int cols
+ *   short  charset size, followed by the chars
+ *   short  render parameter count, followed by UTF key and value pairs
+ * </pre>
+ * followed by any number of frames, each an int payload length and the payload: the index of
+ * every char in the charset, row by row, packed to ceil(log2(charset size)) bits, lowest bits
+ * first. Frames are only ever appended, and the reader finds them by their lengths.
+ */
+final class BinaryFrameFormat {
+    static final int MAGIC = 0x41534342;
+    static final int VERSION = 1;
+    static final int DEFLATE_FLAG = 1;
+
+    private BinaryFrameFormat() {
+    }
+
+    /**
+     * The header of a binary ASCII art file.
+     */
+    static final class Header {
+        final boolean compressed;
+        final int rows;
+        final int cols;
+        final char[] charSet;
+        final Map<String, String> renderParams;
+
+        Header(boolean compressed, int rows, int cols, char[] charSet, Map<String, String> renderParams) {
+            this.compressed = compressed;
+            this.rows = rows;
+            this.cols = cols;
+            this.charSet = charSet;
+            this.renderParams = renderParams;
+        }
+
+        /**
+         * Checks whether frames written for the other header can be appended after this one.
+         */
+        boolean isCompatible(Header other) {
+            return compressed == other.compressed && rows == other.rows && cols == other.cols
+                    && Arrays.equals(charSet, other.charSet) && renderParams.equals(other.renderParams);
+        }
+
+        void write(DataOutput output) throws IOException {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeByte(compressed ? DEFLATE_FLAG : 0);
+            output.writeInt(rows);
+            output.writeInt(cols);
+            output.writeShort(charSet.length);
+            for (char c : charSet) {
+                output.writeChar(c);
+            }
+            output.writeShort(renderParams.size());
+            for (Map.Entry<String, String> param : renderParams.entrySet()) {
+                output.writeUTF(param.getKey());
+                output.writeUTF(param.getValue());
+            }
+        }
+
+        static Header read(DataInput input) throws IOException {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a binary ASCII art file");
+            }
+            int version = input.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary ASCII art version " + version);
+            }
+            boolean compressed = (input.readUnsignedByte() & DEFLATE_FLAG) != 0;
+            int rows = input.readInt();
+            int cols = input.readInt();
+            char[] charSet = new char[input.readUnsignedShort()];
+            for (int i = 0; i < charSet.length; i++) {
+                charSet[i] = input.readChar();
+            }
+            int paramsCount = input.readUnsignedShort();
+            Map<String, String> renderParams = new LinkedHashMap<>();
+            for (int i = 0; i < paramsCount; i++) {
+                renderParams.put(input.readUTF(), input.readUTF());
+            }
+            return new Header(compressed, rows, cols, charSet, renderParams);
+        }
+    }
+
+    /**
+     * Gets the number of bits a char index is packed to.
+     *
+     * @param charSetSize The number of chars of the charset.
+     * @return ceil(log2(charSetSize)), 0 for a single char.
+     */
+    static int bitsPerChar(int charSetSize) {
+        return charSetSize <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(charSetSize - 1);
+    }
+
+    /**
+     * Gets the number of bytes of a packed frame.
+     */
+    static int packedSize(int rows, int cols, int bits) {
+        return (int) (((long) rows * cols * bits + Byte.SIZE - 1) / Byte.SIZE);
+    }
+
+    /**
+     * Packs char indices to the given number of bits each, lowest bits first.
+     *
+     * @param indices The indices, each below 2^bits.
+     * @param bits    The number of bits per index.
+     * @return The packed indices.
+     */
+    static byte[] pack(int[] indices, int bits) {
+        byte[] packed = new byte[packedSize(1, indices.length, bits)];
+        long buffer = 0;
+        int buffered = 0;
+        int position = 0;
+        for (int index : indices) {
+            buffer |= (long) index << buffered;
+            buffered += bits;
+            while (buffered >= Byte.SIZE) {
+                packed[position++] = (byte) buffer;
+                buffer >>>= Byte.SIZE;
+                buffered -= Byte.SIZE;
+            }
+        }
+        if (buffered > 0) {
+            packed[position] = (byte) buffer;
+        }
+        return packed;
+    }
+
+    /**
+     * Unpacks char indices packed by pack.
+     *
+     * @param packed  The packed indices.
+     * @param bits    The number of bits per index.
+     * @param indices Receives the indices.
+     */
+    static void unpack(byte[] packed, int bits, int[] indices) {
+        long mask = (1L << bits) - 1;
+        long buffer = 0;
+        int buffered = 0;
+        int position = 0;
+        for (int i = 0; i < indices.length; i++) {
+            while (buffered < bits) {
+                buffer |= (long) (packed[position++] & 0xFF) << buffered;
+                buffered += Byte.SIZE;
+            }
+            indices[i] = (int) (buffer & mask);
+            buffer >>>= bits;
+            buffered -= bits;
+        }
+    }
+}
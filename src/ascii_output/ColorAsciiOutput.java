@@ -0,0 +1,13 @@
+package ascii_output;
+
+/**
+ * An object implementing this interface can output a 2D array of chars
+ * with a colour for every char.
+ */
+public interface ColorAsciiOutput extends AsciiOutput {
+    /**
+     * Output the specified 2D array of chars, each in the RGB colour (0xRRGGBB)
+     * at the same position of the colors array
+     */
+    void outColor(char[][] chars, int[][] colors);
+}
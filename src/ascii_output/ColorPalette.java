@@ -0,0 +1,61 @@
+package ascii_output;
+
+/**
+ * The 6x6x6 colour cube of 256-colour terminals, used by the colour outputs so that
+ * neighbouring cells of similar colours share one palette entry and can be styled together.
+ */
+final class ColorPalette {
+    // channel values of the six levels of the cube
+    private static final int[] LEVELS = {0, 95, 135, 175, 215, 255};
+    // channel values halfway between two consecutive levels
+    private static final int[] LEVEL_BOUNDS = {48, 115, 155, 195, 235};
+    /**
+     * Number of entries of the palette.
+     */
+    static final int SIZE = LEVELS.length * LEVELS.length * LEVELS.length;
+    // number of the first cube colour among the terminal colours
+    private static final int ANSI_CUBE_START = 16;
+
+    private ColorPalette() {
+    }
+
+    /**
+     * Quantizes a colour to the closest palette entry, channel by channel.
+     *
+     * @param rgb The colour as 0xRRGGBB.
+     * @return The index of the palette entry, between 0 and 215.
+     */
+    static int quantize(int rgb) {
+        return (level((rgb >> 16) & 0xFF) * LEVELS.length + level((rgb >> 8) & 0xFF)) * LEVELS.length
+                + level(rgb & 0xFF);
+    }
+
+    /**
+     * Gets the colour of a palette entry.
+     *
+     * @param index The index of the palette entry.
+     * @return The colour as 0xRRGGBB.
+     */
+    static int toRgb(int index) {
+        int size = LEVELS.length;
+        return LEVELS[index / (size * size)] << 16 | LEVELS[index / size % size] << 8 | LEVELS[index % size];
+    }
+
+    /**
+     * Gets the terminal colour number of a palette entry, for 256-colour escape sequences.
+     *
+     * @param index The index of the palette entry.
+     * @return The terminal colour number.
+     */
+    static int toAnsi(int index) {
+        return ANSI_CUBE_START + index;
+    }
+
+    private static int level(int value) {
+        int level = 0;
+        while (level < LEVEL_BOUNDS.length && value >= LEVEL_BOUNDS[level]) {
+            level++;
+        }
+        return level;
+    }
+}
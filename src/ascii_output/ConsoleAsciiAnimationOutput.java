@@ -0,0 +1,35 @@
+package ascii_output;
+
+import java.util.List;
+
+/**
+ * Play back a sequence of 2D arrays of chars in the console, redrawing each frame in place
+ * using ANSI escape sequences.
+ */
+public class ConsoleAsciiAnimationOutput implements AsciiAnimationOutput {
+    // moves the cursor to the top left corner and clears the screen
+    private static final String CLEAR_SCREEN = "\033[H\033[2J";
+
+    @Override
+    public void out(List<char[][]> frames, List<Integer> frameDelays) {
+        for (int i = 0; i < frames.size(); i++) {
+            char[][] chars = frames.get(i);
+            // Build the whole frame first, so it appears at once instead of line by line
+            StringBuilder frame = new StringBuilder(CLEAR_SCREEN);
+            for (int y = 0; y < chars.length; y++) {
+                for (int x = 0; x < chars[y].length; x++) {
+                    frame.append(chars[y][x]).append(' ');
+                }
+                frame.append(System.lineSeparator());
+            }
+            System.out.print(frame);
+            System.out.flush();
+            try {
+                Thread.sleep(frameDelays.get(i));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
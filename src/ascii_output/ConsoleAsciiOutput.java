@@ -3,9 +3,22 @@ package ascii_output;
 /**
  * Output a 2D array of chars to the console.
  * @author Dan Nirel
- */public class ConsoleAsciiOutput implements AsciiOutput{
+ */public class ConsoleAsciiOutput implements AsciiPatchOutput, ColorAsciiOutput{
+    // sets the foreground to one of the 256 terminal colours
+    private static final String SET_COLOR = "\033[38;5;%dm";
+    // restores the default foreground
+    private static final String RESET_COLOR = "\033[0m";
+
+    // art of the patches output so far, or null before the first full patch
+    private char[][] patched;
+    // whether the patched art is on screen, with nothing else drawn over or after it
+    private boolean patchedOnScreen = false;
+    // lines printed when the patched art was drawn
+    private long artLineCount;
+
     @Override
     public void out(char[][] chars) {
+        patchedOnScreen = false;
         for (int y = 0; y < chars.length ; y++) {
             for (int x = 0; x < chars[y].length; x++) {
                 System.out.print(chars[y][x] + " ");
@@ -13,4 +26,57 @@ package ascii_output;
             System.out.println();
         }
     }
+
+    /**
+     * Prints the chars in 256-colour mode. The colour is set only where it differs from the
+     * previous cell's, so a run of cells of the same palette colour costs a single escape
+     * sequence.
+     */
+    @Override
+    public void outColor(char[][] chars, int[][] colors) {
+        patchedOnScreen = false;
+        StringBuilder sb = new StringBuilder();
+        for (int y = 0; y < chars.length ; y++) {
+            int prevColor = -1;
+            for (int x = 0; x < chars[y].length; x++) {
+                int color = ColorPalette.quantize(colors[y][x]);
+                if (color != prevColor) {
+                    sb.append(String.format(SET_COLOR, ColorPalette.toAnsi(color)));
+                    prevColor = color;
+                }
+                sb.append(chars[y][x]).append(' ');
+            }
+            // Reset before the line break, so the terminal does not paint the new line
+            sb.append(RESET_COLOR).append(System.lineSeparator());
+        }
+        System.out.print(sb);
+        System.out.flush();
+    }
+
+    /**
+     * Redraws only the changed cells, addressing each run of adjacent cells relatively to the
+     * cursor. The art is drawn again from a cleared screen instead for a full patch, when other
+     * art was output since the previous patch, or when the top of the art may have scrolled off
+     * the screen.
+     */
+    @Override
+    public void outPatch(AsciiPatch patch) {
+        boolean sameSize = patched != null && patched.length == patch.getHeight()
+                && (patched.length == 0 || patched[0].length == patch.getWidth());
+        if (patch.isFull() || !sameSize) {
+            patched = new char[patch.getHeight()][patch.getWidth()];
+        }
+        patch.applyTo(patched);
+        String inPlace = patchedOnScreen && !patch.isFull() && sameSize
+                ? ConsoleScreen.drawInPlace(patch, ConsoleScreen.getLineCount() - artLineCount) : null;
+        if (inPlace != null) {
+            System.out.print(inPlace);
+            System.out.flush();
+            return;
+        }
+        System.out.print(ConsoleScreen.drawFull(patched));
+        System.out.flush();
+        artLineCount = ConsoleScreen.getLineCount();
+        patchedOnScreen = true;
+    }
 }
@@ -0,0 +1,218 @@
+package ascii_output;
+
+import java.io.BufferedReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the console below art drawn on it, so the art can be patched in place.
+ * Art taller than the terminal, and every prompt, message and typed command printed after it,
+ * scroll the screen, so art is never addressed from the top of the screen: a patch moves the
+ * cursor up from where it is, by the lines printed since the art plus the rows of the art below
+ * the changed cell, and puts the cursor back afterwards. Lines are counted on the standard output
+ * once {@link #install()} wrapped it, and typed lines the terminal echoed are reported by
+ * {@link #inputLineEchoed()}. When the top of the art has scrolled off the screen, or the height
+ * of the terminal is unknown, the art cannot be patched and is drawn again from a cleared screen.
+ */
+public final class ConsoleScreen {
+    // moves the cursor to the top left corner and clears the screen
+    private static final String CLEAR_SCREEN = "\033[H\033[2J";
+    // saves and restores the cursor position
+    private static final String SAVE_CURSOR = "\0337";
+    private static final String RESTORE_CURSOR = "\0338";
+    // moves the cursor up or down a number of lines, in the same column
+    private static final String CURSOR_UP = "\033[%dA";
+    private static final String CURSOR_DOWN = "\033[%dB";
+    // moves the cursor to a 1-based column of its line
+    private static final String CURSOR_COLUMN = "\033[%dG";
+    // every char is printed followed by a space
+    private static final int CELL_WIDTH = 2;
+    // the terminal may be resized, so its height is read again after this long
+    private static final long ROWS_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long STTY_TIMEOUT_MILLIS = 500;
+
+    private static final AtomicLong lineCount = new AtomicLong();
+    private static boolean installed = false;
+    private static int rows = 0;
+    private static long rowsCheckedNanos = 0;
+    private static boolean rowsChecked = false;
+
+    private ConsoleScreen() {
+    }
+
+    /**
+     * Wraps the standard output in a stream counting the lines printed on it. Calling it again
+     * has no effect.
+     */
+    public static synchronized void install() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+        PrintStream original = System.out;
+        OutputStream counting = new FilterOutputStream(original) {
+            @Override
+            public void write(int b) throws IOException {
+                if (b == '\n') {
+                    lineCount.incrementAndGet();
+                }
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                int newlines = 0;
+                for (int i = off; i < off + len; i++) {
+                    if (b[i] == '\n') {
+                        newlines++;
+                    }
+                }
+                lineCount.addAndGet(newlines);
+                out.write(b, off, len);
+            }
+        };
+        // The standard output encodes with this property when set, and the default charset otherwise
+        String encoding = System.getProperty("sun.stdout.encoding");
+        try {
+            System.setOut(encoding == null ? new PrintStream(counting, true)
+                    : new PrintStream(counting, true, encoding));
+        } catch (UnsupportedEncodingException unsupportedEncodingException) {
+            System.setOut(new PrintStream(counting, true));
+        }
+    }
+
+    /**
+     * Reports a line typed on the console, which the terminal echoed and ended with a line break.
+     */
+    public static void inputLineEchoed() {
+        lineCount.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of lines printed so far.
+     *
+     * @return The lines printed on the standard output and echoed by the terminal.
+     */
+    static long getLineCount() {
+        return lineCount.get();
+    }
+
+    /**
+     * Builds the output clearing the screen and drawing the art from its top left corner, leaving
+     * the cursor at the start of the line below the art.
+     *
+     * @param chars The art.
+     * @return The escape sequences and chars to print.
+     */
+    static String drawFull(char[][] chars) {
+        StringBuilder sb = new StringBuilder(CLEAR_SCREEN);
+        for (char[] row : chars) {
+            for (char ch : row) {
+                sb.append(ch).append(' ');
+            }
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds the output drawing the changed cells of art over the art on screen, addressing each
+     * run of adjacent cells relatively to the cursor and putting the cursor back afterwards.
+     *
+     * @param patch         The changed cells.
+     * @param linesBelowArt The lines printed since the art was drawn.
+     * @return The escape sequences and chars to print, or null if the top of the art may have
+     * scrolled off the screen and the art must be drawn again.
+     */
+    static String drawInPlace(AsciiPatch patch, long linesBelowArt) {
+        int terminalRows = getRows();
+        // The line of the cursor and every line above it up to the top of the art must be on screen
+        if (terminalRows <= 0 || linesBelowArt < 0 || patch.getHeight() + linesBelowArt >= terminalRows) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(SAVE_CURSOR);
+        // The cursor starts on the line below the art, or as many lines lower as were printed since
+        long cursorRow = patch.getHeight() + linesBelowArt;
+        int prevCol = -1;
+        for (int i = 0; i < patch.size(); i++) {
+            int row = patch.getRow(i);
+            int col = patch.getCol(i);
+            boolean moved = row != cursorRow;
+            if (row < cursorRow) {
+                sb.append(String.format(CURSOR_UP, cursorRow - row));
+            } else if (row > cursorRow) {
+                sb.append(String.format(CURSOR_DOWN, row - cursorRow));
+            }
+            // The cursor already sits on the next cell of the same row
+            if (moved || col != prevCol + 1) {
+                sb.append(String.format(CURSOR_COLUMN, col * CELL_WIDTH + 1));
+            }
+            sb.append(patch.getChar(i)).append(' ');
+            cursorRow = row;
+            prevCol = col;
+        }
+        sb.append(RESTORE_CURSOR);
+        return sb.toString();
+    }
+
+    /**
+     * Gets the height of the terminal, from the LINES variable or from stty on the controlling
+     * terminal, read at most once a second.
+     *
+     * @return The number of rows of the terminal, or 0 if it is unknown.
+     */
+    private static synchronized int getRows() {
+        long now = System.nanoTime();
+        if (rowsChecked && now - rowsCheckedNanos < ROWS_CHECK_NANOS) {
+            return rows;
+        }
+        rowsChecked = true;
+        rowsCheckedNanos = now;
+        rows = parseRows(System.getenv("LINES"));
+        if (rows == 0) {
+            rows = readSttyRows();
+        }
+        return rows;
+    }
+
+    private static int readSttyRows() {
+        try {
+            Process stty = new ProcessBuilder("sh", "-c", "stty size < /dev/tty")
+                    .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            String line;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(stty.getInputStream(), StandardCharsets.US_ASCII))) {
+                line = reader.readLine();
+            }
+            if (!stty.waitFor(STTY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                stty.destroy();
+                return 0;
+            }
+            // stty prints the rows and then the columns
+            return line == null ? 0 : parseRows(line.trim().split("\\s+")[0]);
+        } catch (IOException ioException) {
+            return 0;
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    private static int parseRows(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException numberFormatException) {
+            return 0;
+        }
+    }
+}
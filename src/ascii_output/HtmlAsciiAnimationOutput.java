@@ -0,0 +1,81 @@
+package ascii_output;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Output a sequence of 2D arrays of chars to an HTML file that plays them back in a loop
+ * when viewed in a web browser.
+ */
+public class HtmlAsciiAnimationOutput implements AsciiAnimationOutput {
+    private static final double BASE_LINE_SPACING = 0.8;
+    private static final double BASE_FONT_SIZE = 150.0;
+
+    private final String fontName;
+    private final String filename;
+
+    public HtmlAsciiAnimationOutput(String filename, String fontName) {
+        this.fontName = fontName;
+        this.filename = filename;
+    }
+
+    @Override
+    public void out(List<char[][]> frames, List<Integer> frameDelays) {
+        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            writer.write(String.format(
+                "<!DOCTYPE html>\n"+
+                "<html>\n"+
+                "<body style=\""+
+                    "\tCOLOR:#000000;"+
+                    "\tTEXT-ALIGN:center;"+
+                    "\tFONT-SIZE:1px;\">\n"+
+                "<style>p{"+
+                    "\twhite-space:pre;"+
+                    "\tFONT-FAMILY:%s;"+
+                    "\tFONT-SIZE:%frem;"+
+                    "\tLETTER-SPACING:0.15em;"+
+                    "\tLINE-HEIGHT:%fem;}</style>\n",
+                    fontName, BASE_FONT_SIZE/frames.get(0)[0].length, BASE_LINE_SPACING));
+
+            for (int i = 0; i < frames.size(); i++) {
+                char[][] chars = frames.get(i);
+                // Only the first frame is visible until the script takes over
+                writer.write(String.format("<p data-delay=\"%d\"%s>\n",
+                        frameDelays.get(i), i == 0 ? "" : " hidden"));
+                for(int y = 0 ; y < chars.length ; y++) {
+                    for (int x = 0; x < chars[y].length ; x++) {
+                        String htmlRep;
+                        switch(chars[y][x]) {
+                            case '<': htmlRep = "&lt;";  break;
+                            case '>': htmlRep = "&gt;";  break;
+                            case '&': htmlRep = "&amp;"; break;
+                            default:  htmlRep = String.valueOf(chars[y][x]);
+                        }
+                        writer.write(htmlRep);
+                    }
+                    writer.newLine();
+                }
+                writer.write("</p>\n");
+            }
+            writer.write(
+                "<script>\n"+
+                "var frames = document.getElementsByTagName(\"p\");\n"+
+                "var current = 0;\n"+
+                "function next() {\n"+
+                "\tframes[current].hidden = true;\n"+
+                "\tcurrent = (current + 1) % frames.length;\n"+
+                "\tframes[current].hidden = false;\n"+
+                "\tsetTimeout(next, frames[current].dataset.delay);\n"+
+                "}\n"+
+                "setTimeout(next, frames[0].dataset.delay);\n"+
+                "</script>\n"+
+                "</body>\n"+
+                "</html>\n");
+        } catch(IOException e) {
+            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        }
+    }
+}
@@ -9,7 +9,7 @@ import java.util.logging.Logger;
  * Output a 2D array of chars to an HTML file viewable in a web browser.
  * @author Dan Nirel
  */
-public class HtmlAsciiOutput implements AsciiOutput {
+public class HtmlAsciiOutput implements ColorAsciiOutput {
     private static final double BASE_LINE_SPACING = 0.8;
     private static final double BASE_FONT_SIZE = 150.0;
 
@@ -24,40 +24,108 @@ public class HtmlAsciiOutput implements AsciiOutput {
     @Override
     public void out(char[][] chars) {
         try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.format(
-                "<!DOCTYPE html>\n"+
-                "<html>\n"+
-                "<body style=\""+
-                    "\tCOLOR:#000000;"+
-                    "\tTEXT-ALIGN:center;"+
-                    "\tFONT-SIZE:1px;\">\n"+
-                "<p style=\""+
-                    "\twhite-space:pre;"+
-                    "\tFONT-FAMILY:%s;"+
-                    "\tFONT-SIZE:%frem;"+
-                    "\tLETTER-SPACING:0.15em;"+
-                    "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING));
+            writeHeader(writer, chars[0].length, "");
+            for(int y = 0 ; y < chars.length ; y++) {
+                for (int x = 0; x < chars[y].length ; x++) {
+                    writer.write(toHtml(chars[y][x]));
+                }
+                writer.newLine();
+            }
+            writeFooter(writer);
+        } catch(IOException e) {
+            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        }
+    }
 
+    /**
+     * Writes every run of consecutive chars of the same palette colour in a single span.
+     * A run may continue on the next line, so a flat area of the image costs one span
+     * however many lines it covers, and each span only names a class declared once for
+     * every palette colour used. The most frequent colour becomes the colour of the whole
+     * text and needs no span at all.
+     */
+    @Override
+    public void outColor(char[][] chars, int[][] colors) {
+        int[][] paletteColors = new int[colors.length][];
+        int[] counts = new int[ColorPalette.SIZE];
+        for (int y = 0; y < colors.length; y++) {
+            paletteColors[y] = new int[colors[y].length];
+            for (int x = 0; x < colors[y].length; x++) {
+                paletteColors[y][x] = ColorPalette.quantize(colors[y][x]);
+                counts[paletteColors[y][x]]++;
+            }
+        }
+        int textColor = 0;
+        for (int color = 0; color < counts.length; color++) {
+            if (counts[color] > counts[textColor]) {
+                textColor = color;
+            }
+        }
+        StringBuilder styles = new StringBuilder(String.format("p{color:#%06x}", ColorPalette.toRgb(textColor)));
+        for (int color = 0; color < counts.length; color++) {
+            if (counts[color] > 0 && color != textColor) {
+                styles.append(String.format(".c%d{color:#%06x}", color, ColorPalette.toRgb(color)));
+            }
+        }
+        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            writeHeader(writer, chars[0].length, styles.toString());
+            int prevColor = textColor;
             for(int y = 0 ; y < chars.length ; y++) {
                 for (int x = 0; x < chars[y].length ; x++) {
-                    String htmlRep;
-                    switch(chars[y][x]) {
-                        case '<': htmlRep = "&lt;";  break;
-                        case '>': htmlRep = "&gt;";  break;
-                        case '&': htmlRep = "&amp;"; break;
-                        default:  htmlRep = String.valueOf(chars[y][x]);
+                    int color = paletteColors[y][x];
+                    if (color != prevColor) {
+                        if (prevColor != textColor) {
+                            writer.write("</span>");
+                        }
+                        if (color != textColor) {
+                            writer.write("<span class=c" + color + ">");
+                        }
+                        prevColor = color;
                     }
-                    writer.write(htmlRep);
+                    writer.write(toHtml(chars[y][x]));
                 }
                 writer.newLine();
             }
-            writer.write(
-                "</p>\n"+
-                "</body>\n"+
-                "</html>\n");
+            if (prevColor != textColor) {
+                writer.write("</span>");
+            }
+            writeFooter(writer);
         } catch(IOException e) {
             Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
         }
     }
+
+    private void writeHeader(BufferedWriter writer, int width, String styles) throws IOException {
+        writer.write(String.format(
+            "<!DOCTYPE html>\n"+
+            "<html>\n"+
+            (styles.isEmpty() ? "" : "<head><style>" + styles + "</style></head>\n")+
+            "<body style=\""+
+                "\tCOLOR:#000000;"+
+                "\tTEXT-ALIGN:center;"+
+                "\tFONT-SIZE:1px;\">\n"+
+            "<p style=\""+
+                "\twhite-space:pre;"+
+                "\tFONT-FAMILY:%s;"+
+                "\tFONT-SIZE:%frem;"+
+                "\tLETTER-SPACING:0.15em;"+
+                "\tLINE-HEIGHT:%fem;\">\n",
+                fontName, BASE_FONT_SIZE/width, BASE_LINE_SPACING));
+    }
+
+    private static void writeFooter(BufferedWriter writer) throws IOException {
+        writer.write(
+            "</p>\n"+
+            "</body>\n"+
+            "</html>\n");
+    }
+
+    private static String toHtml(char c) {
+        switch(c) {
+            case '<': return "&lt;";
+            case '>': return "&gt;";
+            case '&': return "&amp;";
+            default:  return String.valueOf(c);
+        }
+    }
 }
@@ -0,0 +1,144 @@
+package ascii_output;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output 2D arrays of chars to the console as a live preview, redrawing the art in place.
+ * The chars on screen and the latest chars to show are kept as two buffers, and a redraw
+ * writes only the cells that differ between them, moving the cursor up to every run of changed
+ * cells from where it is and then putting it back, so the prompt below the art stays where it is.
+ * A redraw of other dimensions, or one after the top of the art scrolled off the screen, clears
+ * the screen and draws the whole art at the top left corner.
+ * Redraws are limited to a target frame rate: art output sooner than one frame after the
+ * previous redraw is drawn when the frame is due, and only the latest art of a frame is drawn.
+ */
+public class LivePreviewAsciiOutput implements AsciiOutput {
+    private final long frameNanos;
+    private final PrintStream out;
+    private final ScheduledExecutorService scheduler;
+    // chars on screen, or null before the first redraw
+    private char[][] front;
+    // latest chars not drawn yet, or null
+    private char[][] back;
+    private long lastRedrawNanos;
+    // lines printed when the front buffer was drawn in full
+    private long artLineCount;
+    private boolean redrawScheduled = false;
+    private long redrawCount = 0;
+    private long cellsWritten = 0;
+
+    /**
+     * Constructor for `LivePreviewAsciiOutput` class, drawing to the standard output.
+     *
+     * @param targetFps The largest number of redraws per second.
+     */
+    public LivePreviewAsciiOutput(int targetFps) {
+        this(targetFps, System.out);
+    }
+
+    /**
+     * Constructor for `LivePreviewAsciiOutput` class.
+     *
+     * @param targetFps The largest number of redraws per second.
+     * @param out       The stream the escape sequences and chars are written to.
+     */
+    public LivePreviewAsciiOutput(int targetFps, PrintStream out) {
+        frameNanos = TimeUnit.SECONDS.toNanos(1) / targetFps;
+        this.out = out;
+        lastRedrawNanos = System.nanoTime() - frameNanos;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "live-preview");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Shows the chars, now if a frame has passed since the previous redraw, and when the next
+     * frame is due otherwise. The array is copied, so it may be modified afterwards.
+     */
+    @Override
+    public synchronized void out(char[][] chars) {
+        back = new char[chars.length][];
+        for (int y = 0; y < chars.length; y++) {
+            back[y] = chars[y].clone();
+        }
+        long delay = lastRedrawNanos + frameNanos - System.nanoTime();
+        if (delay <= 0) {
+            redraw();
+        } else if (!redrawScheduled) {
+            redrawScheduled = true;
+            scheduler.schedule(this::scheduledRedraw, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Draws the latest chars at once if a redraw is still due, for instance before exiting.
+     */
+    public synchronized void flush() {
+        if (back != null) {
+            redraw();
+        }
+    }
+
+    /**
+     * Gets the number of redraws so far.
+     *
+     * @return The number of redraws, fewer than the number of outputs when some were throttled.
+     */
+    public synchronized long getRedrawCount() {
+        return redrawCount;
+    }
+
+    /**
+     * Gets the number of cells written to the console so far.
+     *
+     * @return The number of cells written by all redraws.
+     */
+    public synchronized long getCellsWritten() {
+        return cellsWritten;
+    }
+
+    private synchronized void scheduledRedraw() {
+        redrawScheduled = false;
+        if (back != null) {
+            redraw();
+        }
+    }
+
+    /**
+     * Writes the cells of the back buffer that differ from the front buffer, and swaps them.
+     */
+    private void redraw() {
+        boolean full = front == null || front.length != back.length
+                || (back.length > 0 && front[0].length != back[0].length);
+        AsciiPatch patch = new AsciiPatch(back.length, back.length == 0 ? 0 : back[0].length, full);
+        for (int y = 0; y < back.length; y++) {
+            for (int x = 0; x < back[y].length; x++) {
+                if (full || front[y][x] != back[y][x]) {
+                    patch.addCell(y, x, back[y][x]);
+                }
+            }
+        }
+        String inPlace = full ? null
+                : ConsoleScreen.drawInPlace(patch, ConsoleScreen.getLineCount() - artLineCount);
+        if (inPlace != null) {
+            out.print(inPlace);
+            cellsWritten += patch.size();
+        } else {
+            out.print(ConsoleScreen.drawFull(back));
+            cellsWritten += (long) back.length * (back.length == 0 ? 0 : back[0].length);
+        }
+        out.flush();
+        if (inPlace == null) {
+            artLineCount = ConsoleScreen.getLineCount();
+        }
+        front = back;
+        back = null;
+        lastRedrawNanos = System.nanoTime();
+        redrawCount++;
+    }
+}
@@ -0,0 +1,77 @@
+package image;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Compares exact tile brightness, from a full decode, with the approximation from a subsampled
+ * decode, over a range of square grid resolutions of one image.
+ * For every resolution it prints the subsampling step, the best of several timings of both
+ * paths, decode included, and the largest and mean tile brightness error of the approximation.
+ */
+public class ApproximationBenchmark {
+    // timed runs per resolution and path, the fastest one is reported
+    private static final int RUNS = 5;
+    // share of a tile a sample may stand for when none is given, no bound on the error
+    private static final double DEFAULT_SAMPLE_SHARE = 0.05;
+    // resolutions compared when none are given
+    private static final int[] DEFAULT_RESOLUTIONS = {32, 64, 128, 256, 512};
+
+    private ApproximationBenchmark() {
+    }
+
+    /**
+     * Runs the comparison.
+     *
+     * @param args The image path, then optionally the share of a tile a sample may stand for and
+     *             the resolutions to compare.
+     * @throws IOException If an error occurs while reading the image.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ApproximationBenchmark <image> [sampleShare] [resolution...]");
+            return;
+        }
+        String imagePath = args[0];
+        double sampleShare = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_SAMPLE_SHARE;
+        int[] resolutions = DEFAULT_RESOLUTIONS;
+        if (args.length > 2) {
+            resolutions = new int[args.length - 2];
+            for (int i = 0; i < resolutions.length; i++) {
+                resolutions[i] = Integer.parseInt(args[i + 2]);
+            }
+        }
+        Dimension size = Image.readDimensions(imagePath);
+        FusedBrightnessCalc fusedBrightnessCalc = new FusedBrightnessCalc();
+        System.out.printf("%s %dx%d, sample share %s%n", imagePath, size.width, size.height, sampleShare);
+        System.out.println("resolution  step  exact ms  approx ms  max error  mean error");
+        for (int resolution : resolutions) {
+            int step = FusedBrightnessCalc.sampleStep(size.width, size.height, resolution, sampleShare);
+            double[] exact = null;
+            double[] approx = null;
+            long exactNanos = Long.MAX_VALUE;
+            long approxNanos = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                exact = fusedBrightnessCalc.getTileBrightnesses(Image.readImage(imagePath), resolution);
+                exactNanos = Math.min(exactNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                Dimension sampledSize = Image.readDimensions(imagePath);
+                BufferedImage sampled = Image.readImage(imagePath, step);
+                approx = fusedBrightnessCalc.getSampledTileBrightnesses(sampled, sampledSize.width,
+                        sampledSize.height, step, resolution);
+                approxNanos = Math.min(approxNanos, System.nanoTime() - start);
+            }
+            double maxDiff = 0;
+            double sumDiff = 0;
+            for (int i = 0; i < exact.length; i++) {
+                double diff = Math.abs(exact[i] - approx[i]);
+                maxDiff = Math.max(maxDiff, diff);
+                sumDiff += diff;
+            }
+            System.out.printf("%10d  %4d  %8.1f  %9.1f  %9.4f  %10.5f%n", resolution, step, exactNanos / 1e6,
+                    approxNanos / 1e6, maxDiff, sumDiff / exact.length);
+        }
+    }
+}
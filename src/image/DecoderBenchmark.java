@@ -0,0 +1,142 @@
+package image;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compares the decoders of Image with ImageIO on the same pixels: the image is written as a
+ * binary PPM, and as a PNG and a BMP for ImageIO, and its gray levels as a binary PGM, a raw gray
+ * buffer and a gray PNG. For every file it prints the best of several timings of the decode
+ * alone and of the decode followed by a brightness pass, and whether the decoded pixels equal
+ * the ones ImageIO decodes from the PNG of the same pixels.
+ */
+public class DecoderBenchmark {
+    // timed runs per file, the fastest one is reported
+    private static final int RUNS = 5;
+    // resolution of the brightness pass timed after the decode
+    private static final int RESOLUTION = 128;
+
+    /**
+     * A decode of one of the written files.
+     */
+    private interface Decode {
+        BufferedImage run() throws IOException;
+    }
+
+    private DecoderBenchmark() {
+    }
+
+    /**
+     * Runs the comparison.
+     *
+     * @param args The path of an image ImageIO can read.
+     * @throws IOException If an error occurs while reading the image or writing the files.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: DecoderBenchmark <image>");
+            return;
+        }
+        BufferedImage source = ImageIO.read(new File(args[0]));
+        if (source == null) {
+            System.err.println("Unsupported image format: " + args[0]);
+            return;
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] rgb = new Image(source).getPackedPixels();
+        byte[] gray = new byte[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            // Any gray level will do, as long as every format stores the same one
+            gray[i] = (byte) ((rgb[i] >> 8) & 0xFF);
+        }
+        Path directory = Files.createTempDirectory("decoder-benchmark");
+        try {
+            String ppm = writeNetpbm(directory.resolve("image.ppm"), "P6", width, height, toRgbBytes(rgb));
+            String pgm = writeNetpbm(directory.resolve("gray.pgm"), "P5", width, height, gray);
+            Path rawPath = directory.resolve("gray.raw");
+            Files.write(rawPath, gray);
+            String raw = rawPath.toString();
+            BufferedImage rgbImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            rgbImage.setRGB(0, 0, width, height, rgb, 0, width);
+            String png = write(rgbImage, "png", directory.resolve("image.png"));
+            String bmp = write(rgbImage, "bmp", directory.resolve("image.bmp"));
+            BufferedImage grayImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            for (int i = 0; i < gray.length; i++) {
+                int level = gray[i] & 0xFF;
+                grayImage.setRGB(i % width, i / width, level << 16 | level << 8 | level);
+            }
+            String grayPng = write(grayImage, "png", directory.resolve("gray.png"));
+
+            Image reference = new Image(ImageIO.read(new File(png)));
+            Image grayReference = new Image(ImageIO.read(new File(grayPng)));
+            System.out.printf("%s %dx%d, brightness pass at resolution %d%n", args[0], width, height, RESOLUTION);
+            System.out.println("input           decoder   decode ms  with brightness ms  same pixels");
+            compare("PPM", "Netpbm", () -> Image.readImage(ppm), reference);
+            compare("PNG", "ImageIO", () -> ImageIO.read(new File(png)), reference);
+            compare("BMP", "ImageIO", () -> ImageIO.read(new File(bmp)), reference);
+            compare("gray PGM", "Netpbm", () -> Image.readImage(pgm), grayReference);
+            compare("gray raw", "Netpbm", () -> Image.readRawGray(raw, width), grayReference);
+            compare("gray PNG", "ImageIO", () -> ImageIO.read(new File(grayPng)), grayReference);
+        } finally {
+            try (var paths = Files.list(directory)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Times a decode alone and followed by a brightness pass, and checks its pixels.
+     */
+    private static void compare(String input, String decoder, Decode decode, Image reference)
+            throws IOException {
+        FusedBrightnessCalc fusedBrightnessCalc = new FusedBrightnessCalc();
+        long decodeNanos = Long.MAX_VALUE;
+        long totalNanos = Long.MAX_VALUE;
+        BufferedImage decoded = null;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            decoded = decode.run();
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            fusedBrightnessCalc.getTileBrightnesses(decode.run(), RESOLUTION);
+            totalNanos = Math.min(totalNanos, System.nanoTime() - start);
+        }
+        boolean samePixels = new Image(decoded).equals(reference);
+        System.out.printf("%-14s  %-8s  %9.1f  %18.1f  %s%n", input, decoder, decodeNanos / 1e6,
+                totalNanos / 1e6, samePixels ? "yes" : "no");
+    }
+
+    private static byte[] toRgbBytes(int[] rgb) {
+        byte[] bytes = new byte[rgb.length * 3];
+        for (int i = 0; i < rgb.length; i++) {
+            bytes[3 * i] = (byte) (rgb[i] >> 16);
+            bytes[3 * i + 1] = (byte) (rgb[i] >> 8);
+            bytes[3 * i + 2] = (byte) rgb[i];
+        }
+        return bytes;
+    }
+
+    private static String writeNetpbm(Path path, String magic, int width, int height, byte[] raster)
+            throws IOException {
+        try (OutputStream output = Files.newOutputStream(path)) {
+            output.write((magic + "\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            output.write(raster);
+        }
+        return path.toString();
+    }
+
+    private static String write(BufferedImage image, String format, Path path) throws IOException {
+        ImageIO.write(image, format, path.toFile());
+        return path.toString();
+    }
+}
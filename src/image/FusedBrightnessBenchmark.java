@@ -0,0 +1,93 @@
+package image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the fused brightness pass, which reads the decoded raster once and accounts for the
+ * padding arithmetically, with the copying path it replaced: the decoded image copied into an
+ * Image, padded into a second copy by imageFill, cut into sub-images by getSubImages and only then
+ * measured, over a range of square grid resolutions of one image.
+ * For every resolution it prints the best of several timings of both paths, once from the decoded
+ * image and once with the decode included, and whether both give the same brightness.
+ */
+public class FusedBrightnessBenchmark {
+    // timed runs per resolution and path, the fastest one is reported
+    private static final int RUNS = 5;
+    // resolutions compared when none are given
+    private static final int[] DEFAULT_RESOLUTIONS = {32, 128, 512};
+
+    /**
+     * A brightness calculation of one of the paths.
+     */
+    private interface Pass {
+        double[] run(BufferedImage decoded);
+    }
+
+    private FusedBrightnessBenchmark() {
+    }
+
+    /**
+     * Runs the comparison.
+     *
+     * @param args The image path, then optionally the resolutions to compare.
+     * @throws IOException If an error occurs while reading the image.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: FusedBrightnessBenchmark <image> [resolution...]");
+            return;
+        }
+        String imagePath = args[0];
+        int[] resolutions = DEFAULT_RESOLUTIONS;
+        if (args.length > 1) {
+            resolutions = new int[args.length - 1];
+            for (int i = 0; i < resolutions.length; i++) {
+                resolutions[i] = Integer.parseInt(args[i + 1]);
+            }
+        }
+        BufferedImage decoded = Image.readImage(imagePath);
+        FusedBrightnessCalc fusedBrightnessCalc = new FusedBrightnessCalc();
+        ImageCalc imageCalc = new ImageCalc();
+        System.out.printf("%s %dx%d%n", imagePath, decoded.getWidth(), decoded.getHeight());
+        System.out.println("resolution  copying ms  fused ms  speedup  with decode: copying ms  fused ms"
+                + "  same brightness");
+        for (int resolution : resolutions) {
+            Pass copying = im -> {
+                List<Image> subImages = imageCalc.getSubImages(imageCalc.imageFill(new Image(im)), resolution);
+                double[] brightnesses = new double[subImages.size()];
+                for (int i = 0; i < brightnesses.length; i++) {
+                    brightnesses[i] = imageCalc.getImageBrightness(subImages.get(i));
+                }
+                return brightnesses;
+            };
+            Pass fused = im -> fusedBrightnessCalc.getTileBrightnesses(im, resolution);
+            long copyingNanos = time(copying, decoded, null);
+            long fusedNanos = time(fused, decoded, null);
+            long copyingDecodeNanos = time(copying, null, imagePath);
+            long fusedDecodeNanos = time(fused, null, imagePath);
+            boolean same = Arrays.equals(copying.run(decoded), fused.run(decoded));
+            System.out.printf("%10d  %10.1f  %8.1f  %6.1fx  %23.1f  %8.1f  %s%n", resolution, copyingNanos / 1e6,
+                    fusedNanos / 1e6, (double) copyingNanos / fusedNanos, copyingDecodeNanos / 1e6,
+                    fusedDecodeNanos / 1e6, same ? "yes" : "no");
+        }
+    }
+
+    /**
+     * Times a pass over the decoded image, or over the image decoded from its file in every run.
+     */
+    private static long time(Pass pass, BufferedImage decoded, String imagePath) throws IOException {
+        long best = Long.MAX_VALUE;
+        // An untimed run first, so the first timings are not of interpreted code
+        for (int run = -1; run < RUNS; run++) {
+            long start = System.nanoTime();
+            pass.run(decoded != null ? decoded : Image.readImage(imagePath));
+            if (run >= 0) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return best;
+    }
+}
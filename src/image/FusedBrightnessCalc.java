@@ -0,0 +1,998 @@
+package image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Calculates the brightness of every tile of an image in a single sequential pass over its
+ * rows, without copying the pixels anywhere.
+ * Rows are read in memory order and added to one band of per-tile accumulators at a time, so
+ * every pixel is touched once and the access pattern stays linear.
+ * For a square grid, the tiles and their values are the same as padding the image with
+ * imageFill, dividing it with getSubImages and calculating getImageBrightness of each
+ * sub-image: the white padding is accounted for arithmetically instead of being stored.
+ * For an aspect grid, pixels cut by a tile edge count towards each tile by the area they cover.
+ * When the grid divides its tiles into cells, the brightness of every cell is returned instead,
+ * grouped tile by tile.
+ * The average colour of every tile can be gathered in the same pass, from the same rows.
+ */
+public class FusedBrightnessCalc {
+    private static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+    // red, green and blue sums are interleaved per tile or per pixel
+    private static final int CHANNELS = 3;
+    // value of every channel of the white padding
+    private static final int WHITE_CHANNEL = 255;
+
+    /**
+     * Reads the luminance of one image row at a time.
+     */
+    private interface RowReader {
+        /**
+         * Adds the luminance of a row of the image to the sums of the tiles it crosses.
+         *
+         * @param row       The row of the image.
+         * @param colStarts The first image column of each tile, inclusive.
+         * @param colEnds   The last image column of each tile, exclusive.
+         * @param tileSums  The luminance sums of the tiles, added to.
+         * @param tileFingerprints The running fingerprints of the tiles, updated with the row's
+         *                         pixels, or null if no fingerprints are needed.
+         */
+        void addTileSums(int row, int[] colStarts, int[] colEnds, long[] tileSums, long[] tileFingerprints);
+
+        /**
+         * Writes the running luminance sums of a row of the image.
+         *
+         * @param row    The row of the image.
+         * @param prefix Receives the sum of the first k pixels of the row at index k.
+         */
+        void prefixLuminance(int row, long[] prefix);
+
+        /**
+         * Adds the red, green and blue values of a row of the image to the sums of the tiles it
+         * crosses.
+         *
+         * @param row       The row of the image.
+         * @param colStarts The first image column of each tile, inclusive.
+         * @param colEnds   The last image column of each tile, exclusive.
+         * @param colorSums The red, green and blue sums of every tile one after another, added to.
+         */
+        void addColorSums(int row, int[] colStarts, int[] colEnds, long[] colorSums);
+
+        /**
+         * Writes the running red, green and blue sums of a row of the image.
+         *
+         * @param row         The row of the image.
+         * @param colorPrefix Receives the red, green and blue sums of the first k pixels of the
+         *                    row at indices 3k, 3k + 1 and 3k + 2.
+         */
+        void prefixColors(int row, long[] colorPrefix);
+    }
+
+    /**
+     * Reads rows of packed RGB pixels, such as the pixels of an Image or an integer raster.
+     */
+    private static class PackedRowReader implements RowReader {
+        private final int[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int width;
+
+        PackedRowReader(int[] data, int offset, int scanlineStride, int width) {
+            this.data = data;
+            this.offset = offset;
+            this.scanlineStride = scanlineStride;
+            this.width = width;
+        }
+
+        @Override
+        public void addTileSums(int row, int[] colStarts, int[] colEnds, long[] tileSums,
+                                long[] tileFingerprints) {
+            int rowOffset = offset + row * scanlineStride;
+            for (int j = 0; j < tileSums.length; j++) {
+                tileSums[j] += LuminanceKernel.luminanceSum(data, rowOffset + colStarts[j],
+                        rowOffset + colEnds[j]);
+            }
+            if (tileFingerprints != null) {
+                for (int j = 0; j < tileFingerprints.length; j++) {
+                    long fingerprint = tileFingerprints[j];
+                    // FNV-1a over the packed RGB values
+                    for (int k = rowOffset + colStarts[j]; k < rowOffset + colEnds[j]; k++) {
+                        fingerprint = (fingerprint ^ data[k]) * FINGERPRINT_PRIME;
+                    }
+                    tileFingerprints[j] = fingerprint;
+                }
+            }
+        }
+
+        @Override
+        public void prefixLuminance(int row, long[] prefix) {
+            LuminanceKernel.prefixLuminance(data, offset + row * scanlineStride, width, prefix);
+        }
+
+        @Override
+        public void addColorSums(int row, int[] colStarts, int[] colEnds, long[] colorSums) {
+            int rowOffset = offset + row * scanlineStride;
+            for (int j = 0; j < colStarts.length; j++) {
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                // a tile row is far below the 2^23 pixels that could overflow an int sum
+                for (int k = rowOffset + colStarts[j]; k < rowOffset + colEnds[j]; k++) {
+                    int pixel = data[k];
+                    red += (pixel >> 16) & 0xFF;
+                    green += (pixel >> 8) & 0xFF;
+                    blue += pixel & 0xFF;
+                }
+                colorSums[CHANNELS * j] += red;
+                colorSums[CHANNELS * j + 1] += green;
+                colorSums[CHANNELS * j + 2] += blue;
+            }
+        }
+
+        @Override
+        public void prefixColors(int row, long[] colorPrefix) {
+            int rowOffset = offset + row * scanlineStride;
+            for (int k = 0; k < width; k++) {
+                int pixel = data[rowOffset + k];
+                colorPrefix[CHANNELS * (k + 1)] = colorPrefix[CHANNELS * k] + ((pixel >> 16) & 0xFF);
+                colorPrefix[CHANNELS * (k + 1) + 1] = colorPrefix[CHANNELS * k + 1] + ((pixel >> 8) & 0xFF);
+                colorPrefix[CHANNELS * (k + 1) + 2] = colorPrefix[CHANNELS * k + 2] + (pixel & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Reads rows of interleaved blue, green and red bytes, ignoring fingerprints.
+     */
+    private static class BgrRowReader implements RowReader {
+        private final byte[] data;
+        private final int blueOffset;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int width;
+
+        BgrRowReader(byte[] data, int blueOffset, int scanlineStride, int pixelStride, int width) {
+            this.data = data;
+            this.blueOffset = blueOffset;
+            this.scanlineStride = scanlineStride;
+            this.pixelStride = pixelStride;
+            this.width = width;
+        }
+
+        @Override
+        public void addTileSums(int row, int[] colStarts, int[] colEnds, long[] tileSums,
+                                long[] tileFingerprints) {
+            int rowOffset = blueOffset + row * scanlineStride;
+            for (int j = 0; j < tileSums.length; j++) {
+                tileSums[j] += LuminanceKernel.bgrLuminanceSum(data, rowOffset + colStarts[j] * pixelStride,
+                        colEnds[j] - colStarts[j], pixelStride);
+            }
+        }
+
+        @Override
+        public void prefixLuminance(int row, long[] prefix) {
+            LuminanceKernel.bgrPrefixLuminance(data, blueOffset + row * scanlineStride, width,
+                    pixelStride, prefix);
+        }
+
+        @Override
+        public void addColorSums(int row, int[] colStarts, int[] colEnds, long[] colorSums) {
+            int rowOffset = blueOffset + row * scanlineStride;
+            for (int j = 0; j < colStarts.length; j++) {
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                for (int k = rowOffset + colStarts[j] * pixelStride; k < rowOffset + colEnds[j] * pixelStride;
+                     k += pixelStride) {
+                    red += data[k + 2] & 0xFF;
+                    green += data[k + 1] & 0xFF;
+                    blue += data[k] & 0xFF;
+                }
+                colorSums[CHANNELS * j] += red;
+                colorSums[CHANNELS * j + 1] += green;
+                colorSums[CHANNELS * j + 2] += blue;
+            }
+        }
+
+        @Override
+        public void prefixColors(int row, long[] colorPrefix) {
+            int rowOffset = blueOffset + row * scanlineStride;
+            for (int k = 0; k < width; k++) {
+                int index = rowOffset + k * pixelStride;
+                colorPrefix[CHANNELS * (k + 1)] = colorPrefix[CHANNELS * k] + (data[index + 2] & 0xFF);
+                colorPrefix[CHANNELS * (k + 1) + 1] = colorPrefix[CHANNELS * k + 1] + (data[index + 1] & 0xFF);
+                colorPrefix[CHANNELS * (k + 1) + 2] = colorPrefix[CHANNELS * k + 2] + (data[index] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Reads rows of any image through its colour model, one reused row of packed pixels at a time.
+     */
+    private static class ConvertingRowReader extends PackedRowReader {
+        private final BufferedImage decoded;
+        private final int[] rowPixels;
+        // the row currently converted into rowPixels, read once for luminance and colours
+        private int convertedRow = -1;
+
+        ConvertingRowReader(BufferedImage decoded, int[] rowPixels) {
+            super(rowPixels, 0, 0, rowPixels.length);
+            this.decoded = decoded;
+            this.rowPixels = rowPixels;
+        }
+
+        @Override
+        public void addTileSums(int row, int[] colStarts, int[] colEnds, long[] tileSums,
+                                long[] tileFingerprints) {
+            convert(row);
+            super.addTileSums(0, colStarts, colEnds, tileSums, tileFingerprints);
+        }
+
+        @Override
+        public void prefixLuminance(int row, long[] prefix) {
+            convert(row);
+            super.prefixLuminance(0, prefix);
+        }
+
+        @Override
+        public void addColorSums(int row, int[] colStarts, int[] colEnds, long[] colorSums) {
+            convert(row);
+            super.addColorSums(0, colStarts, colEnds, colorSums);
+        }
+
+        @Override
+        public void prefixColors(int row, long[] colorPrefix) {
+            convert(row);
+            super.prefixColors(0, colorPrefix);
+        }
+
+        private void convert(int row) {
+            if (row != convertedRow) {
+                decoded.getRGB(0, row, rowPixels.length, 1, rowPixels, 0, rowPixels.length);
+                convertedRow = row;
+            }
+        }
+    }
+
+    /**
+     * Calculates the brightness of every tile of the image at the given resolution.
+     *
+     * @param decoded    The decoded image.
+     * @param resolution The number of tiles per dimension.
+     * @return The brightness of the tiles, normalized between 0 and 1, row by row.
+     */
+    public double[] getTileBrightnesses(BufferedImage decoded, int resolution) {
+        return getTileBrightnesses(decoded, TileGrid.square(resolution));
+    }
+
+    /**
+     * Calculates the brightness of every tile of the image for the given grid.
+     *
+     * @param decoded  The decoded image.
+     * @param tileGrid The division of the image into tiles.
+     * @return The brightness of the tiles, normalized between 0 and 1, row by row. For tiles
+     * divided into cells, the brightness of each tile's cells row by row, one tile after another.
+     */
+    public double[] getTileBrightnesses(BufferedImage decoded, TileGrid tileGrid) {
+        return getTileBrightnesses(decoded, tileGrid, null);
+    }
+
+    /**
+     * Calculates the brightness of every tile of the image for the given grid, and optionally
+     * the average colour of every tile, in the same pass.
+     *
+     * @param decoded    The decoded image.
+     * @param tileGrid   The division of the image into tiles.
+     * @param tileColors An array with an entry per tile receiving the average RGB colour of the
+     *                   tiles row by row, padding included, or null if they are not needed.
+     * @return The brightness of the tiles, normalized between 0 and 1, row by row. For tiles
+     * divided into cells, the brightness of each tile's cells row by row, one tile after another.
+     */
+    public double[] getTileBrightnesses(BufferedImage decoded, TileGrid tileGrid, int[] tileColors) {
+        return accumulate(createRowReader(decoded), decoded.getWidth(), decoded.getHeight(),
+                tileGrid, null, tileColors);
+    }
+
+    /**
+     * Calculates the brightness of every tile of the image at several resolutions of square
+     * grids, in a single pass over the image.
+     * The tiles of the finest resolution are summed over the image once, and the tiles of every
+     * coarser resolution made of whole tiles of the finest one, as powers of 2 are, are added up
+     * from their luminance sums, so the values are the same as calculating every resolution on
+     * its own. A resolution whose tiles do not align with the finest ones takes a pass of its own.
+     *
+     * @param decoded     The decoded image.
+     * @param resolutions The numbers of tiles per dimension.
+     * @return The brightness of the tiles of every resolution, in the order of the resolutions,
+     * normalized between 0 and 1, row by row.
+     */
+    public double[][] getTileBrightnesses(BufferedImage decoded, int[] resolutions) {
+        double[][] brightnesses = new double[resolutions.length][];
+        if (resolutions.length == 0) {
+            return brightnesses;
+        }
+        RowReader rowReader = createRowReader(decoded);
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        int paddedWidth = ImageCalc.paddedSize(width);
+        int paddedHeight = ImageCalc.paddedSize(height);
+        int finest = Arrays.stream(resolutions).max().getAsInt();
+        int finestTileWidth = paddedWidth / finest;
+        int finestTileHeight = paddedHeight / finest;
+        long[] finestSums = paddedTileSums(rowReader, width, height, finest);
+        for (int k = 0; k < resolutions.length; k++) {
+            int resolution = resolutions[k];
+            int subImageWidth = paddedWidth / resolution;
+            int subImageHeight = paddedHeight / resolution;
+            long[] tileSums;
+            if (finestTileWidth > 0 && finestTileHeight > 0
+                    && subImageWidth % finestTileWidth == 0 && subImageHeight % finestTileHeight == 0
+                    && resolution * (subImageWidth / finestTileWidth) <= finest
+                    && resolution * (subImageHeight / finestTileHeight) <= finest) {
+                tileSums = mergeTiles(finestSums, finest, resolution, subImageWidth / finestTileWidth,
+                        subImageHeight / finestTileHeight);
+            } else {
+                tileSums = paddedTileSums(rowReader, width, height, resolution);
+            }
+            long subImagePixels = (long) subImageWidth * subImageHeight;
+            brightnesses[k] = new double[tileSums.length];
+            for (int t = 0; t < tileSums.length; t++) {
+                brightnesses[k][t] = LuminanceKernel.toBrightness(tileSums[t], subImagePixels);
+            }
+        }
+        return brightnesses;
+    }
+
+    /**
+     * Calculates the brightness of the tiles of a band of tile rows of a square grid, the same
+     * values a pass over the whole image gives them, reading only the rows of the band.
+     *
+     * @param decoded    The decoded image.
+     * @param resolution The number of tiles per dimension.
+     * @param firstRow   The first tile row of the band, inclusive.
+     * @param lastRow    The last tile row of the band, exclusive.
+     * @return The brightness of the tiles of the band, normalized between 0 and 1, row by row.
+     */
+    public double[] getTileBrightnesses(BufferedImage decoded, int resolution, int firstRow, int lastRow) {
+        return getTileBrightnesses(decoded, resolution, firstRow, lastRow, 1);
+    }
+
+    /**
+     * Estimates the brightness of every tile of a square grid from evenly spaced image rows, for
+     * a quick preview: the cost of the pass shrinks with the rows skipped, and a tile is off by
+     * as much as its skipped rows differ from its read ones.
+     *
+     * @param decoded     The decoded image.
+     * @param resolution  The number of tiles per dimension.
+     * @param rowsPerTile The number of padded rows of a tile to read, every row if it has fewer.
+     * @return The estimated brightness of the tiles, normalized between 0 and 1, row by row.
+     */
+    public double[] getRowSampledTileBrightnesses(BufferedImage decoded, int resolution, int rowsPerTile) {
+        int rowStep = Math.max(1, ImageCalc.paddedSize(decoded.getHeight()) / resolution / rowsPerTile);
+        return getTileBrightnesses(decoded, resolution, 0, resolution, rowStep);
+    }
+
+    /**
+     * Calculates the brightness of the tiles of a band of tile rows of a square grid from every
+     * given step of image rows.
+     */
+    private static double[] getTileBrightnesses(BufferedImage decoded, int resolution, int firstRow,
+                                                int lastRow, int rowStep) {
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        long[] tileSums = paddedTileSums(createRowReader(decoded), width, height, resolution, firstRow,
+                lastRow, rowStep);
+        long subImagePixels = (long) (ImageCalc.paddedSize(width) / resolution)
+                * (ImageCalc.paddedSize(height) / resolution);
+        double[] brightnesses = new double[tileSums.length];
+        for (int t = 0; t < tileSums.length; t++) {
+            brightnesses[t] = LuminanceKernel.toBrightness(tileSums[t], subImagePixels);
+        }
+        return brightnesses;
+    }
+
+    /**
+     * Calculates the brightness of every tile of the image at the given resolution, and
+     * optionally a fingerprint of the image pixels of every tile, in the same pass.
+     * A tile fingerprint only covers the tile's image pixels, so it stays comparable between
+     * images of equal dimensions.
+     *
+     * @param image            The image.
+     * @param resolution       The number of tiles per dimension.
+     * @param tileFingerprints An array of resolution * resolution entries receiving the tile
+     *                         fingerprints row by row, or null if they are not needed.
+     * @return The brightness of the tiles, normalized between 0 and 1, row by row.
+     */
+    public double[] getTileBrightnesses(Image image, int resolution, long[] tileFingerprints) {
+        return getTileBrightnesses(image, TileGrid.square(resolution), tileFingerprints);
+    }
+
+    /**
+     * Calculates the brightness of every tile of the image for the given grid, and optionally a
+     * fingerprint of the image pixels of every tile, in the same pass.
+     *
+     * @param image            The image.
+     * @param tileGrid         The division of the image into tiles.
+     * @param tileFingerprints An array with an entry per tile receiving the tile fingerprints
+     *                         row by row, or null if they are not needed. Only square grids
+     *                         of undivided tiles, which do not share pixels, support fingerprints.
+     * @return The brightness of the tiles, normalized between 0 and 1, row by row. For tiles
+     * divided into cells, the brightness of each tile's cells row by row, one tile after another.
+     */
+    public double[] getTileBrightnesses(Image image, TileGrid tileGrid, long[] tileFingerprints) {
+        RowReader rowReader = new PackedRowReader(image.getPackedPixels(), 0, image.getWidth(),
+                image.getWidth());
+        return accumulate(rowReader, image.getWidth(), image.getHeight(), tileGrid, tileFingerprints, null);
+    }
+
+    /**
+     * Streams the rows of an image through the row reader according to the grid.
+     */
+    private static double[] accumulate(RowReader rowReader, int width, int height, TileGrid tileGrid,
+                                       long[] tileFingerprints, int[] tileColors) {
+        int cellsPerSide = tileGrid.getCellsPerSide();
+        if (tileFingerprints != null && (!tileGrid.isPadded() || cellsPerSide != 1)) {
+            throw new IllegalArgumentException("Tile fingerprints need a square grid of undivided tiles");
+        }
+        if (tileGrid.isPadded()) {
+            return accumulatePadded(rowReader, width, height, tileGrid.getCols(), cellsPerSide,
+                    tileFingerprints, tileColors);
+        }
+        int cols = tileGrid.getCols();
+        int rows = tileGrid.getRows(width, height);
+        // Cells of an aspect grid are simply the tiles of a finer aspect grid
+        double[] cellColors = tileColors == null ? null : new double[CHANNELS * rows * cols * cellsPerSide * cellsPerSide];
+        double[] cells = accumulateAspect(rowReader, width, height, cols * cellsPerSide, rows * cellsPerSide,
+                cellColors);
+        if (cellColors != null) {
+            // Cells of an aspect grid have equal areas, so a tile's colour is the mean of its cells'
+            int cellsPerRow = cols * cellsPerSide;
+            int cellsPerTile = cellsPerSide * cellsPerSide;
+            double[] sums = new double[CHANNELS];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++) {
+                    Arrays.fill(sums, 0);
+                    for (int r = 0; r < cellsPerSide; r++) {
+                        int cellRowOffset = (i * cellsPerSide + r) * cellsPerRow + j * cellsPerSide;
+                        for (int cell = cellRowOffset; cell < cellRowOffset + cellsPerSide; cell++) {
+                            for (int c = 0; c < CHANNELS; c++) {
+                                sums[c] += cellColors[CHANNELS * cell + c];
+                            }
+                        }
+                    }
+                    tileColors[i * cols + j] = packColor(sums[0] / cellsPerTile, sums[1] / cellsPerTile,
+                            sums[2] / cellsPerTile);
+                }
+            }
+        }
+        return groupByTile(cells, rows, cols, cellsPerSide);
+    }
+
+    /**
+     * Streams the rows of an image through the row reader, one band of square grid tiles at a time.
+     * Cells split a tile on whole pixels, the last cell of a tile taking the remainder; a cell of
+     * no pixels at all takes the brightness of its whole tile.
+     *
+     * @param rowReader        The reader of the image rows.
+     * @param width            The width of the image.
+     * @param height           The height of the image.
+     * @param resolution       The number of tiles per dimension.
+     * @param cellsPerSide     The number of cells per tile side.
+     * @param tileFingerprints The array receiving the tile fingerprints, or null.
+     * @param tileColors       The array receiving the average tile colours, or null.
+     * @return The brightness of the tiles, or of their cells, normalized between 0 and 1.
+     */
+    private static double[] accumulatePadded(RowReader rowReader, int width, int height, int resolution,
+                                             int cellsPerSide, long[] tileFingerprints, int[] tileColors) {
+        // The geometry of the padded image, which is never built
+        int paddedWidth = ImageCalc.paddedSize(width);
+        int paddedHeight = ImageCalc.paddedSize(height);
+        int widthHalf = (paddedWidth - width) / 2;
+        int heightHalf = (paddedHeight - height) / 2;
+        int subImageWidth = paddedWidth / resolution;
+        int subImageHeight = paddedHeight / resolution;
+        long subImagePixels = (long) subImageWidth * subImageHeight;
+
+        // The padded and image columns each cell column covers, the latter empty for cells made
+        // of padding only
+        int cellsPerRow = resolution * cellsPerSide;
+        int[] cellWidths = new int[cellsPerRow];
+        int[] colStarts = new int[cellsPerRow];
+        int[] colEnds = new int[cellsPerRow];
+        for (int j = 0; j < cellsPerRow; j++) {
+            int paddedStart = cellStart(j, subImageWidth, cellsPerSide);
+            int paddedEnd = cellStart(j + 1, subImageWidth, cellsPerSide);
+            cellWidths[j] = paddedEnd - paddedStart;
+            colStarts[j] = clamp(paddedStart - widthHalf, width);
+            colEnds[j] = clamp(paddedEnd - widthHalf, width);
+        }
+
+        long[] cellSums = new long[cellsPerRow];
+        long[] bandFingerprints = tileFingerprints == null ? null : new long[resolution];
+        double[] brightnesses = new double[cellsPerRow * cellsPerRow];
+        long[] cellColorSums = tileColors == null ? null : new long[CHANNELS * cellsPerRow];
+        long[] tileColorSums = tileColors == null ? null : new long[CHANNELS * resolution * resolution];
+        for (int i = 0; i < cellsPerRow; i++) {
+            int paddedStart = cellStart(i, subImageHeight, cellsPerSide);
+            int paddedEnd = cellStart(i + 1, subImageHeight, cellsPerSide);
+            int rowStart = clamp(paddedStart - heightHalf, height);
+            int rowEnd = clamp(paddedEnd - heightHalf, height);
+            Arrays.fill(cellSums, 0);
+            if (bandFingerprints != null) {
+                Arrays.fill(bandFingerprints, FINGERPRINT_SEED);
+            }
+            if (cellColorSums != null) {
+                Arrays.fill(cellColorSums, 0);
+            }
+            for (int row = rowStart; row < rowEnd; row++) {
+                rowReader.addTileSums(row, colStarts, colEnds, cellSums, bandFingerprints);
+                if (cellColorSums != null) {
+                    rowReader.addColorSums(row, colStarts, colEnds, cellColorSums);
+                }
+            }
+            if (bandFingerprints != null) {
+                System.arraycopy(bandFingerprints, 0, tileFingerprints, i * resolution, resolution);
+            }
+            for (int j = 0; j < cellsPerRow; j++) {
+                long cellPixels = (long) (paddedEnd - paddedStart) * cellWidths[j];
+                long imagePixels = (long) (rowEnd - rowStart) * (colEnds[j] - colStarts[j]);
+                long sum = cellSums[j] + (cellPixels - imagePixels) * LuminanceKernel.WHITE_LUMINANCE;
+                brightnesses[i * cellsPerRow + j] = LuminanceKernel.toBrightness(sum, cellPixels);
+                if (tileColorSums != null) {
+                    int tile = (i / cellsPerSide) * resolution + j / cellsPerSide;
+                    for (int c = 0; c < CHANNELS; c++) {
+                        tileColorSums[CHANNELS * tile + c] += cellColorSums[CHANNELS * j + c]
+                                + (cellPixels - imagePixels) * WHITE_CHANNEL;
+                    }
+                }
+            }
+        }
+        if (tileColors != null) {
+            for (int t = 0; t < tileColors.length; t++) {
+                tileColors[t] = packColor((double) tileColorSums[CHANNELS * t] / subImagePixels,
+                        (double) tileColorSums[CHANNELS * t + 1] / subImagePixels,
+                        (double) tileColorSums[CHANNELS * t + 2] / subImagePixels);
+            }
+        }
+        if (cellsPerSide == 1) {
+            return brightnesses;
+        }
+        double[] cells = groupByTile(brightnesses, resolution, resolution, cellsPerSide);
+        fillEmptyCells(cells, cellsPerSide * cellsPerSide);
+        return cells;
+    }
+
+    /**
+     * Chooses the subsampling step of an approximate square grid brightness calculation: the
+     * largest step for which a sample stands for at most the given share of its tile.
+     * The share is no bound on the brightness error of a tile, which depends on how much the
+     * pixels a sample stands for differ from it; ApproximationBenchmark measures the error.
+     *
+     * @param width       The width of the image.
+     * @param height      The height of the image.
+     * @param resolution  The number of tiles per dimension.
+     * @param sampleShare The share of a tile a sample may stand for, between 0 and 1.
+     * @return The step, 1 if every pixel is needed.
+     */
+    public static int sampleStep(int width, int height, int resolution, double sampleShare) {
+        int subImageWidth = ImageCalc.paddedSize(width) / resolution;
+        int subImageHeight = ImageCalc.paddedSize(height) / resolution;
+        int step = (int) Math.sqrt(sampleShare * subImageWidth * subImageHeight);
+        return Math.max(1, Math.min(step, Math.min(subImageWidth, subImageHeight)));
+    }
+
+    /**
+     * Approximates the brightness of every tile of a square grid from a subsampled image, as
+     * decoded by Image.readImage with the step given by sampleStep.
+     * Every sample stands for the step x step block of pixels it starts, the tiles keep the
+     * geometry of the full image, and the white padding is accounted for exactly.
+     *
+     * @param sampled    The subsampled image.
+     * @param width      The width of the full image.
+     * @param height     The height of the full image.
+     * @param step       The subsampling step.
+     * @param resolution The number of tiles per dimension.
+     * @return The approximate brightness of the tiles, normalized between 0 and 1, row by row.
+     */
+    public double[] getSampledTileBrightnesses(BufferedImage sampled, int width, int height, int step,
+                                               int resolution) {
+        RowReader rowReader = createRowReader(sampled);
+        int paddedWidth = ImageCalc.paddedSize(width);
+        int paddedHeight = ImageCalc.paddedSize(height);
+        int widthHalf = (paddedWidth - width) / 2;
+        int heightHalf = (paddedHeight - height) / 2;
+        int subImageWidth = paddedWidth / resolution;
+        int subImageHeight = paddedHeight / resolution;
+        long subImagePixels = (long) subImageWidth * subImageHeight;
+        // The image columns of every tile, and the sample columns standing for them
+        int[] imageCols = new int[resolution];
+        int[] colStarts = new int[resolution];
+        int[] colEnds = new int[resolution];
+        for (int j = 0; j < resolution; j++) {
+            int start = clamp(j * subImageWidth - widthHalf, width);
+            int end = clamp((j + 1) * subImageWidth - widthHalf, width);
+            imageCols[j] = end - start;
+            colStarts[j] = sampleStart(start, end, step, sampled.getWidth());
+            colEnds[j] = sampleEnd(start, end, step, sampled.getWidth());
+        }
+        long[] bandSums = new long[resolution];
+        double[] brightnesses = new double[resolution * resolution];
+        for (int i = 0; i < resolution; i++) {
+            int start = clamp(i * subImageHeight - heightHalf, height);
+            int end = clamp((i + 1) * subImageHeight - heightHalf, height);
+            int rowStart = sampleStart(start, end, step, sampled.getHeight());
+            int rowEnd = sampleEnd(start, end, step, sampled.getHeight());
+            Arrays.fill(bandSums, 0);
+            for (int row = rowStart; row < rowEnd; row++) {
+                rowReader.addTileSums(row, colStarts, colEnds, bandSums, null);
+            }
+            for (int j = 0; j < resolution; j++) {
+                long imagePixels = (long) (end - start) * imageCols[j];
+                long samples = (long) (rowEnd - rowStart) * (colEnds[j] - colStarts[j]);
+                // White padding has a brightness of 1
+                double imageBrightness = imagePixels == 0 ? 0 : LuminanceKernel.toBrightness(bandSums[j], samples);
+                brightnesses[i * resolution + j] =
+                        (imagePixels * imageBrightness + (subImagePixels - imagePixels)) / subImagePixels;
+            }
+        }
+        return brightnesses;
+    }
+
+    /**
+     * Gets the first sample standing for a range of image pixels along a dimension.
+     *
+     * @param start   The first pixel of the range.
+     * @param end     The pixel after the range.
+     * @param step    The subsampling step.
+     * @param samples The number of samples along the dimension.
+     * @return The first sample, at or after start, or the one before a range holding none.
+     */
+    private static int sampleStart(int start, int end, int step, int samples) {
+        int first = (start + step - 1) / step;
+        if (end > start && first * step >= end) {
+            // A range narrower than the step may hold no sample, take the one before it
+            return Math.min(start / step, samples - 1);
+        }
+        return Math.min(first, samples);
+    }
+
+    /**
+     * Gets the sample after the last one standing for a range of image pixels along a dimension.
+     *
+     * @param start   The first pixel of the range.
+     * @param end     The pixel after the range.
+     * @param step    The subsampling step.
+     * @param samples The number of samples along the dimension.
+     * @return The sample after the last one, empty only for an empty range.
+     */
+    private static int sampleEnd(int start, int end, int step, int samples) {
+        if (end <= start) {
+            return sampleStart(start, end, step, samples);
+        }
+        return Math.max(sampleStart(start, end, step, samples) + 1, Math.min((end + step - 1) / step, samples));
+    }
+
+    /**
+     * Sums the luminance of every tile of a square grid, white padding included, one band of
+     * tiles at a time.
+     *
+     * @param rowReader  The reader of the image rows.
+     * @param width      The width of the image.
+     * @param height     The height of the image.
+     * @param resolution The number of tiles per dimension.
+     * @return The luminance sums of the tiles, row by row.
+     */
+    private static long[] paddedTileSums(RowReader rowReader, int width, int height, int resolution) {
+        return paddedTileSums(rowReader, width, height, resolution, 0, resolution, 1);
+    }
+
+    /**
+     * Sums the luminance of the tiles of a band of tile rows of a square grid, padding included,
+     * reading every given step of image rows. A sampled tile stands for its skipped rows by the
+     * average of its sampled rows.
+     *
+     * @param rowReader  The reader of the image rows.
+     * @param width      The width of the image.
+     * @param height     The height of the image.
+     * @param resolution The number of tiles per dimension.
+     * @param firstRow   The first tile row of the band, inclusive.
+     * @param lastRow    The last tile row of the band, exclusive.
+     * @param rowStep    The number of image rows between two rows read, 1 to read every row.
+     * @return The luminance sums of the tiles of the band, row by row.
+     */
+    private static long[] paddedTileSums(RowReader rowReader, int width, int height, int resolution,
+                                         int firstRow, int lastRow, int rowStep) {
+        int paddedWidth = ImageCalc.paddedSize(width);
+        int paddedHeight = ImageCalc.paddedSize(height);
+        int widthHalf = (paddedWidth - width) / 2;
+        int heightHalf = (paddedHeight - height) / 2;
+        int subImageWidth = paddedWidth / resolution;
+        int subImageHeight = paddedHeight / resolution;
+        long subImagePixels = (long) subImageWidth * subImageHeight;
+        int[] colStarts = new int[resolution];
+        int[] colEnds = new int[resolution];
+        for (int j = 0; j < resolution; j++) {
+            colStarts[j] = clamp(j * subImageWidth - widthHalf, width);
+            colEnds[j] = clamp((j + 1) * subImageWidth - widthHalf, width);
+        }
+        long[] bandSums = new long[resolution];
+        long[] tileSums = new long[(lastRow - firstRow) * resolution];
+        for (int i = firstRow; i < lastRow; i++) {
+            int rowStart = clamp(i * subImageHeight - heightHalf, height);
+            int rowEnd = clamp((i + 1) * subImageHeight - heightHalf, height);
+            Arrays.fill(bandSums, 0);
+            int rowsRead = 0;
+            for (int row = rowStart; row < rowEnd; row += rowStep) {
+                rowReader.addTileSums(row, colStarts, colEnds, bandSums, null);
+                rowsRead++;
+            }
+            for (int j = 0; j < resolution; j++) {
+                long imagePixels = (long) (rowEnd - rowStart) * (colEnds[j] - colStarts[j]);
+                long imageSum = rowsRead == (rowEnd - rowStart) ? bandSums[j]
+                        : Math.round((double) bandSums[j] * (rowEnd - rowStart) / rowsRead);
+                tileSums[(i - firstRow) * resolution + j] = imageSum
+                        + (subImagePixels - imagePixels) * LuminanceKernel.WHITE_LUMINANCE;
+            }
+        }
+        return tileSums;
+    }
+
+    /**
+     * Adds up the luminance sums of blocks of tiles into the sums of the tiles of a coarser grid.
+     *
+     * @param fineSums      The luminance sums of the fine tiles, row by row.
+     * @param fineCols      The number of fine tiles per row.
+     * @param resolution    The number of coarse tiles per dimension.
+     * @param colsPerTile   The number of fine tile columns of a coarse tile.
+     * @param rowsPerTile   The number of fine tile rows of a coarse tile.
+     * @return The luminance sums of the coarse tiles, row by row.
+     */
+    private static long[] mergeTiles(long[] fineSums, int fineCols, int resolution, int colsPerTile,
+                                     int rowsPerTile) {
+        long[] tileSums = new long[resolution * resolution];
+        for (int i = 0; i < resolution * rowsPerTile; i++) {
+            int rowOffset = i * fineCols;
+            int tileRowOffset = (i / rowsPerTile) * resolution;
+            for (int j = 0; j < resolution * colsPerTile; j++) {
+                tileSums[tileRowOffset + j / colsPerTile] += fineSums[rowOffset + j];
+            }
+        }
+        return tileSums;
+    }
+
+    /**
+     * Gets the padded coordinate a cell starts at, splitting every tile on whole pixels.
+     *
+     * @param cell         The index of the cell along the dimension.
+     * @param tileSize     The size of a tile in pixels.
+     * @param cellsPerSide The number of cells per tile side.
+     * @return The first padded pixel of the cell.
+     */
+    private static int cellStart(int cell, int tileSize, int cellsPerSide) {
+        return (cell / cellsPerSide) * tileSize + (cell % cellsPerSide) * tileSize / cellsPerSide;
+    }
+
+    /**
+     * Reorders cell brightnesses from one row of cells of the whole image after another, to the
+     * cells of one tile after another.
+     *
+     * @param cells        The cell brightnesses, row by row over the whole image.
+     * @param rows         The number of tile rows.
+     * @param cols         The number of tile columns.
+     * @param cellsPerSide The number of cells per tile side.
+     * @return The cell brightnesses, row by row within each tile, tile after tile.
+     */
+    private static double[] groupByTile(double[] cells, int rows, int cols, int cellsPerSide) {
+        if (cellsPerSide == 1) {
+            return cells;
+        }
+        int cellsPerRow = cols * cellsPerSide;
+        double[] grouped = new double[cells.length];
+        int index = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                for (int r = 0; r < cellsPerSide; r++) {
+                    int rowOffset = (i * cellsPerSide + r) * cellsPerRow + j * cellsPerSide;
+                    for (int c = 0; c < cellsPerSide; c++) {
+                        grouped[index++] = cells[rowOffset + c];
+                    }
+                }
+            }
+        }
+        return grouped;
+    }
+
+    /**
+     * Gives the cells of a tile too small to split, which hold no pixels, the mean brightness of
+     * the tile's other cells.
+     *
+     * @param cells        The cell brightnesses, tile after tile.
+     * @param cellsPerTile The number of cells of a tile.
+     */
+    private static void fillEmptyCells(double[] cells, int cellsPerTile) {
+        for (int tile = 0; tile < cells.length; tile += cellsPerTile) {
+            double sum = 0;
+            int count = 0;
+            for (int k = tile; k < tile + cellsPerTile; k++) {
+                if (!Double.isNaN(cells[k])) {
+                    sum += cells[k];
+                    count++;
+                }
+            }
+            for (int k = tile; k < tile + cellsPerTile; k++) {
+                if (Double.isNaN(cells[k])) {
+                    cells[k] = sum / count;
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams the rows of an image through the row reader, weighting every pixel by the area of
+     * it each tile covers. A row adds to the one or two tile rows it overlaps.
+     *
+     * @param rowReader The reader of the image rows.
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param cols      The number of tile columns.
+     * @param rows      The number of tile rows.
+     * @param tileColors The array receiving the average red, green and blue values of the tiles
+     *                   one after another, or null.
+     * @return The brightness of the tiles, normalized between 0 and 1, row by row.
+     */
+    private static double[] accumulateAspect(RowReader rowReader, int width, int height, int cols, int rows,
+                                             double[] tileColors) {
+        // Tile edges in pixel coordinates, the last ones exactly on the image border
+        double[] colEdges = new double[cols + 1];
+        for (int j = 0; j <= cols; j++) {
+            colEdges[j] = (double) j * width / cols;
+        }
+        double[] rowEdges = new double[rows + 1];
+        for (int i = 0; i <= rows; i++) {
+            rowEdges[i] = (double) i * height / rows;
+        }
+
+        long[] prefix = new long[width + 1];
+        double[] rowTileSums = new double[cols];
+        double[] tileSums = new double[rows * cols];
+        long[] colorPrefix = tileColors == null ? null : new long[CHANNELS * (width + 1)];
+        double[] rowTileColorSums = tileColors == null ? null : new double[CHANNELS * cols];
+        for (int row = 0; row < height; row++) {
+            rowReader.prefixLuminance(row, prefix);
+            for (int j = 0; j < cols; j++) {
+                rowTileSums[j] = prefixAt(prefix, colEdges[j + 1], width) - prefixAt(prefix, colEdges[j], width);
+            }
+            if (colorPrefix != null) {
+                rowReader.prefixColors(row, colorPrefix);
+                for (int j = 0; j < cols; j++) {
+                    for (int c = 0; c < CHANNELS; c++) {
+                        rowTileColorSums[CHANNELS * j + c] = prefixAt(colorPrefix, CHANNELS, c, colEdges[j + 1], width)
+                                - prefixAt(colorPrefix, CHANNELS, c, colEdges[j], width);
+                    }
+                }
+            }
+            // Add the row to every tile row it overlaps, by the height of the overlap
+            for (int i = (int) ((long) row * rows / height); i < rows && rowEdges[i] < row + 1; i++) {
+                double weight = Math.min(row + 1, rowEdges[i + 1]) - Math.max(row, rowEdges[i]);
+                if (weight <= 0) {
+                    continue;
+                }
+                for (int j = 0; j < cols; j++) {
+                    tileSums[i * cols + j] += weight * rowTileSums[j];
+                }
+                if (tileColors != null) {
+                    for (int k = 0; k < CHANNELS * cols; k++) {
+                        tileColors[CHANNELS * i * cols + k] += weight * rowTileColorSums[k];
+                    }
+                }
+            }
+        }
+
+        double tileArea = ((double) width / cols) * ((double) height / rows);
+        double[] brightnesses = new double[rows * cols];
+        for (int i = 0; i < brightnesses.length; i++) {
+            brightnesses[i] = LuminanceKernel.toBrightness(tileSums[i], tileArea);
+        }
+        if (tileColors != null) {
+            for (int k = 0; k < tileColors.length; k++) {
+                tileColors[k] /= tileArea;
+            }
+        }
+        return brightnesses;
+    }
+
+    /**
+     * Reads the luminance sum of a row up to a fractional column, interpolating inside the pixel
+     * the column falls in.
+     *
+     * @param prefix The running luminance sums of the row.
+     * @param x      The column, between 0 and width.
+     * @param width  The width of the row.
+     * @return The luminance of the row left of x.
+     */
+    private static double prefixAt(long[] prefix, double x, int width) {
+        return prefixAt(prefix, 1, 0, x, width);
+    }
+
+    /**
+     * Reads one of several interleaved running sums of a row up to a fractional column.
+     *
+     * @param prefix  The interleaved running sums of the row.
+     * @param stride  The number of interleaved sums.
+     * @param channel The index of the sum to read among the interleaved ones.
+     * @param x       The column, between 0 and width.
+     * @param width   The width of the row.
+     * @return The sum of the row left of x.
+     */
+    private static double prefixAt(long[] prefix, int stride, int channel, double x, int width) {
+        int pixel = (int) x;
+        if (pixel >= width) {
+            return prefix[stride * width + channel];
+        }
+        long before = prefix[stride * pixel + channel];
+        return before + (x - pixel) * (prefix[stride * (pixel + 1) + channel] - before);
+    }
+
+    /**
+     * Packs average channel values into an RGB colour.
+     *
+     * @param red   The average red value.
+     * @param green The average green value.
+     * @param blue  The average blue value.
+     * @return The colour as 0xRRGGBB.
+     */
+    private static int packColor(double red, double green, double blue) {
+        return (int) Math.round(red) << 16 | (int) Math.round(green) << 8 | (int) Math.round(blue);
+    }
+
+    /**
+     * Chooses how to read the rows of the image: directly from the raster's data buffer for the
+     * layouts decoders usually produce, and through getRGB into a single reused row otherwise.
+     *
+     * @param decoded The decoded image.
+     * @return The row reader for the image.
+     */
+    private static RowReader createRowReader(BufferedImage decoded) {
+        WritableRaster raster = decoded.getRaster();
+        boolean untranslated = raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0;
+        int type = decoded.getType();
+        if (untranslated && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            int scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            return new PackedRowReader(dataBuffer.getData(), dataBuffer.getOffset(), scanlineStride,
+                    decoded.getWidth());
+        }
+        if (untranslated && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && raster.getSampleModel() instanceof ComponentSampleModel) {
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            int[] bandOffsets = sampleModel.getBandOffsets();
+            // bands are red, green, blue: the kernel expects them in reverse byte order
+            if (bandOffsets[0] == bandOffsets[2] + 2 && bandOffsets[1] == bandOffsets[2] + 1) {
+                DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+                return new BgrRowReader(dataBuffer.getData(), dataBuffer.getOffset() + bandOffsets[2],
+                        sampleModel.getScanlineStride(), sampleModel.getPixelStride(), decoded.getWidth());
+            }
+        }
+        // Any other layout (grey, indexed, premultiplied...) needs the colour model's conversion
+        return new ConvertingRowReader(decoded, new int[decoded.getWidth()]);
+    }
+
+    /**
+     * Clamps a padded image coordinate to the range of the original image.
+     *
+     * @param value The coordinate, shifted by the padding.
+     * @param size  The original dimension.
+     * @return The coordinate between 0 and size.
+     */
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(value, size));
+    }
+}
@@ -1,11 +1,21 @@
 package image;
 
+import metrics.PipelineMetrics;
+import metrics.Stage;
+
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Objects;
 
 /**
@@ -14,9 +24,14 @@ import java.util.Objects;
  */
 public class Image {
 
-    private final Color[][] pixelArray;
+    // alpha bits forced on every pixel, matching java.awt.Color(int rgb)
+    private static final int OPAQUE = 0xFF000000;
+
+    // packed RGB values, row by row
+    private final int[] pixels;
     private final int width;
     private final int height;
+    private int hashCode = 0;
 
     /**
      * Constructs an Image object by reading an image from the specified file.
@@ -25,15 +40,33 @@ public class Image {
      * @throws IOException If an error occurs while reading the image.
      */
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
+        this(readImage(filename));
+    }
+
+    /**
+     * Constructs an Image object from an already decoded image, such as a single frame of an
+     * animation.
+     *
+     * @param im The decoded image.
+     */
+    public Image(BufferedImage im) {
         width = im.getWidth();
         height = im.getHeight();
 
-        pixelArray = new Color[height][width];
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                pixelArray[i][j]=new Color(im.getRGB(j, i));
-            }
+        WritableRaster raster = im.getRaster();
+        int type = im.getType();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == width
+                && ((DataBufferInt) raster.getDataBuffer()).getOffset() == 0) {
+            // The raster already holds packed pixels row by row, as getRGB would return them
+            pixels = Arrays.copyOf(((DataBufferInt) raster.getDataBuffer()).getData(), width * height);
+        } else {
+            pixels = im.getRGB(0, 0, width, height, null, 0, width);
+        }
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] |= OPAQUE;
         }
     }
 
@@ -45,9 +78,137 @@ public class Image {
      * @param height     The height of the image.
      */
     public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
         this.width = width;
         this.height = height;
+        pixels = new int[width * height];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                pixels[i * width + j] = pixelArray[i][j].getRGB();
+            }
+        }
+    }
+
+    /**
+     * Constructs an Image object that takes ownership of the provided packed pixels.
+     *
+     * @param pixels The packed RGB values of the pixels, row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    Image(int[] pixels, int width, int height) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Decodes an image file, failing with an IOException if no registered reader can decode it.
+     * Binary PPM and PGM files, told by their magic number, are decoded without ImageIO.
+     *
+     * @param filename The path to the image file.
+     * @return The decoded image.
+     * @throws IOException If an error occurs while reading the image.
+     */
+    public static BufferedImage readImage(String filename) throws IOException {
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.DECODE);
+        File file = new File(filename);
+        BufferedImage im = NetpbmDecoder.isNetpbm(filename) ? NetpbmDecoder.decode(filename, 1) : ImageIO.read(file);
+        if (im == null) {
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        sample.stop((long) im.getWidth() * im.getHeight(), file.length());
+        return im;
+    }
+
+    /**
+     * Decodes every step-th pixel of every step-th row of an image file, starting with the
+     * first, which lets the decoder skip converting and storing the others.
+     *
+     * @param filename The path to the image file.
+     * @param step     The subsampling step, 1 to decode every pixel.
+     * @return The subsampled image, of ceil(width / step) x ceil(height / step) pixels.
+     * @throws IOException If an error occurs while reading the image.
+     */
+    public static BufferedImage readImage(String filename, int step) throws IOException {
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.DECODE);
+        File file = new File(filename);
+        if (NetpbmDecoder.isNetpbm(filename)) {
+            BufferedImage im = NetpbmDecoder.decode(filename, step);
+            sample.stop((long) im.getWidth() * im.getHeight(), file.length());
+            return im;
+        }
+        BufferedImage im;
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = getReader(input, filename);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                im = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        sample.stop((long) im.getWidth() * im.getHeight(), file.length());
+        return im;
+    }
+
+    /**
+     * Reads the dimensions of an image file from its header, without decoding its pixels.
+     *
+     * @param filename The path to the image file.
+     * @return The width and height of the image.
+     * @throws IOException If an error occurs while reading the header.
+     */
+    public static Dimension readDimensions(String filename) throws IOException {
+        if (NetpbmDecoder.isNetpbm(filename)) {
+            return NetpbmDecoder.readDimensions(filename);
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(filename))) {
+            ImageReader reader = getReader(input, filename);
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes a raw buffer of 8-bit gray samples, row by row with no header, which carries
+     * nothing to tell its format or dimensions by.
+     *
+     * @param filename The path to the buffer file.
+     * @param width    The number of samples of a row.
+     * @return The decoded image, as many rows high as the file holds.
+     * @throws IOException If an error occurs while reading the file, or its size is not a
+     *                     multiple of the width.
+     */
+    public static BufferedImage readRawGray(String filename, int width) throws IOException {
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.DECODE);
+        BufferedImage im = NetpbmDecoder.decodeRawGray(filename, width);
+        sample.stop((long) im.getWidth() * im.getHeight(), new File(filename).length());
+        return im;
+    }
+
+    /**
+     * Gets a reader positioned on the first image of an input.
+     *
+     * @param input    The input, or null if it could not be opened.
+     * @param filename The path to the image file, for error messages.
+     * @return The reader, to be disposed of.
+     * @throws IOException If no registered reader can decode the input.
+     */
+    private static ImageReader getReader(ImageInputStream input, String filename) throws IOException {
+        if (input == null) {
+            throw new IOException("Cannot open " + filename);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input, true, true);
+        return reader;
     }
 
     /**
@@ -76,7 +237,37 @@ public class Image {
      * @return The color of the specified pixel.
      */
     public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+        return new Color(pixels[x * width + y]);
+    }
+
+    /**
+     * Gets the packed RGB values of all pixels, row by row. The array is shared, not copied.
+     *
+     * @return The packed pixels of the image.
+     */
+    int[] getPackedPixels() {
+        return pixels;
+    }
+
+    /**
+     * Copies every step-th pixel of every step-th row, starting with the first, into a decoded
+     * image, the pixels readImage decodes from the file of this image with the same step.
+     *
+     * @param step The subsampling step, 1 to copy every pixel.
+     * @return The image, of ceil(width / step) x ceil(height / step) pixels.
+     */
+    public BufferedImage toBufferedImage(int step) {
+        int outWidth = (width + step - 1) / step;
+        int outHeight = (height + step - 1) / step;
+        BufferedImage im = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) im.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < outHeight; y++) {
+            int rowOffset = y * step * width;
+            for (int x = 0; x < outWidth; x++) {
+                data[y * outWidth + x] = pixels[rowOffset + x * step] & ~OPAQUE;
+            }
+        }
+        return im;
     }
 
     /**
@@ -85,15 +276,9 @@ public class Image {
      * @param fileName The name of the file to save the image.
      */
     public void saveImage(String fileName){
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
-            }
-        }
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        // Set all pixels of the BufferedImage at once from the packed pixels.
+        bufferedImage.setRGB(0, 0, width, height, pixels, 0, width);
         File outputfile = new File(fileName+".jpeg");
         try {
             ImageIO.write(bufferedImage, "jpeg", outputfile);
@@ -129,15 +314,7 @@ public class Image {
         }
 
         // Compare pixel values of the images
-        for (int i = 0; i < this.getHeight(); i++) {
-            for (int j = 0; j < this.getWidth(); j++) {
-                if (this.getPixel(i, j) != image.getPixel(i, j)) {
-                    return false;
-                }
-            }
-        }
-        // If all checks passed, the images are considered equal
-        return true;
+        return Arrays.equals(pixels, image.pixels);
     }
 
     /**
@@ -147,8 +324,12 @@ public class Image {
      */
     @Override
     public int hashCode() {
-        // Combine hash codes of height, width, and pixelArray using Objects.hash
-        return Objects.hash(this.getHeight(), this.getWidth(), Arrays.deepHashCode(pixelArray));
+        // The pixels never change, so the hash is computed once and kept
+        if (hashCode == 0) {
+            // Combine hash codes of height, width, and pixels using Objects.hash
+            hashCode = Objects.hash(this.getHeight(), this.getWidth(), Arrays.hashCode(pixels));
+        }
+        return hashCode;
     }
 
 }
@@ -1,6 +1,14 @@
 package image;
 
-import java.awt.*;
+import metrics.PipelineMetrics;
+import metrics.Stage;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -8,7 +16,9 @@ import java.util.List;
  * A class for performing calculations and transformations on images.
  */
 public class ImageCalc {
-    private final int MAX_RGB = 255;
+    private static final int WHITE_RGB = 0xFFFFFFFF;
+    private static final String FILE_DIGEST_ALGORITHM = "SHA-256";
+    private static final int FILE_BUFFER_SIZE = 1 << 16;
 
     /**
      * Fills the image with white pixels to make its dimensions power of 2.
@@ -18,28 +28,43 @@ public class ImageCalc {
      */
     public Image imageFill(Image image){
         /** filling the image with white pixels, so it becomes power of 2's dimensioned **/
-        // get the closest power of 2 using log
-        int height = (int) (Math.pow(2, Math.ceil(Math.log(image.getHeight()) / Math.log(2))));
-        int width = (int) (Math.pow(2, Math.ceil(Math.log(image.getWidth()) / Math.log(2))));
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.FILL);
+        int height = paddedSize(image.getHeight());
+        int width = paddedSize(image.getWidth());
         // create new array
-        Color[][] newPixelsArr = new Color[height][width];
+        int[] pixels = image.getPackedPixels();
+        int[] newPixelsArr = new int[height * width];
         // get the two halves of height and width
         int heightHalf = (height - image.getHeight()) / 2;
         int widthHalf = (width - image.getWidth()) / 2;
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
-                // if we out of the original borders, we pad with white pixels
-                if (i<heightHalf || i >= (height - heightHalf) || j<widthHalf || j >= (width - widthHalf)){
-                    newPixelsArr[i][j] = new Color(255, 255, 255);
+                // if we out of the original borders, we pad with white pixels (an odd padding
+                // leaves the extra white row or column at the bottom or right)
+                if (i<heightHalf || i >= heightHalf + image.getHeight()
+                        || j<widthHalf || j >= widthHalf + image.getWidth()){
+                    newPixelsArr[i * width + j] = WHITE_RGB;
                 }
                 else{  // we need it to stay the same as it was before (minding the shift)
-                    newPixelsArr[i][j] = image.getPixel(i - heightHalf, j - widthHalf);
+                    newPixelsArr[i * width + j] = pixels[(i - heightHalf) * image.getWidth() + j - widthHalf];
                 }
             }
         }
+        sample.stop(newPixelsArr.length, (long) newPixelsArr.length * Integer.BYTES);
         return new Image(newPixelsArr, width, height);
     }
 
+    /**
+     * Gets the power of 2 dimension an image dimension is padded to by imageFill.
+     *
+     * @param size The original dimension.
+     * @return The padded dimension.
+     */
+    static int paddedSize(int size) {
+        // get the closest power of 2 using log
+        return (int) (Math.pow(2, Math.ceil(Math.log(size) / Math.log(2))));
+    }
+
     /**
      * Divides the given image into sub-images based on the specified resolution.
      *
@@ -48,28 +73,36 @@ public class ImageCalc {
      * @return A list of sub-images.
      */
     public List<Image> getSubImages(Image image ,int resolution) {
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.SUB_IMAGES);
         List<Image> subImages = new ArrayList<>();
+        int[] pixels = image.getPackedPixels();
         // Calculate the width and height of each sub-image
         int subImageWidth = image.getWidth() / resolution;
         int subImageHeight = image.getHeight() / resolution;
-        // Iterate through the sub-images
+        // Iterate through the bands of sub-images, one row of sub-images at a time
+        int[][] bandPixels = new int[resolution][];
         for (int i = 0; i < resolution; i++) {
+            // Create an array for each sub-image's pixel colors
             for (int j = 0; j < resolution; j++) {
-                // Calculate the starting pixel coordinates for each sub-image
-                int startY = j * subImageWidth;
-                int startX = i * subImageHeight;
-                // Create a 2D array for the sub-image's pixel colors
-                Color[][] subImagePixels = new Color[subImageHeight][subImageWidth];
-                // Copy pixel data from the original image to the sub-image
-                for (int x = 0; x < subImageHeight; x++) {
-                    for (int y = 0; y < subImageWidth; y++) {
-                        subImagePixels[x][y] = image.getPixel(startX + x, startY + y);
-                    }
+                bandPixels[j] = new int[subImageHeight * subImageWidth];
+            }
+            // Copy pixel data from the original image to the sub-images, streaming through the
+            // image rows in order rather than jumping between rows for every sub-image
+            int startX = i * subImageHeight;
+            for (int x = 0; x < subImageHeight; x++) {
+                int rowOffset = (startX + x) * image.getWidth();
+                for (int j = 0; j < resolution; j++) {
+                    System.arraycopy(pixels, rowOffset + j * subImageWidth,
+                            bandPixels[j], x * subImageWidth, subImageWidth);
                 }
-                // Create a new Image instance for the sub-image and add it to the list
-                subImages.add(new Image(subImagePixels, subImageWidth, subImageHeight));
+            }
+            // Create a new Image instance for each sub-image and add it to the list
+            for (int j = 0; j < resolution; j++) {
+                subImages.add(new Image(bandPixels[j], subImageWidth, subImageHeight));
             }
         }
+        long copiedPixels = (long) resolution * resolution * subImageWidth * subImageHeight;
+        sample.stop(copiedPixels, copiedPixels * Integer.BYTES);
         return subImages;
     }
 
@@ -78,22 +111,38 @@ public class ImageCalc {
      * Calculates the average brightness of the given image.
      *
      * @param image The original image.
-     * @return The average brightness value normalized between 0 and 1.
+     * @return The average brightness value normalized between 0 and 1, computed in fixed point
+     * and within 1.1e-5 of the exact floating point average.
      */
     public double getImageBrightness(Image image){
-        double greysSum = 0;
-        int pixelsCount = 0;
-        // go over the image, calculate the grey value
-        for (int i = 0; i < image.getHeight(); i++) {
-            for (int j = 0; j < image.getWidth(); j++) {
-                Color curPixel = image.getPixel(i, j);
-                double greyPixel = curPixel.getRed() * 0.2126 + curPixel.getGreen() * 0.7152
-                        + curPixel.getBlue() * 0.0722;
-                greysSum += greyPixel;
-                pixelsCount++;
+        // the pixels are stored row by row, so the whole image is one contiguous range
+        int pixelsCount = image.getWidth() * image.getHeight();
+        long greysSum = LuminanceKernel.luminanceSum(image.getPackedPixels(), 0, pixelsCount);
+        return LuminanceKernel.toBrightness(greysSum, pixelsCount);
+    }
+
+    /**
+     * Calculates a 64-bit fingerprint of the content of an image file, without decoding it.
+     *
+     * @param filename The path to the image file.
+     * @return The fingerprint of the file content.
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public long getFileFingerprint(String filename) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(FILE_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        try (InputStream input = new FileInputStream(filename)) {
+            byte[] buffer = new byte[FILE_BUFFER_SIZE];
+            for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+                digest.update(buffer, 0, read);
             }
         }
-        return greysSum / (pixelsCount * MAX_RGB);
+        return ByteBuffer.wrap(digest.digest()).getLong();
     }
 
 }
@@ -0,0 +1,285 @@
+package image;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An ordered sequence of frames, read either from a multi-frame image file (such as an animated
+ * GIF) or from a directory of numbered still images.
+ */
+public class ImageSequence {
+    // frame delay used when the source does not specify one, in milliseconds
+    private static final int DEFAULT_FRAME_DELAY_MS = 100;
+    // GIF delays are stored in hundredths of a second
+    private static final int GIF_DELAY_UNIT_MS = 10;
+    // native metadata format names of the GIF plugin
+    private static final String GIF_IMAGE_METADATA = "javax_imageio_gif_image_1.0";
+    private static final String GIF_STREAM_METADATA = "javax_imageio_gif_stream_1.0";
+    // GIF disposal method clearing the frame area before the next frame is drawn
+    private static final String RESTORE_TO_BACKGROUND = "restoreToBackgroundColor";
+    // GIF disposal method restoring the frame area to what it was before the frame was drawn
+    private static final String RESTORE_TO_PREVIOUS = "restoreToPrevious";
+
+    private final List<Image> frames;
+    private final List<Integer> frameDelays;
+
+    /**
+     * Reads all frames of the given image file, or of all image files in the given directory
+     * ordered by the number in their names.
+     *
+     * @param path The path to a multi-frame image file or to a directory of frames.
+     * @throws IOException If an error occurs while reading the frames, or no frame was found.
+     */
+    public ImageSequence(String path) throws IOException {
+        frames = new ArrayList<>();
+        frameDelays = new ArrayList<>();
+        File file = new File(path);
+        if (file.isDirectory()) {
+            readDirectory(file);
+        } else if (NetpbmDecoder.isNetpbm(path)) {
+            // A PPM or PGM file holds a single frame
+            frames.add(new Image(path));
+            frameDelays.add(DEFAULT_FRAME_DELAY_MS);
+        } else {
+            readFile(file);
+        }
+        if (frames.isEmpty()) {
+            throw new IOException("No frames found in " + path);
+        }
+    }
+
+    /**
+     * Gets the number of frames in the sequence.
+     *
+     * @return The number of frames.
+     */
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * Gets the frame at the given index.
+     *
+     * @param index The index of the frame.
+     * @return The frame, composited to the full canvas of the sequence.
+     */
+    public Image getFrame(int index) {
+        return frames.get(index);
+    }
+
+    /**
+     * Gets the display durations of all frames.
+     *
+     * @return The frame delays in milliseconds, in frame order.
+     */
+    public List<Integer> getFrameDelays() {
+        return frameDelays;
+    }
+
+    /**
+     * Reads every image file of a directory as one frame, ordered by the number in the file name.
+     *
+     * @param directory The directory holding the frames.
+     * @throws IOException If an error occurs while reading a frame.
+     */
+    private void readDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles(File::isFile);
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        Arrays.sort(files, Comparator.comparingLong(ImageSequence::frameNumber)
+                .thenComparing(File::getName));
+        for (File file : files) {
+            BufferedImage im = NetpbmDecoder.isNetpbm(file.getPath())
+                    ? NetpbmDecoder.decode(file.getPath(), 1) : ImageIO.read(file);
+            // skip files that are not images, e.g. a stray text file next to the frames
+            if (im != null) {
+                frames.add(new Image(im));
+                frameDelays.add(DEFAULT_FRAME_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Reads all frames of a single image file through its ImageReader.
+     *
+     * @param file The image file.
+     * @throws IOException If an error occurs while reading the frames.
+     */
+    private void readFile(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Cannot open " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, false);
+                readFrames(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reads the frames of a reader. GIF frames may cover only part of the logical screen, so
+     * each one is drawn over the previous canvas according to its offset and disposal method.
+     *
+     * @param reader The reader, positioned on the input.
+     * @throws IOException If an error occurs while reading the frames.
+     */
+    private void readFrames(ImageReader reader) throws IOException {
+        int frameCount = reader.getNumImages(true);
+        Dimension canvasSize = getCanvasSize(reader);
+        BufferedImage canvas = null;
+        for (int i = 0; i < frameCount; i++) {
+            BufferedImage im = reader.read(i);
+            Node gifMetadata = getNativeMetadata(reader.getImageMetadata(i), GIF_IMAGE_METADATA);
+            if (gifMetadata == null) {
+                // not a GIF: every frame is a complete image
+                frames.add(new Image(im));
+                frameDelays.add(DEFAULT_FRAME_DELAY_MS);
+                continue;
+            }
+            if (canvas == null) {
+                int width = canvasSize == null ? im.getWidth() : canvasSize.width;
+                int height = canvasSize == null ? im.getHeight() : canvasSize.height;
+                canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                clear(canvas, 0, 0, width, height);
+            }
+            Node descriptor = getChild(gifMetadata, "ImageDescriptor");
+            Node control = getChild(gifMetadata, "GraphicControlExtension");
+            int left = getIntAttribute(descriptor, "imageLeftPosition", 0);
+            int top = getIntAttribute(descriptor, "imageTopPosition", 0);
+            String disposal = control == null ? null : getAttribute(control, "disposalMethod");
+            BufferedImage previous = RESTORE_TO_PREVIOUS.equals(disposal)
+                    ? snapshot(canvas, left, top, im.getWidth(), im.getHeight()) : null;
+            Graphics2D g = canvas.createGraphics();
+            g.drawImage(im, left, top, null);
+            g.dispose();
+            frames.add(new Image(canvas));
+            int delay = getIntAttribute(control, "delayTime", 0) * GIF_DELAY_UNIT_MS;
+            frameDelays.add(delay > 0 ? delay : DEFAULT_FRAME_DELAY_MS);
+            if (RESTORE_TO_BACKGROUND.equals(disposal)) {
+                clear(canvas, left, top, im.getWidth(), im.getHeight());
+            } else if (previous != null) {
+                g = canvas.createGraphics();
+                g.drawImage(previous, left, top, null);
+                g.dispose();
+            }
+        }
+    }
+
+    /**
+     * Gets the logical screen size of a GIF, which all of its frames are drawn into.
+     *
+     * @param reader The reader, positioned on the input.
+     * @return The logical screen size, or null if the stream does not define one.
+     * @throws IOException If an error occurs while reading the stream metadata.
+     */
+    private static Dimension getCanvasSize(ImageReader reader) throws IOException {
+        Node streamMetadata = getNativeMetadata(reader.getStreamMetadata(), GIF_STREAM_METADATA);
+        Node screen = getChild(streamMetadata, "LogicalScreenDescriptor");
+        int width = getIntAttribute(screen, "logicalScreenWidth", 0);
+        int height = getIntAttribute(screen, "logicalScreenHeight", 0);
+        return width > 0 && height > 0 ? new Dimension(width, height) : null;
+    }
+
+    /**
+     * Fills a region of the canvas with white, the same colour used to pad images.
+     */
+    private static void clear(BufferedImage canvas, int x, int y, int width, int height) {
+        Graphics2D g = canvas.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(x, y, width, height);
+        g.dispose();
+    }
+
+    /**
+     * Copies the region of the canvas a frame is about to cover, clipped to the canvas.
+     */
+    private static BufferedImage snapshot(BufferedImage canvas, int x, int y, int width, int height) {
+        int right = Math.min(canvas.getWidth(), x + width);
+        int bottom = Math.min(canvas.getHeight(), y + height);
+        if (x >= right || y >= bottom) {
+            return null;
+        }
+        BufferedImage region = new BufferedImage(right - x, bottom - y, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = region.createGraphics();
+        g.drawImage(canvas.getSubimage(x, y, right - x, bottom - y), 0, 0, null);
+        g.dispose();
+        return region;
+    }
+
+    /**
+     * Extracts the last number embedded in a frame file name, e.g. 12 for "frame_012.png" and
+     * 10 for "clip2_frame_10.png".
+     *
+     * @param file The frame file.
+     * @return The last number in its name, or Long.MAX_VALUE if it has none.
+     */
+    private static long frameNumber(File file) {
+        String name = file.getName();
+        int end = name.length();
+        while (end > 0 && !Character.isDigit(name.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && Character.isDigit(name.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end || end - start > 18) {
+            return Long.MAX_VALUE;
+        }
+        return Long.parseLong(name.substring(start, end));
+    }
+
+    private static Node getNativeMetadata(IIOMetadata metadata, String formatName) {
+        if (metadata == null || !Arrays.asList(metadata.getMetadataFormatNames()).contains(formatName)) {
+            return null;
+        }
+        return metadata.getAsTree(formatName);
+    }
+
+    private static Node getChild(Node node, String name) {
+        if (node == null) {
+            return null;
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (name.equals(child.getNodeName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static String getAttribute(Node node, String name) {
+        Node attribute = node.getAttributes().getNamedItem(name);
+        return attribute == null ? null : attribute.getNodeValue();
+    }
+
+    private static int getIntAttribute(Node node, String name, int defaultValue) {
+        if (node == null) {
+            return defaultValue;
+        }
+        String value = getAttribute(node, name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,113 @@
+package image;
+
+import java.awt.*;
+import java.io.IOException;
+
+/**
+ * Compares the luminance kernel the brightness pass uses, vector or scalar depending on the tile
+ * width, with the scalar loop alone on the rows of one image, summed tile by tile as the pass
+ * sums them, over a range of square grid resolutions.
+ * For every resolution it prints the best of several timings of both, the speedup over the
+ * scalar loop, and the largest difference between a tile brightness of the kernel and of the
+ * floating point formula, which must stay within LuminanceKernel.TOLERANCE.
+ * The vector kernel is only available when the vector source root was compiled and the JVM runs
+ * with --add-modules jdk.incubator.vector.
+ */
+public class KernelBenchmark {
+    // timed runs per resolution and kernel, the fastest one is reported
+    private static final int RUNS = 7;
+    // resolutions compared when none are given
+    private static final int[] DEFAULT_RESOLUTIONS = {8, 32, 128, 512};
+
+    private KernelBenchmark() {
+    }
+
+    /**
+     * Runs the comparison.
+     *
+     * @param args The image path, then optionally the resolutions to compare.
+     * @throws IOException If an error occurs while reading the image.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: KernelBenchmark <image> [resolution...]");
+            return;
+        }
+        int[] resolutions = DEFAULT_RESOLUTIONS;
+        if (args.length > 1) {
+            resolutions = new int[args.length - 1];
+            for (int i = 0; i < resolutions.length; i++) {
+                resolutions[i] = Integer.parseInt(args[i + 1]);
+            }
+        }
+        Image image = new Image(args[0]);
+        int[] pixels = image.getPackedPixels();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        LuminanceKernel.Sum vector = LuminanceKernel.getVectorKernel();
+        LuminanceKernel.Sum scalar = LuminanceKernel::scalarLuminanceSum;
+        LuminanceKernel.Sum kernel = LuminanceKernel::luminanceSum;
+        System.out.printf("%s %dx%d, kernel: %s%n", args[0], width, height,
+                vector == null ? "scalar (compile vector and run with --add-modules jdk.incubator.vector"
+                        + " for the vector kernel)" : vector);
+        System.out.println("resolution  tile width  scalar ms  kernel ms  speedup  max error  within tolerance");
+        for (int resolution : resolutions) {
+            int tileWidth = Math.max(1, width / resolution);
+            int tilesPerRow = width / tileWidth;
+            long scalarNanos = time(scalar, pixels, width, height, tileWidth, tilesPerRow);
+            long kernelNanos = time(kernel, pixels, width, height, tileWidth, tilesPerRow);
+            double maxError = maxError(kernel, image, tileWidth, tilesPerRow);
+            System.out.printf("%10d  %10d  %9.2f  %9.2f  %6.2fx  %9.2e  %s%n", resolution, tileWidth,
+                    scalarNanos / 1e6, kernelNanos / 1e6, (double) scalarNanos / kernelNanos, maxError,
+                    maxError <= LuminanceKernel.TOLERANCE ? "yes" : "no");
+        }
+    }
+
+    /**
+     * Times the sums of every tile of every row.
+     */
+    private static long time(LuminanceKernel.Sum kernel, int[] pixels, int width, int height, int tileWidth,
+                             int tilesPerRow) {
+        long best = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int row = 0; row < height; row++) {
+                int rowStart = row * width;
+                for (int tile = 0; tile < tilesPerRow; tile++) {
+                    int from = rowStart + tile * tileWidth;
+                    checksum += kernel.luminanceSum(pixels, from, from + tileWidth);
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        // Keeps the sums from being optimized away
+        if (checksum == 42) {
+            System.out.println();
+        }
+        return best;
+    }
+
+    /**
+     * Gets the largest difference between the brightness of a row of a tile from the kernel and
+     * from the floating point formula.
+     */
+    private static double maxError(LuminanceKernel.Sum kernel, Image image, int tileWidth, int tilesPerRow) {
+        int[] pixels = image.getPackedPixels();
+        double maxError = 0;
+        for (int row = 0; row < image.getHeight(); row++) {
+            for (int tile = 0; tile < tilesPerRow; tile++) {
+                int from = row * image.getWidth() + tile * tileWidth;
+                double brightness = LuminanceKernel.toBrightness(kernel.luminanceSum(pixels, from, from + tileWidth),
+                        tileWidth);
+                double exact = 0;
+                for (int i = from; i < from + tileWidth; i++) {
+                    Color color = new Color(pixels[i]);
+                    exact += color.getRed() * 0.2126 + color.getGreen() * 0.7152 + color.getBlue() * 0.0722;
+                }
+                maxError = Math.max(maxError, Math.abs(brightness - exact / (tileWidth * 255.0)));
+            }
+        }
+        return maxError;
+    }
+}
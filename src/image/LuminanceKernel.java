@@ -0,0 +1,233 @@
+package image;
+
+/**
+ * Luminance kernels over rows of packed RGB pixels.
+ * The weights 0.2126, 0.7152 and 0.0722 are applied in 16-bit fixed point, so the inner loops
+ * are plain int multiply-adds.
+ * Sums of packed pixels go through VectorLuminanceKernel when the jdk.incubator.vector module is
+ * present at run time, and through a scalar loop otherwise; both give the same sums. The vector
+ * kernel is loaded by reflection, so without the module it is never linked, and without the
+ * separately compiled vector source root it is missing and never loaded. KernelBenchmark
+ * compares the two.
+ * A brightness computed here differs from the floating point formula by at most
+ * {@link #TOLERANCE}.
+ */
+final class LuminanceKernel {
+    /**
+     * A kernel summing the scaled luminance of a range of packed pixels.
+     */
+    interface Sum {
+        /**
+         * Sums the scaled luminance of a range of packed pixels.
+         *
+         * @param pixels The packed RGB pixels.
+         * @param from   The index of the first pixel, inclusive.
+         * @param to     The index of the last pixel, exclusive.
+         * @return The luminance sum, in units of 1 / 65536 of a channel value.
+         */
+        long luminanceSum(int[] pixels, int from, int to);
+    }
+
+    /**
+     * Maximal absolute difference between a brightness computed by this kernel and one computed
+     * with the exact floating point weights, both normalized between 0 and 1.
+     * The rounded weights are off by at most 0.35 / 65536 each, 0.7 / 65536 together.
+     */
+    static final double TOLERANCE = 1.1e-5;
+
+    // weights scaled by 2^16, rounded so they still add up to exactly 2^16
+    static final int RED_WEIGHT = 13933;
+    static final int GREEN_WEIGHT = 46871;
+    static final int BLUE_WEIGHT = 4732;
+    /**
+     * Scaled luminance of a white pixel, used to account for padding without reading pixels.
+     */
+    static final long WHITE_LUMINANCE = 255L * (RED_WEIGHT + GREEN_WEIGHT + BLUE_WEIGHT);
+    // scale of the fixed point weights times the maximal channel value
+    private static final double MAX_SCALED_LUMINANCE = 255.0 * 65536;
+    // pixels summed into an int before it could overflow: 64 * 255 * 2^16 < 2^31
+    static final int CHUNK_SIZE = 64;
+    // ranges shorter than this are summed by the scalar loop, KernelBenchmark measures the
+    // vector kernel no faster on them
+    private static final int VECTOR_MIN_PIXELS = 32;
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNEL_CLASS = "image.VectorLuminanceKernel";
+    // pixels of the range the vector kernel is checked on when it is loaded
+    private static final int CHECK_PIXELS = 1000;
+
+    // the vector kernel, or null if the module is absent or the kernel failed its check
+    private static final Sum VECTOR_KERNEL = loadVectorKernel();
+
+    private LuminanceKernel() {
+    }
+
+    /**
+     * Sums the scaled luminance of a range of packed pixels, with the vector kernel if it is
+     * available and the range is long enough.
+     *
+     * @param pixels The packed RGB pixels.
+     * @param from   The index of the first pixel, inclusive.
+     * @param to     The index of the last pixel, exclusive.
+     * @return The luminance sum, in units of 1 / 65536 of a channel value.
+     */
+    static long luminanceSum(int[] pixels, int from, int to) {
+        if (VECTOR_KERNEL != null && to - from >= VECTOR_MIN_PIXELS) {
+            return VECTOR_KERNEL.luminanceSum(pixels, from, to);
+        }
+        return scalarLuminanceSum(pixels, from, to);
+    }
+
+    /**
+     * Gets the vector kernel.
+     *
+     * @return The vector kernel, or null if the sums are computed by the scalar loop.
+     */
+    static Sum getVectorKernel() {
+        return VECTOR_KERNEL;
+    }
+
+    /**
+     * Sums the scaled luminance of a range of packed pixels with the scalar loop.
+     *
+     * @param pixels The packed RGB pixels.
+     * @param from   The index of the first pixel, inclusive.
+     * @param to     The index of the last pixel, exclusive.
+     * @return The luminance sum, in units of 1 / 65536 of a channel value.
+     */
+    static long scalarLuminanceSum(int[] pixels, int from, int to) {
+        long sum = 0;
+        for (int chunkStart = from; chunkStart < to; chunkStart += CHUNK_SIZE) {
+            int chunkEnd = Math.min(chunkStart + CHUNK_SIZE, to);
+            // an int accumulator keeps the loop vectorizable
+            int chunkSum = 0;
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                int pixel = pixels[i];
+                chunkSum += ((pixel >> 16) & 0xFF) * RED_WEIGHT
+                        + ((pixel >> 8) & 0xFF) * GREEN_WEIGHT
+                        + (pixel & 0xFF) * BLUE_WEIGHT;
+            }
+            sum += chunkSum;
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the scaled luminance of a range of pixels stored as interleaved blue, green and red
+     * bytes, the layout of the TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR rasters decoders produce.
+     *
+     * @param data        The raster bytes.
+     * @param blueIndex   The index of the blue byte of the first pixel.
+     * @param pixelsCount The number of pixels to sum.
+     * @param pixelStride The number of bytes between two pixels.
+     * @return The luminance sum, in units of 1 / 65536 of a channel value.
+     */
+    static long bgrLuminanceSum(byte[] data, int blueIndex, int pixelsCount, int pixelStride) {
+        long sum = 0;
+        for (int chunkStart = 0; chunkStart < pixelsCount; chunkStart += CHUNK_SIZE) {
+            int chunkEnd = Math.min(chunkStart + CHUNK_SIZE, pixelsCount);
+            int chunkSum = 0;
+            for (int i = blueIndex + chunkStart * pixelStride; i < blueIndex + chunkEnd * pixelStride;
+                 i += pixelStride) {
+                chunkSum += (data[i + 2] & 0xFF) * RED_WEIGHT
+                        + (data[i + 1] & 0xFF) * GREEN_WEIGHT
+                        + (data[i] & 0xFF) * BLUE_WEIGHT;
+            }
+            sum += chunkSum;
+        }
+        return sum;
+    }
+
+    /**
+     * Writes the running sums of the scaled luminance of a range of packed pixels, so the sum of
+     * any sub-range, or of a fraction of a pixel, can be read off in constant time.
+     *
+     * @param pixels      The packed RGB pixels.
+     * @param from        The index of the first pixel.
+     * @param pixelsCount The number of pixels.
+     * @param prefix      Receives 0 at index 0, and the sum of the first k pixels at index k.
+     */
+    static void prefixLuminance(int[] pixels, int from, int pixelsCount, long[] prefix) {
+        long sum = 0;
+        prefix[0] = 0;
+        for (int i = 0; i < pixelsCount; i++) {
+            int pixel = pixels[from + i];
+            sum += ((pixel >> 16) & 0xFF) * RED_WEIGHT
+                    + ((pixel >> 8) & 0xFF) * GREEN_WEIGHT
+                    + (pixel & 0xFF) * BLUE_WEIGHT;
+            prefix[i + 1] = sum;
+        }
+    }
+
+    /**
+     * Writes the running sums of the scaled luminance of a range of interleaved blue, green and
+     * red pixels.
+     *
+     * @param data        The raster bytes.
+     * @param blueIndex   The index of the blue byte of the first pixel.
+     * @param pixelsCount The number of pixels.
+     * @param pixelStride The number of bytes between two pixels.
+     * @param prefix      Receives 0 at index 0, and the sum of the first k pixels at index k.
+     */
+    static void bgrPrefixLuminance(byte[] data, int blueIndex, int pixelsCount, int pixelStride,
+                                   long[] prefix) {
+        long sum = 0;
+        prefix[0] = 0;
+        for (int i = 0; i < pixelsCount; i++) {
+            int index = blueIndex + i * pixelStride;
+            sum += (data[index + 2] & 0xFF) * RED_WEIGHT
+                    + (data[index + 1] & 0xFF) * GREEN_WEIGHT
+                    + (data[index] & 0xFF) * BLUE_WEIGHT;
+            prefix[i + 1] = sum;
+        }
+    }
+
+    /**
+     * Loads the vector kernel if its module is present, and keeps it only if it gives the sums
+     * of the scalar loop.
+     */
+    private static Sum loadVectorKernel() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return null;
+        }
+        Sum kernel;
+        try {
+            kernel = (Sum) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError exception) {
+            return null;
+        }
+        int[] pixels = new int[CHECK_PIXELS];
+        for (int i = 0; i < pixels.length; i++) {
+            // Every channel value, alpha bits set on some pixels
+            pixels[i] = i * 0x010305 + (i % 7 == 0 ? 0xFF000000 : 0);
+        }
+        for (int from = 0; from < 3; from++) {
+            int to = pixels.length - from;
+            if (kernel.luminanceSum(pixels, from, to) != scalarLuminanceSum(pixels, from, to)) {
+                return null;
+            }
+        }
+        return kernel;
+    }
+
+    /**
+     * Converts a luminance sum to the average brightness of the summed pixels.
+     *
+     * @param luminanceSum The sum returned by the kernel.
+     * @param pixelsCount  The number of pixels summed.
+     * @return The average brightness normalized between 0 and 1.
+     */
+    static double toBrightness(long luminanceSum, long pixelsCount) {
+        return luminanceSum / (pixelsCount * MAX_SCALED_LUMINANCE);
+    }
+
+    /**
+     * Converts an area weighted luminance sum to the average brightness of the covered area.
+     *
+     * @param luminanceSum The weighted sum of the kernel results.
+     * @param area         The covered area, in pixels.
+     * @return The average brightness normalized between 0 and 1.
+     */
+    static double toBrightness(double luminanceSum, double area) {
+        return luminanceSum / (area * MAX_SCALED_LUMINANCE);
+    }
+}
@@ -0,0 +1,271 @@
+package image;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decodes binary PPM (P6) and PGM (P5) files, and raw 8-bit grayscale buffers, without ImageIO.
+ * The raster is read through a FileChannel a block of rows at a time, and every sample goes
+ * straight into the packed RGB pixels of an integer raster, the layout the brightness pass reads
+ * without conversion. Gray samples are stored as equal red, green and blue values, whose
+ * luminance is exactly the sample. Samples of a maximal value other than 255 are scaled to 8 bits.
+ */
+final class NetpbmDecoder {
+    // bytes of the rows read at once when every row is decoded
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+    // bytes read for the header, magic number, dimensions, maximal value and comments
+    private static final int HEADER_BYTES = 4096;
+    private static final int MAX_8_BIT_VALUE = 255;
+    private static final int MAX_16_BIT_VALUE = 65535;
+    private static final DirectColorModel RGB_COLOR_MODEL =
+            new DirectColorModel(24, 0xFF0000, 0x00FF00, 0x0000FF);
+
+    /**
+     * The fields of a header, and where the raster starts.
+     */
+    private static final class Header {
+        private final int width;
+        private final int height;
+        private final int channels;
+        private final int maxValue;
+        private final long rasterStart;
+
+        private Header(int width, int height, int channels, int maxValue, long rasterStart) {
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            this.maxValue = maxValue;
+            this.rasterStart = rasterStart;
+        }
+    }
+
+    private NetpbmDecoder() {
+    }
+
+    /**
+     * Checks the magic number of a file for a binary PPM or PGM.
+     *
+     * @param filename The path to the file.
+     * @return True if the file starts with "P5" or "P6" and a whitespace, false otherwise or if
+     * it cannot be read.
+     */
+    static boolean isNetpbm(String filename) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(3);
+            while (magic.hasRemaining() && channel.read(magic) != -1) {
+                // Keep reading until the magic number is complete or the file ends
+            }
+            return magic.position() == 3 && magic.get(0) == 'P'
+                    && (magic.get(1) == '5' || magic.get(1) == '6') && isWhitespace(magic.get(2));
+        } catch (IOException ioException) {
+            return false;
+        }
+    }
+
+    /**
+     * Decodes every step-th pixel of every step-th row of a binary PPM or PGM file, starting with
+     * the first. Skipped rows are never read.
+     *
+     * @param filename The path to the file.
+     * @param step     The subsampling step, 1 to decode every pixel.
+     * @return The image, of ceil(width / step) x ceil(height / step) pixels.
+     * @throws IOException If an error occurs while reading the file, or it is malformed.
+     */
+    static BufferedImage decode(String filename, int step) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return decodeRaster(channel, readHeader(channel, filename), step, filename);
+        }
+    }
+
+    /**
+     * Reads the dimensions of a binary PPM or PGM file from its header.
+     *
+     * @param filename The path to the file.
+     * @return The width and height of the image.
+     * @throws IOException If an error occurs while reading the header, or it is malformed.
+     */
+    static Dimension readDimensions(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            Header header = readHeader(channel, filename);
+            return new Dimension(header.width, header.height);
+        }
+    }
+
+    /**
+     * Decodes a raw buffer of 8-bit gray samples, row by row with no header.
+     *
+     * @param filename The path to the file.
+     * @param width    The number of samples of a row.
+     * @return The image, as many rows high as the file holds.
+     * @throws IOException If an error occurs while reading the file, or its size is not a
+     *                     multiple of the width.
+     */
+    static BufferedImage decodeRawGray(String filename, int width) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (width <= 0 || size % width != 0 || size / width > Integer.MAX_VALUE) {
+                throw new IOException("Raw gray buffer of " + size + " bytes is not " + width
+                        + " samples wide: " + filename);
+            }
+            Header header = new Header(width, (int) (size / width), 1, MAX_8_BIT_VALUE, 0);
+            return decodeRaster(channel, header, 1, filename);
+        }
+    }
+
+    /**
+     * Parses the header: magic number, width, height and maximal value, separated by whitespace
+     * and comments, and the single whitespace before the raster.
+     */
+    private static Header readHeader(FileChannel channel, String filename) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(buffer, 0);
+        buffer.flip();
+        if (buffer.remaining() < 3 || buffer.get(0) != 'P' || (buffer.get(1) != '5' && buffer.get(1) != '6')) {
+            throw new IOException("Not a binary PPM or PGM file: " + filename);
+        }
+        int channels = buffer.get(1) == '6' ? 3 : 1;
+        buffer.position(2);
+        int width = readHeaderNumber(buffer, filename);
+        int height = readHeaderNumber(buffer, filename);
+        int maxValue = readHeaderNumber(buffer, filename);
+        if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > MAX_16_BIT_VALUE
+                || !buffer.hasRemaining() || !isWhitespace(buffer.get())) {
+            throw new IOException("Malformed PPM or PGM header: " + filename);
+        }
+        return new Header(width, height, channels, maxValue, buffer.position());
+    }
+
+    /**
+     * Reads the next decimal number of the header, skipping the whitespace and comments before it.
+     */
+    private static int readHeaderNumber(ByteBuffer buffer, String filename) throws IOException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get(buffer.position());
+            if (b == '#') {
+                // A comment runs to the end of its line
+                while (buffer.hasRemaining() && buffer.get() != '\n') {
+                    // Skip the comment
+                }
+            } else if (isWhitespace(b)) {
+                buffer.get();
+            } else {
+                break;
+            }
+        }
+        long value = 0;
+        int digits = 0;
+        while (buffer.hasRemaining() && buffer.get(buffer.position()) >= '0'
+                && buffer.get(buffer.position()) <= '9') {
+            value = value * 10 + (buffer.get() - '0');
+            digits++;
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Malformed PPM or PGM header: " + filename);
+            }
+        }
+        if (digits == 0) {
+            throw new IOException("Malformed PPM or PGM header: " + filename);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the raster into packed RGB pixels, every step-th pixel of every step-th row.
+     */
+    private static BufferedImage decodeRaster(FileChannel channel, Header header, int step, String filename)
+            throws IOException {
+        int bytesPerSample = header.maxValue > MAX_8_BIT_VALUE ? 2 : 1;
+        long rowBytesLong = (long) header.width * header.channels * bytesPerSample;
+        if (rowBytesLong > Integer.MAX_VALUE
+                || header.rasterStart + rowBytesLong * header.height > channel.size()) {
+            throw new IOException("Truncated PPM or PGM raster: " + filename);
+        }
+        int rowBytes = (int) rowBytesLong;
+        int outWidth = (header.width + step - 1) / step;
+        int outHeight = (header.height + step - 1) / step;
+        int[] pixels = new int[Math.multiplyExact(outWidth, outHeight)];
+        int[] scale = header.maxValue == MAX_8_BIT_VALUE ? null : scaleTable(header.maxValue);
+
+        // Consecutive rows are read in blocks, subsampled rows one by one
+        int rowsPerRead = step == 1 ? Math.max(1, Math.min(header.height, READ_BUFFER_BYTES / rowBytes)) : 1;
+        ByteBuffer buffer = ByteBuffer.allocate(rowsPerRead * rowBytes);
+        byte[] data = buffer.array();
+        int outRow = 0;
+        for (int row = 0; row < header.height; row += step * rowsPerRead) {
+            int rows = Math.min(rowsPerRead, header.height - row);
+            buffer.clear().limit(rows * rowBytes);
+            long position = header.rasterStart + (long) row * rowBytes;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read == -1) {
+                    throw new IOException("Truncated PPM or PGM raster: " + filename);
+                }
+            }
+            for (int r = 0; r < rows; r++) {
+                convertRow(data, r * rowBytes, pixels, outRow * outWidth, outWidth, step, header.channels,
+                        bytesPerSample, scale);
+                outRow++;
+            }
+        }
+        DataBufferInt dataBuffer = new DataBufferInt(pixels, pixels.length);
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, outWidth, outHeight, outWidth,
+                RGB_COLOR_MODEL.getMasks(), null);
+        return new BufferedImage(RGB_COLOR_MODEL, raster, false, null);
+    }
+
+    /**
+     * Packs the samples of a row into RGB pixels.
+     */
+    private static void convertRow(byte[] data, int offset, int[] pixels, int pixelOffset, int outWidth,
+                                   int step, int channels, int bytesPerSample, int[] scale) {
+        int pixelBytes = channels * bytesPerSample;
+        if (bytesPerSample == 1 && scale == null) {
+            // 8-bit samples, the usual case, are packed as they are
+            for (int x = 0; x < outWidth; x++) {
+                int i = offset + x * step * pixelBytes;
+                if (channels == 3) {
+                    pixels[pixelOffset + x] = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+                } else {
+                    int gray = data[i] & 0xFF;
+                    pixels[pixelOffset + x] = gray << 16 | gray << 8 | gray;
+                }
+            }
+            return;
+        }
+        for (int x = 0; x < outWidth; x++) {
+            int i = offset + x * step * pixelBytes;
+            int pixel = 0;
+            for (int c = 0; c < 3; c++) {
+                // Gray samples are repeated over the three channels
+                int sampleIndex = i + (channels == 3 ? c : 0) * bytesPerSample;
+                int sample = bytesPerSample == 1 ? data[sampleIndex] & 0xFF
+                        : (data[sampleIndex] & 0xFF) << 8 | (data[sampleIndex + 1] & 0xFF);
+                pixel = pixel << 8 | scale[Math.min(sample, scale.length - 1)];
+            }
+            pixels[pixelOffset + x] = pixel;
+        }
+    }
+
+    /**
+     * Maps every sample value up to a maximal value to the nearest 8-bit value.
+     */
+    private static int[] scaleTable(int maxValue) {
+        int[] scale = new int[maxValue + 1];
+        for (int v = 0; v <= maxValue; v++) {
+            scale[v] = (int) ((v * (long) MAX_8_BIT_VALUE * 2 + maxValue) / (2L * maxValue));
+        }
+        return scale;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == 0x0B || b == '\f';
+    }
+}
@@ -0,0 +1,139 @@
+package image;
+
+import java.util.Objects;
+
+/**
+ * Describes how an image is divided into tiles, one tile per output character.
+ * A square grid pads the image to power of 2 dimensions and divides it into resolution x
+ * resolution tiles, as imageFill and getSubImages do.
+ * An aspect grid divides the image as is into a given number of columns, and as many rows as
+ * keep the image proportions once every tile is drawn as one glyph cell. Its tile edges may fall
+ * inside pixels, which then count towards each tile by the area they cover.
+ * Either grid can further divide every tile into cells per side x cells per side cells, whose
+ * brightness describes the shape of the tile rather than only its average.
+ */
+public class TileGrid {
+    private final int cols;
+    private final double cellAspect;
+    private final boolean padded;
+    private final int cellsPerSide;
+
+    private TileGrid(int cols, double cellAspect, boolean padded, int cellsPerSide) {
+        this.cols = cols;
+        this.cellAspect = cellAspect;
+        this.padded = padded;
+        this.cellsPerSide = cellsPerSide;
+    }
+
+    /**
+     * Creates a square grid over the image padded to power of 2 dimensions.
+     *
+     * @param resolution The number of tiles per dimension.
+     * @return The square grid.
+     */
+    public static TileGrid square(int resolution) {
+        return new TileGrid(resolution, 1, true, 1);
+    }
+
+    /**
+     * Creates an aspect correct grid over the unpadded image.
+     *
+     * @param cols       The number of tile columns.
+     * @param cellAspect The width of a glyph cell divided by its height in the output.
+     * @return The aspect correct grid.
+     */
+    public static TileGrid aspect(int cols, double cellAspect) {
+        return new TileGrid(cols, cellAspect, false, 1);
+    }
+
+    /**
+     * Creates the same grid with every tile divided into cells.
+     *
+     * @param cellsPerSide The number of cells per tile side.
+     * @return The grid with divided tiles.
+     */
+    public TileGrid withCellsPerSide(int cellsPerSide) {
+        return new TileGrid(cols, cellAspect, padded, cellsPerSide);
+    }
+
+    /**
+     * Gets the number of cells per tile side.
+     *
+     * @return The number of cells per tile side, 1 if the tiles are not divided.
+     */
+    public int getCellsPerSide() {
+        return cellsPerSide;
+    }
+
+    /**
+     * Checks whether the grid pads the image to power of 2 dimensions.
+     *
+     * @return True for a square grid.
+     */
+    public boolean isPadded() {
+        return padded;
+    }
+
+    /**
+     * Gets the number of tile columns.
+     *
+     * @return The number of tile columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Gets the number of tile rows for an image of the given dimensions.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The number of tile rows.
+     */
+    public int getRows(int width, int height) {
+        if (padded) {
+            return cols;
+        }
+        return (int) Math.max(1, Math.round(cols * cellAspect * height / width));
+    }
+
+    /**
+     * Describes the grid, e.g. "square 128" or "aspect 128 0.9375 cells 3".
+     *
+     * @return The description of the grid.
+     */
+    @Override
+    public String toString() {
+        String description = padded ? "square " + cols : "aspect " + cols + " " + cellAspect;
+        return cellsPerSide == 1 ? description : description + " cells " + cellsPerSide;
+    }
+
+    /**
+     * Checks if this grid is equal to another object.
+     *
+     * @param obj The object to compare with.
+     * @return True if both grids divide every image the same way.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof TileGrid)) {
+            return false;
+        }
+        TileGrid tileGrid = (TileGrid) obj;
+        return cols == tileGrid.cols && padded == tileGrid.padded && cellsPerSide == tileGrid.cellsPerSide
+                && Double.compare(cellAspect, tileGrid.cellAspect) == 0;
+    }
+
+    /**
+     * Generates a hash code for the grid.
+     *
+     * @return The hash code of the grid.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(cols, cellAspect, padded, cellsPerSide);
+    }
+}
@@ -0,0 +1,95 @@
+package image;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compares the streamed band pass over an Image, which reads the pixel rows in memory order into
+ * a band of per-tile accumulators, with the per-tile walk it replaced, which padded the image and
+ * then visited one tile at a time, jumping to another row for every row of the tile.
+ * For every resolution of a square grid it prints the best of several timings of both walks,
+ * their throughput in millions of image pixels per second, and whether both give the same
+ * brightness. Cache misses are not counted, no profiler being available to a plain main.
+ */
+public class TilingBenchmark {
+    // timed runs per resolution and walk, the fastest one is reported
+    private static final int RUNS = 5;
+    // resolutions compared when none are given
+    private static final int[] DEFAULT_RESOLUTIONS = {32, 128, 512};
+
+    private TilingBenchmark() {
+    }
+
+    /**
+     * Runs the comparison.
+     *
+     * @param args The image path, then optionally the resolutions to compare.
+     * @throws IOException If an error occurs while reading the image.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TilingBenchmark <image> [resolution...]");
+            return;
+        }
+        int[] resolutions = DEFAULT_RESOLUTIONS;
+        if (args.length > 1) {
+            resolutions = new int[args.length - 1];
+            for (int i = 0; i < resolutions.length; i++) {
+                resolutions[i] = Integer.parseInt(args[i + 1]);
+            }
+        }
+        Image image = new Image(args[0]);
+        FusedBrightnessCalc fusedBrightnessCalc = new FusedBrightnessCalc();
+        ImageCalc imageCalc = new ImageCalc();
+        long pixels = (long) image.getWidth() * image.getHeight();
+        System.out.printf("%s %dx%d%n", args[0], image.getWidth(), image.getHeight());
+        System.out.println("resolution  per tile ms  streamed ms  per tile Mpx/s  streamed Mpx/s  speedup"
+                + "  same brightness");
+        for (int resolution : resolutions) {
+            double[] perTile = null;
+            double[] streamed = null;
+            long perTileNanos = Long.MAX_VALUE;
+            long streamedNanos = Long.MAX_VALUE;
+            // An untimed run first, so the first timings are not of interpreted code
+            for (int run = -1; run < RUNS; run++) {
+                long start = System.nanoTime();
+                perTile = perTileWalk(imageCalc.imageFill(image), resolution);
+                long perTileRun = System.nanoTime() - start;
+                start = System.nanoTime();
+                streamed = fusedBrightnessCalc.getTileBrightnesses(image, resolution, null);
+                long streamedRun = System.nanoTime() - start;
+                if (run >= 0) {
+                    perTileNanos = Math.min(perTileNanos, perTileRun);
+                    streamedNanos = Math.min(streamedNanos, streamedRun);
+                }
+            }
+            System.out.printf("%10d  %11.1f  %11.1f  %14.1f  %14.1f  %6.1fx  %s%n", resolution,
+                    perTileNanos / 1e6, streamedNanos / 1e6, pixels * 1e3 / perTileNanos,
+                    pixels * 1e3 / streamedNanos, (double) perTileNanos / streamedNanos,
+                    Arrays.equals(perTile, streamed) ? "yes" : "no");
+        }
+    }
+
+    /**
+     * Sums every tile of a padded image one tile after another, row by row within the tile.
+     */
+    private static double[] perTileWalk(Image padded, int resolution) {
+        int[] pixels = padded.getPackedPixels();
+        int width = padded.getWidth();
+        int subImageWidth = width / resolution;
+        int subImageHeight = padded.getHeight() / resolution;
+        double[] brightnesses = new double[resolution * resolution];
+        for (int i = 0; i < resolution; i++) {
+            for (int j = 0; j < resolution; j++) {
+                long sum = 0;
+                for (int row = i * subImageHeight; row < (i + 1) * subImageHeight; row++) {
+                    int from = row * width + j * subImageWidth;
+                    sum += LuminanceKernel.luminanceSum(pixels, from, from + subImageWidth);
+                }
+                brightnesses[i * resolution + j] =
+                        LuminanceKernel.toBrightness(sum, (long) subImageWidth * subImageHeight);
+            }
+        }
+        return brightnesses;
+    }
+}
@@ -0,0 +1,144 @@
+package image_char_matching;
+
+import java.util.Arrays;
+
+/**
+ * The raw brightness levels of the glyphs of a character set, kept sorted in primitive arrays.
+ * The minimum and maximum are the ends of the arrays, so adding or removing a character is a
+ * binary search and a shift, with no scan of the set.
+ * Levels are normalized between the minimum and maximum of the current set: the raw levels are
+ * never overwritten, so the normalized levels depend only on the set and not on the order it
+ * was built in. The normalized view is computed once per change, on the first match after it.
+ */
+final class BrightnessLevels {
+    private double[] levels = new double[16];
+    // chars in the order of their levels, equal levels in char order
+    private char[] chars = new char[16];
+    private int size;
+    // normalized levels of the current set, null until the first match after a change
+    private double[] normalizedLevels;
+
+    /**
+     * Adds a character.
+     *
+     * @param c     The character, not in the set.
+     * @param level The raw brightness level of its glyph.
+     */
+    void add(char c, double level) {
+        if (size == levels.length) {
+            levels = Arrays.copyOf(levels, size * 2);
+            chars = Arrays.copyOf(chars, size * 2);
+        }
+        int index = -indexOf(c, level) - 1;
+        System.arraycopy(levels, index, levels, index + 1, size - index);
+        System.arraycopy(chars, index, chars, index + 1, size - index);
+        levels[index] = level;
+        chars[index] = c;
+        size++;
+        normalizedLevels = null;
+    }
+
+    /**
+     * Removes a character.
+     *
+     * @param c     The character, in the set.
+     * @param level The raw brightness level it was added with.
+     */
+    void remove(char c, double level) {
+        int index = indexOf(c, level);
+        System.arraycopy(levels, index + 1, levels, index, size - index - 1);
+        System.arraycopy(chars, index + 1, chars, index, size - index - 1);
+        size--;
+        normalizedLevels = null;
+    }
+
+    /**
+     * Normalizes a raw level between the minimum and maximum of the set. A set whose levels are
+     * all equal, or that holds a single character, is left as is.
+     *
+     * @param level The raw level.
+     * @return The normalized level.
+     */
+    double normalize(double level) {
+        if (size < 2 || levels[size - 1] == levels[0]) {
+            return level;
+        }
+        double min = levels[0];
+        double max = levels[size - 1];
+        return (level - min) / (max - min);
+    }
+
+    /**
+     * Finds the character whose normalized level is closest to a brightness, the smallest one
+     * among equally close characters.
+     *
+     * @param brightness The target brightness, between 0 and 1.
+     * @return The closest character.
+     * @throws IllegalStateException If the set is empty.
+     */
+    char nearest(double brightness) {
+        if (size == 0) {
+            throw new IllegalStateException("No character to match in an empty set");
+        }
+        if (normalizedLevels == null) {
+            normalizedLevels = new double[size];
+            for (int i = 0; i < size; i++) {
+                normalizedLevels[i] = normalize(levels[i]);
+            }
+        }
+        // Normalization keeps the order, the closest levels surround the insertion point
+        int index = Arrays.binarySearch(normalizedLevels, brightness);
+        int above = index >= 0 ? index : -index - 1;
+        int below = above - 1;
+        double distance = Double.POSITIVE_INFINITY;
+        if (below >= 0) {
+            distance = brightness - normalizedLevels[below];
+        }
+        if (above < size) {
+            distance = Math.min(distance, normalizedLevels[above] - brightness);
+        }
+        // Equal levels, and levels rounded to the same distance, lie next to each other
+        char nearest = Character.MAX_VALUE;
+        for (int i = below; i >= 0 && brightness - normalizedLevels[i] == distance; i--) {
+            nearest = (char) Math.min(nearest, chars[i]);
+        }
+        for (int i = above; i < size && normalizedLevels[i] - brightness == distance; i++) {
+            nearest = (char) Math.min(nearest, chars[i]);
+        }
+        return nearest;
+    }
+
+    /**
+     * Gets the number of characters in the set.
+     *
+     * @return The size of the set.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finds the position of a character, levels ordered first and chars second.
+     *
+     * @return The index of the character, or -(insertion point) - 1 if it is not in the set.
+     */
+    private int indexOf(char c, double level) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = Double.compare(levels[mid], level);
+            if (comparison == 0) {
+                comparison = Character.compare(chars[mid], c);
+            }
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -low - 1;
+    }
+}
@@ -1,5 +1,8 @@
 package image_char_matching;
 
+import metrics.PipelineMetrics;
+import metrics.Stage;
+
 import java.awt.*;
 import java.awt.image.BufferedImage;
 
@@ -18,23 +21,45 @@ public class CharConverter {
      */
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
     /**
-     * Renders a given character, according to how it looks in the font specified in the
-     * constructor, to a square black&white image (2D array of booleans),
-     * whose dimension in pixels is specified.
+     * Renders a given character, according to how it looks in the default font, to a square
+     * black&white image (2D array of booleans) of the default pixel resolution.
      * @param c The character to convert.
      * @return A boolean array representing the binary image of the character.
      */
     public static boolean[][] convertToBoolArray(char c) {
-        BufferedImage img = getBufferedImage(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
-        boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
-        for(int y = 0 ; y < DEFAULT_PIXEL_RESOLUTION ; y++) {
-            for(int x = 0 ; x < DEFAULT_PIXEL_RESOLUTION ; x++) {
+        return convertToBoolArray(c, GlyphFont.DEFAULT);
+    }
+
+    /**
+     * Renders a given character, according to how it looks in the given font, to a square
+     * black&white image (2D array of booleans) of the font's pixel resolution.
+     * Glyphs of different characters may be rendered concurrently.
+     * @param c The character to convert.
+     * @param glyphFont The font and pixel resolution to render in.
+     * @return A boolean array representing the binary image of the character.
+     */
+    public static boolean[][] convertToBoolArray(char c, GlyphFont glyphFont) {
+        PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.GLYPH_RENDER);
+        int pixelResolution = glyphFont.getPixelResolution();
+        BufferedImage img = getBufferedImage(c, glyphFont.getName(), pixelResolution);
+        boolean[][] matrix = new boolean[pixelResolution][pixelResolution];
+        for(int y = 0 ; y < pixelResolution ; y++) {
+            for(int x = 0 ; x < pixelResolution ; x++) {
                 matrix[y][x] = img.getRGB(x, y) == 0; //is the color black
             }
         }
+        sample.stop(1, 0);
         return matrix;
     }
 
+    /**
+     * Gets the name of the font characters are rendered in by default.
+     * @return The font name.
+     */
+    public static String getFontName() {
+        return FONT_NAME;
+    }
+
     private static BufferedImage getBufferedImage(char c, String fontName, int pixelsPerRow) {
         String charStr = Character.toString(c);
         Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
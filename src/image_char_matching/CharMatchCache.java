@@ -0,0 +1,148 @@
+package image_char_matching;
+
+import java.util.Arrays;
+
+/**
+ * Memoizes the character matched to a tile, keyed by the exact brightness or cell brightnesses
+ * of the tile, so a cached match is the match the tile would get.
+ * Real images repeat many tiles (flat backgrounds, the white padding of imageFill), and every
+ * repetition is answered by one probe instead of a scan over the character set.
+ * Entries are kept in an open addressing table of primitive hashes and chars with linear probing,
+ * the values of every entry stored alongside to tell tiles of equal hashes apart.
+ * The table is bounded: once it holds its maximal number of entries it is cleared and refilled.
+ */
+final class CharMatchCache {
+    /**
+     * Value returned by get for values that are not cached.
+     */
+    static final int NO_CHAR = -1;
+    // fraction of the table that may be filled before it is cleared
+    private static final double MAX_LOAD_FACTOR = 0.75;
+    // multiplier of the Fibonacci hashing used to spread keys over the table
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final long[] keys;
+    private final char[] chars;
+    private final int mask;
+    private final int shift;
+    private final int maxEntries;
+    // values of every slot, valuesCount per slot, allocated for the number of values of the tiles
+    private double[] slotValues = new double[0];
+    private int valuesCount;
+    private int size;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxEntries The number of tiles kept before the cache is cleared.
+     */
+    CharMatchCache(int maxEntries) {
+        int capacity = Integer.highestOneBit((int) Math.ceil(maxEntries / MAX_LOAD_FACTOR) - 1) << 1;
+        keys = new long[capacity];
+        chars = new char[capacity];
+        mask = capacity - 1;
+        shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Gets the character cached for the values of a tile, counting a hit or a miss.
+     *
+     * @param values      The array holding the values.
+     * @param offset      The index of the first value.
+     * @param valuesCount The number of values, the same for every tile until the cache is cleared.
+     * @return The cached character, or NO_CHAR.
+     */
+    int get(double[] values, int offset, int valuesCount) {
+        if (valuesCount != this.valuesCount) {
+            return count(NO_CHAR);
+        }
+        long key = key(values, offset, valuesCount);
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && Arrays.equals(slotValues, slot * valuesCount, (slot + 1) * valuesCount,
+                    values, offset, offset + valuesCount)) {
+                return count(chars[slot]);
+            }
+        }
+        return count(NO_CHAR);
+    }
+
+    /**
+     * Caches the character matched for the values of a tile that are not cached yet.
+     *
+     * @param values      The array holding the values.
+     * @param offset      The index of the first value.
+     * @param valuesCount The number of values.
+     * @param c           The matched character.
+     */
+    void put(double[] values, int offset, int valuesCount, char c) {
+        if (size >= maxEntries || valuesCount != this.valuesCount) {
+            clear();
+        }
+        if (valuesCount != this.valuesCount) {
+            this.valuesCount = valuesCount;
+            slotValues = new double[keys.length * valuesCount];
+        }
+        size++;
+        long key = key(values, offset, valuesCount);
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        chars[slot] = c;
+        System.arraycopy(values, offset, slotValues, slot * valuesCount, valuesCount);
+    }
+
+    /**
+     * Removes every cached character, keeping the hit and miss counts.
+     */
+    void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return The number of hits.
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that needed a match.
+     *
+     * @return The number of misses.
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Hashes the exact bits of the values, never to 0, which marks empty slots.
+     */
+    private static long key(double[] values, int offset, int valuesCount) {
+        long key = 0;
+        for (int i = offset; i < offset + valuesCount; i++) {
+            key = (key ^ Double.doubleToLongBits(values[i])) * HASH_MULTIPLIER;
+        }
+        return key == 0 ? 1 : key;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * HASH_MULTIPLIER) >>> shift);
+    }
+
+    private int count(int result) {
+        if (result == NO_CHAR) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package image_char_matching;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Describes the shape of characters as vectors of cell coverages: the glyph bitmap rendered by
+ * CharConverter is divided into cells per side x cells per side cells, and each cell is
+ * described by the fraction of its pixels left white.
+ * Features are computed once per font, character and cell count, and kept as flat float arrays.
+ */
+final class GlyphFeatures {
+    // features of every character computed so far, keyed by font, then cells per side and character
+    private static final Map<GlyphFont, Map<Integer, float[]>> featuresCache = new ConcurrentHashMap<>();
+
+    private GlyphFeatures() {
+    }
+
+    /**
+     * Gets the cell coverages of a character.
+     *
+     * @param c            The character.
+     * @param cellsPerSide The number of cells per glyph side.
+     * @param glyphFont    The font and pixel resolution to render the character in.
+     * @return The fraction of white pixels of every cell, row by row.
+     */
+    static float[] getFeatures(char c, int cellsPerSide, GlyphFont glyphFont) {
+        return getFontFeatures(glyphFont).computeIfAbsent(cellsPerSide << Character.SIZE | c,
+                key -> calcFeatures(CharConverter.convertToBoolArray(c, glyphFont), cellsPerSide));
+    }
+
+    /**
+     * Computes the cell coverages of the characters not known yet in parallel, so the following
+     * getFeatures calls find them.
+     *
+     * @param chars        The characters.
+     * @param cellsPerSide The number of cells per glyph side.
+     * @param glyphFont    The font and pixel resolution to render the characters in.
+     */
+    static void prepare(Collection<Character> chars, int cellsPerSide, GlyphFont glyphFont) {
+        chars.parallelStream().forEach(c -> getFeatures(c, cellsPerSide, glyphFont));
+    }
+
+    private static Map<Integer, float[]> getFontFeatures(GlyphFont glyphFont) {
+        return featuresCache.computeIfAbsent(glyphFont, key -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Computes the cell coverages of a glyph bitmap, splitting it on whole pixels so that the
+     * last cell of every row and column takes the remainder.
+     *
+     * @param charBoolArr  The glyph bitmap, true for a white pixel.
+     * @param cellsPerSide The number of cells per glyph side.
+     * @return The fraction of white pixels of every cell, row by row.
+     */
+    private static float[] calcFeatures(boolean[][] charBoolArr, int cellsPerSide) {
+        int size = charBoolArr.length;
+        float[] features = new float[cellsPerSide * cellsPerSide];
+        for (int r = 0; r < cellsPerSide; r++) {
+            int rowStart = r * size / cellsPerSide;
+            int rowEnd = (r + 1) * size / cellsPerSide;
+            for (int c = 0; c < cellsPerSide; c++) {
+                int colStart = c * size / cellsPerSide;
+                int colEnd = (c + 1) * size / cellsPerSide;
+                int whiteCellsCount = 0;
+                for (int y = rowStart; y < rowEnd; y++) {
+                    for (int x = colStart; x < colEnd; x++) {
+                        if (charBoolArr[y][x]) {
+                            whiteCellsCount++;
+                        }
+                    }
+                }
+                features[r * cellsPerSide + c] =
+                        (float) whiteCellsCount / ((rowEnd - rowStart) * (colEnd - colStart));
+            }
+        }
+        return features;
+    }
+}
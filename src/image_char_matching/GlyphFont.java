@@ -0,0 +1,86 @@
+package image_char_matching;
+
+import java.util.Objects;
+
+/**
+ * A font and the pixel resolution its glyphs are rendered at to measure them.
+ * Higher resolutions tell glyphs of close brightness apart more accurately, at a cost that grows
+ * with the square of the resolution.
+ */
+public final class GlyphFont {
+    /**
+     * The font and resolution glyphs are measured in unless another one is selected.
+     */
+    public static final GlyphFont DEFAULT =
+            new GlyphFont(CharConverter.getFontName(), CharConverter.DEFAULT_PIXEL_RESOLUTION);
+
+    private final String name;
+    private final int pixelResolution;
+
+    /**
+     * Constructor for `GlyphFont` class.
+     *
+     * @param name            The name of the font, an unknown name renders in the default AWT font.
+     * @param pixelResolution The number of pixels per side of a rendered glyph.
+     */
+    public GlyphFont(String name, int pixelResolution) {
+        this.name = name;
+        this.pixelResolution = pixelResolution;
+    }
+
+    /**
+     * Gets the name of the font.
+     *
+     * @return The font name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of pixels per side of a rendered glyph.
+     *
+     * @return The pixel resolution.
+     */
+    public int getPixelResolution() {
+        return pixelResolution;
+    }
+
+    /**
+     * Describes the font, e.g. "Courier New 16".
+     *
+     * @return The font name followed by the pixel resolution.
+     */
+    @Override
+    public String toString() {
+        return name + " " + pixelResolution;
+    }
+
+    /**
+     * Checks if this font is equal to another object.
+     *
+     * @param obj The object to compare with.
+     * @return True if both render the same glyphs.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof GlyphFont)) {
+            return false;
+        }
+        GlyphFont glyphFont = (GlyphFont) obj;
+        return pixelResolution == glyphFont.pixelResolution && name.equals(glyphFont.name);
+    }
+
+    /**
+     * Generates a hash code for the font.
+     *
+     * @return The hash code of the font.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, pixelResolution);
+    }
+}
@@ -0,0 +1,124 @@
+package image_char_matching;
+
+/**
+ * A k-d tree over the feature vectors of a character set, answering nearest neighbour queries
+ * without comparing a tile to every character.
+ * The tree is implicit: the characters and their features are reordered in place so that every
+ * range is split on its median, which sits in the middle of the range, and its lower and upper
+ * halves hold the two subtrees. Each level splits on the next feature, in turn.
+ */
+final class GlyphIndex {
+    private final int dimensions;
+    private final char[] chars;
+    private final float[] features;
+    // state of the running query
+    private double[] query;
+    private int queryOffset;
+    private int bestIndex;
+    private double bestDistance;
+
+    /**
+     * Builds the index. The given arrays are taken over and reordered.
+     *
+     * @param chars      The characters, at least one.
+     * @param features   The feature vectors of the characters, one after another.
+     * @param dimensions The length of every feature vector.
+     */
+    GlyphIndex(char[] chars, float[] features, int dimensions) {
+        this.dimensions = dimensions;
+        this.chars = chars;
+        this.features = features;
+        build(0, chars.length, 0);
+    }
+
+    /**
+     * Finds the character whose features are closest to the given vector, by euclidean distance.
+     * Among equally close characters the smallest one is returned.
+     *
+     * @param vector The array holding the vector.
+     * @param offset The index of the first feature of the vector.
+     * @return The nearest character.
+     */
+    char nearest(double[] vector, int offset) {
+        query = vector;
+        queryOffset = offset;
+        bestIndex = -1;
+        bestDistance = Double.POSITIVE_INFINITY;
+        search(0, chars.length, 0);
+        query = null;
+        return chars[bestIndex];
+    }
+
+    /**
+     * Places the median of a range, by the feature of its level, in the middle of the range with
+     * the smaller entries before it and the larger ones after it, then builds both halves.
+     */
+    private void build(int from, int to, int depth) {
+        if (to - from <= 1) {
+            return;
+        }
+        int axis = depth % dimensions;
+        // Character sets are at most a few hundred entries, sorting each range is cheap enough
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && features[j * dimensions + axis] < features[(j - 1) * dimensions + axis]; j--) {
+                swap(j, j - 1);
+            }
+        }
+        int mid = (from + to) >>> 1;
+        build(from, mid, depth + 1);
+        build(mid + 1, to, depth + 1);
+    }
+
+    /**
+     * Searches a range for a nearer character, visiting the half holding the query first and
+     * skipping the other half when the splitting plane is already farther than the best match.
+     */
+    private void search(int from, int to, int depth) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        double distance = distance(mid);
+        if (distance < bestDistance || (distance == bestDistance && chars[mid] < chars[bestIndex])) {
+            bestDistance = distance;
+            bestIndex = mid;
+        }
+        int axis = depth % dimensions;
+        double diff = query[queryOffset + axis] - features[mid * dimensions + axis];
+        if (diff < 0) {
+            search(from, mid, depth + 1);
+            if (diff * diff <= bestDistance) {
+                search(mid + 1, to, depth + 1);
+            }
+        } else {
+            search(mid + 1, to, depth + 1);
+            if (diff * diff <= bestDistance) {
+                search(from, mid, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Gets the squared euclidean distance between the query and an entry.
+     */
+    private double distance(int index) {
+        double sum = 0;
+        int base = index * dimensions;
+        for (int k = 0; k < dimensions; k++) {
+            double diff = query[queryOffset + k] - features[base + k];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private void swap(int i, int j) {
+        char ch = chars[i];
+        chars[i] = chars[j];
+        chars[j] = ch;
+        for (int k = 0; k < dimensions; k++) {
+            float feature = features[i * dimensions + k];
+            features[i * dimensions + k] = features[j * dimensions + k];
+            features[j * dimensions + k] = feature;
+        }
+    }
+}
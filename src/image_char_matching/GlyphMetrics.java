@@ -0,0 +1,175 @@
+package image_char_matching;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Precomputed glyph brightness levels, so a run can match characters without initializing the
+ * font system and rendering every glyph first.
+ * The levels are stored as a properties file along with the font and pixel resolution they
+ * were rendered in, and are only used with the same ones.
+ */
+public class GlyphMetrics {
+    // first and last printable ASCII characters, the ones the Shell can add
+    private static final char FIRST_CHAR = 32;
+    private static final char LAST_CHAR = 126;
+    private static final String FONT_KEY = "font";
+    private static final String RESOLUTION_KEY = "resolution";
+    // prefix of the key of a glyph level, followed by the char code
+    private static final String CHAR_KEY_PREFIX = "char.";
+
+    private GlyphMetrics() {
+    }
+
+    /**
+     * Renders the glyphs of all printable ASCII characters in the default font and writes their
+     * brightness levels.
+     *
+     * @param path The properties file to write.
+     * @throws IOException If an error occurs while writing the file.
+     */
+    public static void write(Path path) throws IOException {
+        write(path, GlyphFont.DEFAULT);
+    }
+
+    /**
+     * Renders the glyphs of all printable ASCII characters in the given font and writes their
+     * brightness levels.
+     *
+     * @param path      The properties file to write.
+     * @param glyphFont The font and pixel resolution to render in.
+     * @throws IOException If an error occurs while writing the file.
+     */
+    public static void write(Path path, GlyphFont glyphFont) throws IOException {
+        List<Character> chars = new ArrayList<>();
+        for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+            chars.add(c);
+        }
+        write(path, glyphFont, GlyphRegistry.getBrightnesses(glyphFont, chars));
+    }
+
+    /**
+     * Writes glyph brightness levels.
+     *
+     * @param path      The properties file to write.
+     * @param glyphFont The font and pixel resolution the levels were rendered in.
+     * @param levels    The brightness level of every glyph to write.
+     * @throws IOException If an error occurs while writing the file.
+     */
+    public static void write(Path path, GlyphFont glyphFont, Map<Character, Double> levels) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(FONT_KEY, glyphFont.getName());
+        properties.setProperty(RESOLUTION_KEY, String.valueOf(glyphFont.getPixelResolution()));
+        for (Map.Entry<Character, Double> entry : levels.entrySet()) {
+            // Double.toString reads back as the exact same level
+            properties.setProperty(CHAR_KEY_PREFIX + (int) entry.getKey(), Double.toString(entry.getValue()));
+        }
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Glyph brightness levels");
+        }
+    }
+
+    /**
+     * Reads the font and pixel resolution of a file written by write.
+     *
+     * @param path The properties file to read.
+     * @return The font and pixel resolution the levels in the file were rendered in.
+     * @throws IOException If an error occurs while reading the file, or it is malformed.
+     */
+    public static GlyphFont readFont(Path path) throws IOException {
+        Properties properties = load(path);
+        String fontName = properties.getProperty(FONT_KEY);
+        String resolution = properties.getProperty(RESOLUTION_KEY);
+        if (fontName == null || resolution == null) {
+            throw new IOException("Malformed glyph metrics file " + path);
+        }
+        try {
+            return new GlyphFont(fontName, Integer.parseInt(resolution));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed glyph metrics file " + path, e);
+        }
+    }
+
+    /**
+     * Reads glyph brightness levels of the default font written by write.
+     *
+     * @param path The properties file to read.
+     * @return The brightness level of every glyph in the file, or an empty map if the file was
+     * rendered in another font or resolution.
+     * @throws IOException If an error occurs while reading the file, or it is malformed.
+     */
+    public static Map<Character, Double> read(Path path) throws IOException {
+        return read(path, GlyphFont.DEFAULT);
+    }
+
+    /**
+     * Reads glyph brightness levels written by write.
+     *
+     * @param path      The properties file to read.
+     * @param glyphFont The font and pixel resolution the levels are expected in.
+     * @return The brightness level of every glyph in the file, or an empty map if the file was
+     * rendered in another font or resolution.
+     * @throws IOException If an error occurs while reading the file, or it is malformed.
+     */
+    public static Map<Character, Double> read(Path path, GlyphFont glyphFont) throws IOException {
+        Properties properties = load(path);
+        Map<Character, Double> levels = new HashMap<>();
+        if (!glyphFont.getName().equals(properties.getProperty(FONT_KEY))
+                || !String.valueOf(glyphFont.getPixelResolution()).equals(properties.getProperty(RESOLUTION_KEY))) {
+            Logger.getGlobal().warning(String.format("Ignoring \"%s\", rendered in another font", path));
+            return levels;
+        }
+        try {
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(CHAR_KEY_PREFIX)) {
+                    char c = (char) Integer.parseInt(key.substring(CHAR_KEY_PREFIX.length()));
+                    levels.put(c, Double.parseDouble(properties.getProperty(key)));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed glyph metrics file " + path, e);
+        }
+        return levels;
+    }
+
+    private static Properties load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    /**
+     * Writes the glyph metrics file given as the first argument, in the default font or in the
+     * pixel resolution and font given next.
+     *
+     * @param args The path of the file to write, optionally followed by a pixel resolution and a
+     *             font name.
+     * @throws IOException If an error occurs while writing the file.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length < 3) {
+            System.err.println("Usage: GlyphMetrics <file> [<resolution> <font name>]");
+            return;
+        }
+        GlyphFont glyphFont = GlyphFont.DEFAULT;
+        if (args.length > 1) {
+            String fontName = String.join(" ", Arrays.asList(args).subList(2, args.length));
+            glyphFont = new GlyphFont(fontName, Integer.parseInt(args[1]));
+        }
+        write(Paths.get(args[0]), glyphFont);
+    }
+}
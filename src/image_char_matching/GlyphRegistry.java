@@ -0,0 +1,128 @@
+package image_char_matching;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Brightness levels of glyphs before normalization, keyed by font, pixel resolution and
+ * character, shared by every matcher of the process.
+ * A glyph is rendered on the first request for it, and the glyphs missing from one request are
+ * rendered in parallel, as the cost of a glyph grows with the square of the resolution.
+ * When a directory is set, the levels of every font are also kept there as glyph metrics files,
+ * read on the first use of the font and rewritten when it gains glyphs, so later runs render
+ * nothing already known.
+ */
+public final class GlyphRegistry {
+    // suffix of the glyph metrics file of every font in the directory
+    private static final String FILE_SUFFIX = ".properties";
+    // levels of every font used so far
+    private static final Map<GlyphFont, Map<Character, Double>> levels = new HashMap<>();
+    // fonts whose file in the directory was read
+    private static final Set<GlyphFont> loadedFonts = new HashSet<>();
+    private static Path directory;
+
+    private GlyphRegistry() {
+    }
+
+    /**
+     * Sets the directory the levels are kept in across runs.
+     *
+     * @param directory The directory, created if missing, or null to keep the levels in memory only.
+     * @throws IOException If the directory cannot be created.
+     */
+    public static synchronized void setDirectory(Path directory) throws IOException {
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        GlyphRegistry.directory = directory;
+        // Fonts used before may have levels in the new directory
+        loadedFonts.clear();
+    }
+
+    /**
+     * Adds precomputed levels, such as ones read from a glyph metrics file.
+     *
+     * @param glyphFont  The font and pixel resolution the levels were rendered in.
+     * @param fontLevels The brightness level of every glyph.
+     */
+    public static synchronized void register(GlyphFont glyphFont, Map<Character, Double> fontLevels) {
+        levels.computeIfAbsent(glyphFont, key -> new HashMap<>()).putAll(fontLevels);
+    }
+
+    /**
+     * Gets the brightness levels of glyphs, rendering the ones not known yet in parallel.
+     *
+     * @param glyphFont The font and pixel resolution to render in.
+     * @param chars     The characters.
+     * @return The fraction of the glyph's pixels left white, for every character.
+     */
+    public static synchronized Map<Character, Double> getBrightnesses(GlyphFont glyphFont,
+                                                                      Collection<Character> chars) {
+        Map<Character, Double> fontLevels = getFontLevels(glyphFont);
+        Set<Character> missing = new LinkedHashSet<>(chars);
+        missing.removeAll(fontLevels.keySet());
+        if (!missing.isEmpty()) {
+            fontLevels.putAll(missing.parallelStream().collect(Collectors.toMap(c -> c,
+                    c -> SubImgCharMatcher.calcCharBrightness(c, glyphFont))));
+            save(glyphFont, fontLevels);
+        }
+        Map<Character, Double> result = new HashMap<>();
+        for (char c : chars) {
+            result.put(c, fontLevels.get(c));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the levels of a font, reading its file in the directory on first use.
+     */
+    private static Map<Character, Double> getFontLevels(GlyphFont glyphFont) {
+        Map<Character, Double> fontLevels = levels.computeIfAbsent(glyphFont, key -> new HashMap<>());
+        if (directory != null && loadedFonts.add(glyphFont)) {
+            Path path = getPath(glyphFont);
+            if (Files.isRegularFile(path)) {
+                try {
+                    GlyphMetrics.read(path, glyphFont).forEach(fontLevels::putIfAbsent);
+                } catch (IOException e) {
+                    // A damaged file only costs rendering the glyphs again
+                    Logger.getGlobal().warning(String.format("Ignoring \"%s\": %s", path, e.getMessage()));
+                }
+            }
+        }
+        return fontLevels;
+    }
+
+    /**
+     * Rewrites the file of a font in the directory, replacing it at once so a concurrent run
+     * never reads it half written.
+     */
+    private static void save(GlyphFont glyphFont, Map<Character, Double> fontLevels) {
+        if (directory == null) {
+            return;
+        }
+        Path path = getPath(glyphFont);
+        try {
+            Path tempPath = Files.createTempFile(directory, path.getFileName().toString(), null);
+            GlyphMetrics.write(tempPath, glyphFont, fontLevels);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.getGlobal().warning(String.format("Cannot save glyph metrics to \"%s\": %s", path,
+                    e.getMessage()));
+        }
+    }
+
+    private static Path getPath(GlyphFont glyphFont) {
+        String fontName = glyphFont.getName().replaceAll("[^A-Za-z0-9]+", "_");
+        return directory.resolve(fontName + "-" + glyphFont.getPixelResolution() + FILE_SUFFIX);
+    }
+}
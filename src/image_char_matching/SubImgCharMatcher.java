@@ -1,14 +1,42 @@
 package image_char_matching;
 
-import ascii_art.Shell;
-
 import java.util.*;
 
 /**
  * A class for matching characters based on image brightness and managing a set of characters.
+ * Characters can also be matched on shape, comparing the brightness of the cells of a tile to
+ * the coverage of the same cells of every glyph.
+ * Matches are memoized by the exact brightness or cell brightnesses of the tile, so repeated
+ * tiles are matched once and the result does not depend on the cache.
+ * The raw brightness level of every glyph is kept as measured, and matching normalizes it
+ * between the darkest and brightest glyphs of the current set, so the levels depend only on the
+ * set and not on the additions and removals it was built with.
+ * Glyphs are rendered only when a match or a brightness level is first needed: until then
+ * additions and removals only change the set, and the glyphs it gained are then measured at once.
+ * Glyphs are measured in the font and pixel resolution given to the constructor, through the
+ * GlyphRegistry, so a glyph already measured by any matcher is not rendered again.
  */
 public class SubImgCharMatcher {
-    private TreeMap<Character, Double> charMapSet;
+    // number of tiles memoized before the cache is cleared
+    private static final int MATCH_CACHE_SIZE = 1 << 12;
+    // raw brightness level of the glyph of every char measured for the set
+    private final TreeMap<Character, Double> charMapSet = new TreeMap<>();
+    // the same levels, sorted for the normalization and the brightness matches
+    private final BrightnessLevels brightnessLevels = new BrightnessLevels();
+    // font and pixel resolution the glyphs are measured in
+    private final GlyphFont glyphFont;
+    // chars of the set, which charMapSet catches up with when the glyphs are next needed
+    private final TreeSet<Character> keys = new TreeSet<>();
+    // whether keys changed since charMapSet last caught up
+    private boolean setChanged;
+    // shape index of the current set, built on the first shape match after a change
+    private GlyphIndex glyphIndex;
+    private int glyphIndexCellsPerSide;
+    // memoized matches of the current set, for tiles of matchCacheCellsPerSide cells per side
+    private final CharMatchCache matchCache = new CharMatchCache(MATCH_CACHE_SIZE);
+    private int matchCacheCellsPerSide = 1;
+    // the brightness of a tile as the values of the match cache, reused between matches
+    private final double[] brightnessValue = new double[1];
 
     /**
      * Constructs a SubImgCharMatcher with an initial set of characters and their brightness levels.
@@ -16,12 +44,19 @@ public class SubImgCharMatcher {
      * @param charset An array of characters to initialize the matcher.
      */
     public SubImgCharMatcher(char[] charset) {
+        this(charset, GlyphFont.DEFAULT);
+    }
 
-        charMapSet = new TreeMap<>();
-        for (char c : charset) {
-            charMapSet.put(c, calcCharBrightness(c));
-        }
-        calculateAllChar();
+    /**
+     * Constructs a SubImgCharMatcher whose glyphs are measured in the given font and pixel
+     * resolution.
+     *
+     * @param charset   An array of characters to initialize the matcher.
+     * @param glyphFont The font and pixel resolution to measure the glyphs in.
+     */
+    public SubImgCharMatcher(char[] charset, GlyphFont glyphFont) {
+        this.glyphFont = glyphFont;
+        addChars(charset);
     }
 
     /**
@@ -31,13 +66,82 @@ public class SubImgCharMatcher {
      * @return The character with the closest brightness match.
      */
     public char getCharByImageBrightness(double brightness) {
-        char minChar = Collections.min(charMapSet.keySet());
-        for (Character key : charMapSet.keySet()) {
-            if (Math.abs(charMapSet.get(key) - brightness) < Math.abs(charMapSet.get(minChar) - brightness)){
-                minChar = key;
-            }
+        applyPendingMutations();
+        useMatchCache(1);
+        brightnessValue[0] = brightness;
+        int cachedChar = matchCache.get(brightnessValue, 0, 1);
+        if (cachedChar != CharMatchCache.NO_CHAR) {
+            return (char) cachedChar;
         }
-        return minChar;
+        char c = findCharByBrightness(brightness);
+        matchCache.put(brightnessValue, 0, 1, c);
+        return c;
+    }
+
+    /**
+     * Scans the set for the character with the closest brightness match.
+     *
+     * @param brightness The target brightness level.
+     * @return The character with the closest brightness match.
+     */
+    private char findCharByBrightness(double brightness) {
+        return brightnessLevels.nearest(brightness);
+    }
+
+    /**
+     * Gets the character whose shape best matches the cells of a tile: the glyph cell coverages
+     * are shifted to the normalized brightness level of the glyph, and the character at the
+     * smallest euclidean distance is returned.
+     *
+     * @param cellBrightnesses The array holding the brightness of the tile cells.
+     * @param offset           The index of the first cell of the tile, followed by the others
+     *                         row by row.
+     * @param cellsPerSide     The number of cells per tile side.
+     * @return The character with the closest shape match.
+     */
+    public char getCharByCellBrightnesses(double[] cellBrightnesses, int offset, int cellsPerSide) {
+        applyPendingMutations();
+        if (glyphIndex == null || glyphIndexCellsPerSide != cellsPerSide) {
+            glyphIndex = buildGlyphIndex(cellsPerSide);
+            glyphIndexCellsPerSide = cellsPerSide;
+        }
+        int cellsCount = cellsPerSide * cellsPerSide;
+        useMatchCache(cellsPerSide);
+        int cachedChar = matchCache.get(cellBrightnesses, offset, cellsCount);
+        if (cachedChar != CharMatchCache.NO_CHAR) {
+            return (char) cachedChar;
+        }
+        char c = glyphIndex.nearest(cellBrightnesses, offset);
+        matchCache.put(cellBrightnesses, offset, cellsCount, c);
+        return c;
+    }
+
+    /**
+     * Gets the number of matches answered from the match cache.
+     *
+     * @return The number of cache hits since the matcher was created.
+     */
+    public long getMatchCacheHits() {
+        return matchCache.getHits();
+    }
+
+    /**
+     * Gets the number of matches that had to scan the set or search the shape index.
+     *
+     * @return The number of cache misses since the matcher was created.
+     */
+    public long getMatchCacheMisses() {
+        return matchCache.getMisses();
+    }
+
+    /**
+     * Gets the fraction of matches answered from the match cache.
+     *
+     * @return The hit rate between 0 and 1, or 0 if nothing was matched yet.
+     */
+    public double getMatchCacheHitRate() {
+        long lookups = matchCache.getHits() + matchCache.getMisses();
+        return lookups == 0 ? 0 : (double) matchCache.getHits() / lookups;
     }
 
     /**
@@ -46,14 +150,18 @@ public class SubImgCharMatcher {
      * @param c The character to add.
      */
     public void addChar(char c) {
-        if (Shell.charBrightnessContains(c)){
-            charMapSet.put(c, Shell.getCharBrightness(c));
-        }
-        else {
-            charMapSet.put(c, calcCharBrightness(c));
-            Shell.setCharBrightness(c, calcCharBrightness(c));
+        addChars(new char[]{c});
+    }
+
+    /**
+     * Adds characters to the matcher, measuring their glyphs together when they are next needed.
+     *
+     * @param chars The characters to add.
+     */
+    public void addChars(char[] chars) {
+        for (char c : chars) {
+            setChanged |= keys.add(c);
         }
-        calculateAllChar();
     }
 
     /**
@@ -62,8 +170,18 @@ public class SubImgCharMatcher {
      * @param c The character to remove.
      */
     public void removeChar(char c) {
-        charMapSet.remove(c);
-        calculateAllChar();
+        removeChars(new char[]{c});
+    }
+
+    /**
+     * Removes characters from the matcher.
+     *
+     * @param chars The characters to remove.
+     */
+    public void removeChars(char[] chars) {
+        for (char c : chars) {
+            setChanged |= keys.remove(c);
+        }
     }
 
     /**
@@ -72,28 +190,110 @@ public class SubImgCharMatcher {
      * @return the keys set of charMapSet.
      */
     public Set<Character> getKeysSet(){
-        return charMapSet.keySet();
+        return Collections.unmodifiableSet(keys);
     }
+    /**
+     * Returns the normalized brightness level a character of the set is matched by.
+     *
+     * @param c A character of the set.
+     * @return The brightness level of the character, between 0 and 1.
+     */
+    public double getNormalizedBrightness(char c) {
+        applyPendingMutations();
+        return brightnessLevels.normalize(charMapSet.get(c));
+    }
+
     /**
      * Returns charMapSet size.
      *
      * @return the size of charMapSet.
      */
     public int getSetSize(){
-        return charMapSet.size();
+        return keys.size();
+    }
+
+    /**
+     * Brings the measured levels up to date with the set: drops the levels of the removed chars
+     * and renders the glyphs of the added ones, all at once.
+     */
+    private void applyPendingMutations() {
+        if (!setChanged) {
+            return;
+        }
+        Iterator<Map.Entry<Character, Double>> entries = charMapSet.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Character, Double> entry = entries.next();
+            if (!keys.contains(entry.getKey())) {
+                brightnessLevels.remove(entry.getKey(), entry.getValue());
+                entries.remove();
+            }
+        }
+        List<Character> added = new ArrayList<>();
+        for (char c : keys) {
+            if (!charMapSet.containsKey(c)) {
+                added.add(c);
+            }
+        }
+        Map<Character, Double> rawBrightnesses = GlyphRegistry.getBrightnesses(glyphFont, added);
+        for (char c : added) {
+            charMapSet.put(c, rawBrightnesses.get(c));
+            brightnessLevels.add(c, rawBrightnesses.get(c));
+        }
+        setChanged = false;
+        glyphIndex = null;
+        matchCache.clear();
+    }
+
+    /**
+     * Clears the match cache if it holds matches of tiles of a different number of cells, whose
+     * values mean other tiles.
+     *
+     * @param cellsPerSide The number of cells per side of the tiles about to be matched.
+     */
+    private void useMatchCache(int cellsPerSide) {
+        if (matchCacheCellsPerSide != cellsPerSide) {
+            matchCache.clear();
+            matchCacheCellsPerSide = cellsPerSide;
+        }
     }
 
     /**
-     * Recalculates the normalized brightness levels for all characters in the set.
+     * Builds the shape index of the current set, with every glyph shifted so that its mean
+     * coverage is its normalized brightness level.
+     *
+     * @param cellsPerSide The number of cells per glyph side.
+     * @return The shape index.
      */
-    private void calculateAllChar() {
-        if (charMapSet.size() > 1){
-            double min = Collections.min(charMapSet.values());
-            double max = Collections.max(charMapSet.values());
-            for (Map.Entry<Character, Double> entry : charMapSet.entrySet()) {
-                charMapSet.put(entry.getKey(), newCalcCharBrightness(entry.getValue(), min, max));
+    private GlyphIndex buildGlyphIndex(int cellsPerSide) {
+        int dimensions = cellsPerSide * cellsPerSide;
+        char[] chars = new char[charMapSet.size()];
+        float[] features = new float[chars.length * dimensions];
+        double[] means = new double[chars.length];
+        GlyphFeatures.prepare(charMapSet.keySet(), cellsPerSide, glyphFont);
+        int index = 0;
+        for (char c : charMapSet.keySet()) {
+            chars[index] = c;
+            float[] glyphFeatures = GlyphFeatures.getFeatures(c, cellsPerSide, glyphFont);
+            System.arraycopy(glyphFeatures, 0, features, index * dimensions, dimensions);
+            for (float feature : glyphFeatures) {
+                means[index] += feature;
+            }
+            means[index] /= dimensions;
+            index++;
+        }
+        double min = Arrays.stream(means).min().orElse(0);
+        double max = Arrays.stream(means).max().orElse(0);
+        if (max > min) {
+            // Move every glyph to its normalized brightness but keep the contrast of its cells,
+            // stretching it too would let the shape outweigh the tone of a tile
+            for (int i = 0; i < chars.length; i++) {
+                double shift = newCalcCharBrightness(means[i], min, max) - means[i];
+                for (int k = i * dimensions; k < (i + 1) * dimensions; k++) {
+                    features[k] = (float) (features[k] + shift);
+                }
             }
         }
+        return new GlyphIndex(chars, features, dimensions);
     }
 
     /**
@@ -113,10 +313,11 @@ public class SubImgCharMatcher {
      * the count of 'true' cells in its binary representation.
      *
      * @param c The character to calculate brightness for.
+     * @param glyphFont The font and pixel resolution to render the character in.
      * @return The calculated brightness level.
      */
-    private double calcCharBrightness(char c) {
-        boolean[][] charBoolArr = CharConverter.convertToBoolArray(c);
+    static double calcCharBrightness(char c, GlyphFont glyphFont) {
+        boolean[][] charBoolArr = CharConverter.convertToBoolArray(c, glyphFont);
         return (double) countWhiteCells(charBoolArr) / (charBoolArr.length * charBoolArr[0].length);
     }
 
@@ -126,7 +327,7 @@ public class SubImgCharMatcher {
      * @param charBoolArr The boolean array to count 'true' cells in.
      * @return The count of 'true' cells.
      */
-    private int countWhiteCells(boolean[][] charBoolArr) {
+    private static int countWhiteCells(boolean[][] charBoolArr) {
         int whiteCellsCount = 0;
         for (boolean[] row : charBoolArr) {
             for (boolean cell : row) {
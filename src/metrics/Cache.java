@@ -0,0 +1,24 @@
+package metrics;
+
+/**
+ * The caches whose hit ratio is recorded.
+ */
+public enum Cache {
+    /**
+     * Tile brightness of an image file per tile grid, kept by the Shell.
+     */
+    BRIGHTNESS,
+    /**
+     * Tile brightness published by any process of the host, looked up when the Shell's own
+     * brightness cache misses.
+     */
+    SHARED_BRIGHTNESS,
+    /**
+     * Chars matched to a tile brightness or cell signature.
+     */
+    CHAR_MATCH,
+    /**
+     * Finished renders keyed by their full render parameters.
+     */
+    RENDER
+}
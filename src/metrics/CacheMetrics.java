@@ -0,0 +1,36 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The hit and miss counters of one cache.
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    CacheMetrics() {
+    }
+
+    void record(long hitsCount, long missesCount) {
+        hits.add(hitsCount);
+        misses.add(missesCount);
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hitsCount = hits.sum();
+        long lookups = hitsCount + misses.sum();
+        return lookups == 0 ? 0 : (double) hitsCount / lookups;
+    }
+}
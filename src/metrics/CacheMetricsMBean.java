@@ -0,0 +1,21 @@
+package metrics;
+
+/**
+ * The management interface of the hit ratio of one cache, exposed over JMX.
+ */
+public interface CacheMetricsMBean {
+    /**
+     * @return The number of lookups answered by the cache.
+     */
+    long getHits();
+
+    /**
+     * @return The number of lookups the cache could not answer.
+     */
+    long getMisses();
+
+    /**
+     * @return The fraction of lookups answered by the cache, 0 if there were none.
+     */
+    double getHitRate();
+}
@@ -0,0 +1,118 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, with a fixed relative
+ * precision over the whole long range, in the manner of HdrHistogram.
+ * Values below 128 get a bucket each, and every power of 2 range above is split into 64
+ * buckets, so a reported value is within 1/64 of a recorded one. Recording is a handful of
+ * atomic increments and never allocates, so it can be called from any thread at any rate.
+ */
+public class LatencyHistogram {
+    // values below this get a bucket of their own
+    private static final int LINEAR_BUCKETS = 128;
+    // buckets per power of 2 above the linear range
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Long.MAX_VALUE has its highest bit at 62, the last range starts at 2^62
+    private static final int BUCKETS_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value The value, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return The number of recorded values.
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return The exact mean, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return The exact maximum, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the value below which the given percentage of the recorded values fall.
+     *
+     * @param percentile The percentage, between 0 and 100.
+     * @return The largest value of the bucket holding the percentile, capped by the maximum, or 0
+     * if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        // The rank of the value sought, at least the first value
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        // Values recorded while scanning
+        return getMax();
+    }
+
+    /**
+     * Gets the bucket of a value: the value itself below the linear range, and above it the
+     * 64 buckets of the power of 2 range of the value, indexed by its 6 bits below the highest.
+     */
+    private static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        // How far the value is shifted to keep 7 significant bits, at least 1 here
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValue(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        // The last bucket ends at Long.MAX_VALUE, one below the overflowing bound
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,226 @@
+package metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the latency, throughput and allocations of every pipeline stage, and the hit ratio
+ * of every cache, for the whole process.
+ * A stage is measured by taking a sample when it starts and stopping it when it ends:
+ * <pre>
+ *     PipelineMetrics.Sample sample = PipelineMetrics.start(Stage.FILL);
+ *     ...
+ *     sample.stop(pixelsCount, bytesCount);
+ * </pre>
+ * A sample costs two clock reads, two allocation counter reads and a few atomic additions, so
+ * the metrics are always on. They are read through getReport, or over JMX once registerMBeans
+ * was called. When a JFR recording enables it, every sample also commits a StageEvent.
+ */
+public final class PipelineMetrics {
+    // domain of the JMX object names
+    private static final String JMX_DOMAIN = "ascii_art";
+    private static final Logger LOGGER = Logger.getLogger(PipelineMetrics.class.getName());
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private static final Map<Stage, StageMetrics> STAGES = new EnumMap<>(Stage.class);
+    private static final Map<Cache, CacheMetrics> CACHES = new EnumMap<>(Cache.class);
+    // reports the bytes allocated by a thread, or null if the JVM cannot
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationsBean();
+    private static boolean registered = false;
+
+    static {
+        for (Stage stage : Stage.values()) {
+            STAGES.put(stage, new StageMetrics(stage));
+        }
+        for (Cache cache : Cache.values()) {
+            CACHES.put(cache, new CacheMetrics());
+        }
+    }
+
+    /**
+     * A measurement of one run of a stage, taken when it starts.
+     */
+    public static final class Sample {
+        private final Stage stage;
+        private final long startNanos;
+        private final long startAllocated;
+        private final StageEvent event = new StageEvent();
+
+        private Sample(Stage stage) {
+            this.stage = stage;
+            startAllocated = allocatedBytes();
+            event.begin();
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Ends the run of the stage, recording its latency and what it processed.
+         *
+         * @param units The units processed, counted as the stage unit says.
+         * @param bytes The bytes read or written, or 0 if the stage does not know them.
+         */
+        public void stop(long units, long bytes) {
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = startAllocated < 0 ? 0 : allocatedBytes() - startAllocated;
+            STAGES.get(stage).record(nanos, units, bytes, allocated);
+            if (event.shouldCommit()) {
+                event.stage = stage.name();
+                event.units = units;
+                event.unit = stage.getUnit();
+                event.bytes = bytes;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Starts measuring a run of a stage.
+     *
+     * @param stage The stage starting.
+     * @return The sample to stop when the stage ends.
+     */
+    public static Sample start(Stage stage) {
+        return new Sample(stage);
+    }
+
+    /**
+     * Records lookups of a cache.
+     *
+     * @param cache  The cache looked up.
+     * @param hits   The number of lookups it answered.
+     * @param misses The number of lookups it could not answer.
+     */
+    public static void recordCacheLookups(Cache cache, long hits, long misses) {
+        CACHES.get(cache).record(hits, misses);
+    }
+
+    /**
+     * Records one lookup of a cache.
+     *
+     * @param cache The cache looked up.
+     * @param hit   Whether it answered the lookup.
+     */
+    public static void recordCacheLookup(Cache cache, boolean hit) {
+        recordCacheLookups(cache, hit ? 1 : 0, hit ? 0 : 1);
+    }
+
+    /**
+     * Gets the metrics of a stage.
+     *
+     * @param stage The stage.
+     * @return Its metrics since the process started.
+     */
+    public static StageMetrics getStageMetrics(Stage stage) {
+        return STAGES.get(stage);
+    }
+
+    /**
+     * Gets the metrics of a cache.
+     *
+     * @param cache The cache.
+     * @return Its metrics since the process started.
+     */
+    public static CacheMetrics getCacheMetrics(Cache cache) {
+        return CACHES.get(cache);
+    }
+
+    /**
+     * Registers the metrics of every stage and cache with the platform MBean server, under
+     * ascii_art:type=Stage,name=... and ascii_art:type=Cache,name=...
+     * Calling it again does nothing.
+     */
+    public static synchronized void registerMBeans() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Map.Entry<Stage, StageMetrics> entry : STAGES.entrySet()) {
+                server.registerMBean(entry.getValue(), objectName("Stage", entry.getKey().name()));
+            }
+            for (Map.Entry<Cache, CacheMetrics> entry : CACHES.entrySet()) {
+                server.registerMBean(entry.getValue(), objectName("Cache", entry.getKey().name()));
+            }
+        } catch (JMException e) {
+            // The metrics stay readable through getReport
+            LOGGER.log(Level.WARNING, "Cannot register the pipeline metrics MBeans", e);
+        }
+    }
+
+    /**
+     * Describes the startup times, the metrics of every stage that ran and of every cache that
+     * was looked up, one per line.
+     *
+     * @return The report, empty if nothing was recorded yet.
+     */
+    public static String getReport() {
+        StringBuilder report = new StringBuilder();
+        if (StartupTimer.getFirstPromptMillis() >= 0) {
+            report.append(String.format("%-12s first prompt %d ms  first render %s%n", "startup",
+                    StartupTimer.getFirstPromptMillis(), StartupTimer.getFirstRenderMillis() < 0
+                            ? "pending" : StartupTimer.getFirstRenderMillis() + " ms"));
+        }
+        for (Map.Entry<Stage, StageMetrics> entry : STAGES.entrySet()) {
+            StageMetrics metrics = entry.getValue();
+            LatencyHistogram latencies = metrics.getLatencies();
+            if (latencies.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format("%-12s count %d  mean %.3f ms  p50 %.3f ms  p99 %.3f ms  max %.3f ms"
+                            + "  %d %s  %d bytes  %d allocated%n",
+                    entry.getKey().name().toLowerCase(), latencies.getCount(),
+                    latencies.getMean() / NANOS_PER_MILLI,
+                    latencies.getValueAtPercentile(50) / NANOS_PER_MILLI,
+                    latencies.getValueAtPercentile(99) / NANOS_PER_MILLI,
+                    latencies.getMax() / NANOS_PER_MILLI,
+                    metrics.getUnitsProcessed(), metrics.getUnit(), metrics.getBytesProcessed(),
+                    metrics.getAllocatedBytes()));
+        }
+        for (Map.Entry<Cache, CacheMetrics> entry : CACHES.entrySet()) {
+            CacheMetrics metrics = entry.getValue();
+            if (metrics.getHits() + metrics.getMisses() == 0) {
+                continue;
+            }
+            report.append(String.format("%-12s hits %d  misses %d  hit rate %.1f%%%n",
+                    entry.getKey().name().toLowerCase() + " cache", metrics.getHits(), metrics.getMisses(),
+                    metrics.getHitRate() * 100));
+        }
+        return report.toString();
+    }
+
+    private static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + name);
+    }
+
+    private static com.sun.management.ThreadMXBean allocationsBean() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+                return allocations;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the bytes allocated so far by the current thread.
+     *
+     * @return The allocated bytes, or -1 if the JVM cannot report them.
+     */
+    private static long allocatedBytes() {
+        return ALLOCATIONS == null ? -1 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,86 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JFR event spanning one render of an image to ASCII art, with what determines its cost, so
+ * a continuous recording shows which renders are slow and why.
+ * The stages it ran are StageEvents of the same thread inside its time span.
+ */
+@Name("ascii_art.Render")
+@Label("ASCII Art Render")
+@Category("ASCII Art")
+@Description("One render of an image to ASCII art")
+@StackTrace(false)
+public class RenderEvent extends Event {
+    /**
+     * The width of the decoded image, 0 if its brightness was cached and it was not decoded.
+     */
+    @Label("Image Width")
+    public int imageWidth;
+
+    /**
+     * The height of the decoded image, 0 if its brightness was cached and it was not decoded.
+     */
+    @Label("Image Height")
+    public int imageHeight;
+
+    /**
+     * The number of tile columns.
+     */
+    @Label("Resolution")
+    public int resolution;
+
+    /**
+     * The number of tile rows.
+     */
+    @Label("Rows")
+    public int rows;
+
+    /**
+     * The number of tiles matched.
+     */
+    @Label("Tile Count")
+    public int tileCount;
+
+    /**
+     * The number of cells per tile side, more than 1 when matching on shape.
+     */
+    @Label("Cells Per Side")
+    public int cellsPerSide;
+
+    /**
+     * The number of chars in the charset.
+     */
+    @Label("Charset Size")
+    public int charSetSize;
+
+    /**
+     * The dithering mode.
+     */
+    @Label("Dither Mode")
+    public String ditherMode;
+
+    /**
+     * Whether the tile brightness came from the cache instead of the image.
+     */
+    @Label("Brightness Cache Hit")
+    public boolean brightnessCacheHit;
+
+    /**
+     * The number of tiles whose char came from the char match cache.
+     */
+    @Label("Char Match Cache Hits")
+    public long charMatchCacheHits;
+
+    /**
+     * The number of tiles whose char had to be matched.
+     */
+    @Label("Char Match Cache Misses")
+    public long charMatchCacheMisses;
+}
@@ -0,0 +1,50 @@
+package metrics;
+
+/**
+ * The stages of the rendering pipeline whose latency and throughput are recorded.
+ */
+public enum Stage {
+    /**
+     * Reading and decoding an image file, in pixels decoded and file bytes read.
+     */
+    DECODE("pixels"),
+    /**
+     * Padding an image to power of 2 dimensions, in pixels written.
+     */
+    FILL("pixels"),
+    /**
+     * Dividing an image into sub-images, in pixels copied.
+     */
+    SUB_IMAGES("pixels"),
+    /**
+     * Calculating the brightness of every tile, in pixels read.
+     */
+    BRIGHTNESS("pixels"),
+    /**
+     * Matching every tile to a character, in tiles matched.
+     */
+    MATCHING("tiles"),
+    /**
+     * Rendering a character in the glyph font, in glyphs rendered.
+     */
+    GLYPH_RENDER("glyphs"),
+    /**
+     * Writing ASCII art to an output, in chars written.
+     */
+    OUTPUT("chars");
+
+    private final String unit;
+
+    Stage(String unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Gets what the units processed by this stage count.
+     *
+     * @return The unit name, e.g. "pixels".
+     */
+    public String getUnit() {
+        return unit;
+    }
+}
@@ -0,0 +1,39 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JFR event spanning one run of a pipeline stage, committed along with its metrics sample.
+ * The stages of a render run on the thread of its RenderEvent, inside its time span.
+ */
+@Name("ascii_art.Stage")
+@Label("Pipeline Stage")
+@Category("ASCII Art")
+@Description("One run of a stage of the ASCII art pipeline")
+@StackTrace(false)
+public class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Units Processed")
+    @Description("Units processed by the stage, counted as the unit says")
+    long units;
+
+    @Label("Unit")
+    String unit;
+
+    @Label("Bytes Processed")
+    @DataAmount
+    long bytes;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread running the stage")
+    @DataAmount
+    long allocated;
+}
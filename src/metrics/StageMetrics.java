@@ -0,0 +1,81 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latency histogram and throughput counters of one pipeline stage.
+ */
+public class StageMetrics implements StageMetricsMBean {
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private final Stage stage;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder unitsProcessed = new LongAdder();
+    private final LongAdder bytesProcessed = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    StageMetrics(Stage stage) {
+        this.stage = stage;
+    }
+
+    void record(long nanos, long units, long bytes, long allocated) {
+        latencies.record(nanos);
+        unitsProcessed.add(units);
+        bytesProcessed.add(bytes);
+        allocatedBytes.add(allocated);
+    }
+
+    /**
+     * Gets the latency histogram of the stage.
+     *
+     * @return The histogram, in nanoseconds.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public long getCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latencies.getMean() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latencies.getValueAtPercentile(50) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latencies.getValueAtPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latencies.getMax() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getUnitsProcessed() {
+        return unitsProcessed.sum();
+    }
+
+    @Override
+    public String getUnit() {
+        return stage.getUnit();
+    }
+
+    @Override
+    public long getBytesProcessed() {
+        return bytesProcessed.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+}
@@ -0,0 +1,51 @@
+package metrics;
+
+/**
+ * The management interface of the metrics of one pipeline stage, exposed over JMX.
+ */
+public interface StageMetricsMBean {
+    /**
+     * @return The number of times the stage ran.
+     */
+    long getCount();
+
+    /**
+     * @return The mean latency of the stage, in microseconds.
+     */
+    double getMeanMicros();
+
+    /**
+     * @return The median latency of the stage, in microseconds.
+     */
+    double getP50Micros();
+
+    /**
+     * @return The 99th percentile latency of the stage, in microseconds.
+     */
+    double getP99Micros();
+
+    /**
+     * @return The largest latency of the stage, in microseconds.
+     */
+    double getMaxMicros();
+
+    /**
+     * @return The units processed by the stage, counted as its unit says.
+     */
+    long getUnitsProcessed();
+
+    /**
+     * @return What the units processed count, e.g. "pixels".
+     */
+    String getUnit();
+
+    /**
+     * @return The bytes read or written by the stage, where it knows them.
+     */
+    long getBytesProcessed();
+
+    /**
+     * @return The bytes allocated by the threads running the stage, where the JVM reports them.
+     */
+    long getAllocatedBytes();
+}
@@ -0,0 +1,55 @@
+package metrics;
+
+/**
+ * Measures the time from the launch of the process to the first prompt and to the first render.
+ * It only reads the clock, so marking the first prompt does not load the metrics themselves.
+ */
+public final class StartupTimer {
+    private static volatile long firstPromptMillis = -1;
+    private static volatile long firstRenderMillis = -1;
+
+    private StartupTimer() {
+    }
+
+    /**
+     * Marks the first prompt, if it was not marked yet.
+     */
+    public static void markFirstPrompt() {
+        if (firstPromptMillis < 0) {
+            firstPromptMillis = millisSinceLaunch();
+        }
+    }
+
+    /**
+     * Marks the end of the first render, if it was not marked yet.
+     */
+    public static void markFirstRender() {
+        if (firstRenderMillis < 0) {
+            firstRenderMillis = millisSinceLaunch();
+        }
+    }
+
+    /**
+     * Gets the time from the launch of the process to the first prompt.
+     *
+     * @return The time in milliseconds, or -1 if unknown or not reached yet.
+     */
+    public static long getFirstPromptMillis() {
+        return firstPromptMillis;
+    }
+
+    /**
+     * Gets the time from the launch of the process to the end of the first render.
+     *
+     * @return The time in milliseconds, or -1 if unknown or not reached yet.
+     */
+    public static long getFirstRenderMillis() {
+        return firstRenderMillis;
+    }
+
+    private static long millisSinceLaunch() {
+        return ProcessHandle.current().info().startInstant()
+                .map(launch -> System.currentTimeMillis() - launch.toEpochMilli())
+                .orElse(-1L);
+    }
+}
@@ -0,0 +1,977 @@
+package ascii_art;
+
+import ascii_output.AsciiPatch;
+import ascii_output.BinaryAsciiOutput;
+import ascii_output.BinaryAsciiReader;
+import ascii_output.HtmlAsciiOutput;
+import image.FusedBrightnessCalc;
+import image.Image;
+import image.ImageCalc;
+import image.ImageSequence;
+import image.TileGrid;
+import image_char_matching.GlyphFont;
+import image_char_matching.GlyphMetrics;
+import image_char_matching.GlyphRegistry;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that the optimized rendering paths still produce what they produced before, and still
+ * outrun the reference paths they replace, on deterministic synthetic images: a gradient, a
+ * checkerboard and seeded noise.
+ * <ul>
+ *     <li>Golden outputs: the ASCII art of every image at several resolutions, charsets, dither
+ *     modes and grids, and a digest of the HTML output, are recorded to a file and compared
+ *     with it later. Glyph brightness depends on the fonts installed, so it is read from a glyph
+ *     metrics file next to the goldens, written by the first record, and the goldens hold on
+ *     every machine. Shape matching renders the glyph cells in the installed fonts, so its art
+ *     is a machine golden, kept apart with the throughputs.</li>
+ *     <li>Properties: the fused brightness pass equals the reference path of padding, sub-images
+ *     and per image brightness, and the floating point luminance formula within the kernel's
+ *     tolerance; every specialized pass equals the plain one; the matcher equals a linear scan of
+ *     the normalized glyph levels, also after seeded sequences of adds and removes, where it
+ *     equals a matcher built from the final set too; progressive renders end on the art of run,
+ *     and patches of incremental renders on the art of a full render; the PPM decoder equals
+ *     ImageIO, and raw gray buffers decode to their samples; binary frames, appended by two
+ *     outputs, read back as written; brightness and renders read back from the shared cache and
+ *     the spill files as put; and GIF frames are composited according to their disposal.</li>
+ *     <li>Performance: the fused pass must be faster than the floating point reference. When a
+ *     machine golden file is given, the throughput of the fused brightness pass and of the matcher
+ *     is recorded with it, and a check fails if either falls below half of it; no throughput is
+ *     compared without one.</li>
+ * </ul>
+ * Every failure is printed, and the exit status is 1 if any check failed.
+ */
+public class RegressionCheck {
+    private static final int[] RESOLUTIONS = {4, 16, 64};
+    private static final String[] CHARSETS = {"0123456789", " .:-=+*#%@", allPrintable()};
+    // seed of the noise image, java.util.Random is the same sequence on every JVM
+    private static final long NOISE_SEED = 42;
+    // luminance kernel tolerance against the floating point formula
+    private static final double BRIGHTNESS_TOLERANCE = 1.1e-5;
+    // distance by which a matched char may be farther than the closest one, for quantization
+    private static final double MATCH_TOLERANCE = 1e-9;
+    // seeded add and remove sequences a matcher is changed in place with, and their length
+    private static final int MUTATION_SEQUENCES = 200;
+    private static final int MUTATIONS_PER_SEQUENCE = 30;
+    private static final long MUTATION_SEED = 7;
+    // timed runs per path, the fastest one is compared
+    private static final int RUNS = 5;
+    // side of the image the brightness paths are timed on
+    private static final int PERFORMANCE_IMAGE_SIZE = 2048;
+    private static final int PERFORMANCE_RESOLUTION = 128;
+    // brightness values the matching paths are timed on
+    private static final int PERFORMANCE_MATCHES = 1 << 20;
+    private static final String ART_PREFIX = "art ";
+    private static final String HTML_PREFIX = "html ";
+    private static final String THROUGHPUT_PREFIX = "throughput ";
+    // share of the recorded throughput a stage may fall to before the check fails
+    private static final double MIN_THROUGHPUT_SHARE = 0.5;
+    // every row of art is prefixed, so rows of spaces survive and never read as a keyword
+    private static final String ROW_PREFIX = "|";
+    private static final String END = "end";
+    // glyph metrics file the goldens are rendered with, in the directory of the golden file
+    private static final String GLYPH_METRICS_FILE = "glyph-metrics.properties";
+    // seed of the frames, renders and samples the persistence and incremental paths are checked on
+    private static final long FRAME_SEED = 11;
+    private static final int FRAME_COUNT = 6;
+    private static final int FRAME_ROWS = 9;
+    private static final int FRAME_COLS = 13;
+    // a shared brightness cache of 16 index slots, compacted after every 8 images published
+    private static final long SHARED_CACHE_SIZE = 64 << 10;
+    private static final int SHARED_CACHE_PUTS = 20;
+
+    private final Path directory;
+    private final List<String> failures = new ArrayList<>();
+
+    private RegressionCheck(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param args "record" or "check" followed by the golden file, and optionally a machine
+     *             golden file for the shape art and the throughputs of this machine, to compare
+     *             the outputs with the goldens, or nothing to run the property and performance
+     *             checks only.
+     * @throws IOException If an error occurs while writing the images or the goldens.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean record = (args.length == 2 || args.length == 3) && args[0].equals("record");
+        boolean check = (args.length == 2 || args.length == 3) && args[0].equals("check");
+        if (args.length != 0 && !record && !check) {
+            System.err.println("Usage: RegressionCheck [record|check <golden file> [<machine golden file>]]");
+            System.exit(2);
+        }
+        // The HTML output formats numbers in the default locale
+        Locale.setDefault(Locale.ROOT);
+        Path goldenFile = record || check ? Paths.get(args[1]) : null;
+        Path machineGoldenFile = args.length == 3 ? Paths.get(args[2]) : null;
+        if (record || check) {
+            loadGlyphMetrics(goldenFile.toAbsolutePath().resolveSibling(GLYPH_METRICS_FILE), record);
+        }
+        Path directory = Files.createTempDirectory("regression-check");
+        RegressionCheck regressionCheck = new RegressionCheck(directory);
+        try {
+            Map<String, String> images = regressionCheck.writeImages();
+            Map<String, List<String>> outputs = record || check ? regressionCheck.renderGoldens(images) : null;
+            Map<String, List<String>> machineOutputs = machineGoldenFile != null
+                    ? regressionCheck.renderMachineGoldens(images) : null;
+            regressionCheck.checkProperties(images);
+            Map<String, Double> throughputs = regressionCheck.checkPerformance();
+            if (record) {
+                writeGoldens(goldenFile, outputs);
+                System.out.println("Recorded " + outputs.size() + " goldens to " + goldenFile);
+                if (machineGoldenFile != null) {
+                    for (Map.Entry<String, Double> entry : throughputs.entrySet()) {
+                        machineOutputs.put(THROUGHPUT_PREFIX + entry.getKey(),
+                                List.of(String.valueOf(entry.getValue())));
+                    }
+                    writeGoldens(machineGoldenFile, machineOutputs);
+                    System.out.println("Recorded " + machineOutputs.size() + " machine goldens to "
+                            + machineGoldenFile);
+                }
+            } else if (check) {
+                regressionCheck.compareGoldens(readGoldens(goldenFile), outputs);
+                if (machineGoldenFile != null) {
+                    Map<String, List<String>> machineGoldens = readGoldens(machineGoldenFile);
+                    regressionCheck.compareGoldens(machineGoldens, machineOutputs);
+                    regressionCheck.compareThroughputs(machineGoldens, throughputs);
+                }
+            }
+        } finally {
+            try (var paths = Files.list(directory)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+        for (String failure : regressionCheck.failures) {
+            System.out.println("FAILED: " + failure);
+        }
+        System.out.println(regressionCheck.failures.isEmpty() ? "All checks passed."
+                : regressionCheck.failures.size() + " checks failed.");
+        System.exit(regressionCheck.failures.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Registers the glyph brightness levels of the default font the goldens are rendered with.
+     * A record writes them from the installed fonts first if the file does not exist yet, so
+     * recording again on another machine keeps them.
+     *
+     * @param path   The glyph metrics file.
+     * @param record Whether the goldens are recorded.
+     * @throws IOException If the file cannot be written, or read.
+     */
+    private static void loadGlyphMetrics(Path path, boolean record) throws IOException {
+        if (record && !Files.exists(path)) {
+            GlyphMetrics.write(path);
+            System.out.println("Wrote glyph metrics to " + path);
+        }
+        // Levels read back from the file, so the recording run matches with what later runs read
+        GlyphRegistry.register(GlyphFont.DEFAULT, GlyphMetrics.read(path));
+    }
+
+    /**
+     * Writes the synthetic images as PNG files, and the noise image as a PPM file too.
+     *
+     * @return The paths of the images by name.
+     */
+    private Map<String, String> writeImages() throws IOException {
+        Map<String, String> images = new LinkedHashMap<>();
+        images.put("gradient", writePng("gradient", gradient(320, 200)));
+        images.put("checkerboard", writePng("checkerboard", checkerboard(256, 256, 32)));
+        BufferedImage noise = noise(333, 257, NOISE_SEED);
+        images.put("noise", writePng("noise", noise));
+        images.put("noise-ppm", writePpm("noise", noise));
+        return images;
+    }
+
+    /**
+     * Renders every golden case.
+     *
+     * @return The lines of every output by case name.
+     */
+    private Map<String, List<String>> renderGoldens(Map<String, String> images) throws IOException {
+        Map<String, List<String>> outputs = new LinkedHashMap<>();
+        for (String imageName : new String[]{"gradient", "checkerboard", "noise"}) {
+            String imagePath = images.get(imageName);
+            for (int resolution : RESOLUTIONS) {
+                for (int c = 0; c < CHARSETS.length; c++) {
+                    outputs.put(imageName + " res " + resolution + " charset " + c,
+                            toLines(render(imagePath, TileGrid.square(resolution), CHARSETS[c], DitherMode.NONE)));
+                }
+            }
+        }
+        String noisePath = images.get("noise");
+        char[] digits = CHARSETS[0].toCharArray();
+        outputs.put("noise res 16 ordered", toLines(render(noisePath, TileGrid.square(16), CHARSETS[1],
+                DitherMode.ORDERED)));
+        outputs.put("noise res 16 error diffusion", toLines(render(noisePath, TileGrid.square(16), CHARSETS[1],
+                DitherMode.ERROR_DIFFUSION)));
+        outputs.put("noise res 16 aspect", toLines(render(noisePath, TileGrid.aspect(16, 0.5), CHARSETS[0],
+                DitherMode.NONE)));
+
+        // The HTML output is pinned by a digest of the file it writes
+        String htmlPath = directory.resolve("out.html").toString();
+        HtmlAsciiOutput htmlAsciiOutput = new HtmlAsciiOutput(htmlPath, GlyphFont.DEFAULT.getName());
+        htmlAsciiOutput.out(render(images.get("gradient"), TileGrid.square(16), CHARSETS[0], DitherMode.NONE));
+        outputs.put("html gradient res 16", List.of(digest(htmlPath)));
+        AsciiArtAlgorithm colorAlgorithm = new AsciiArtAlgorithm(noisePath, TileGrid.square(16), digits, true);
+        htmlAsciiOutput.outColor(colorAlgorithm.run(), colorAlgorithm.getTileColors());
+        outputs.put("html noise res 16 color", List.of(digest(htmlPath)));
+        return outputs;
+    }
+
+    /**
+     * Renders every case depending on the fonts installed on the machine.
+     *
+     * @return The lines of every output by case name.
+     */
+    private Map<String, List<String>> renderMachineGoldens(Map<String, String> images) throws IOException {
+        Map<String, List<String>> outputs = new LinkedHashMap<>();
+        outputs.put("noise res 16 shape", toLines(render(images.get("noise"),
+                TileGrid.square(16).withCellsPerSide(3), CHARSETS[2], DitherMode.NONE)));
+        return outputs;
+    }
+
+    /**
+     * Compares the outputs with the goldens, reporting the first differing line of every case.
+     */
+    private void compareGoldens(Map<String, List<String>> goldens, Map<String, List<String>> outputs) {
+        for (Map.Entry<String, List<String>> entry : outputs.entrySet()) {
+            List<String> golden = goldens.get(entry.getKey());
+            if (golden == null) {
+                failures.add("no golden for " + entry.getKey());
+                continue;
+            }
+            List<String> output = entry.getValue();
+            for (int i = 0; i < Math.max(golden.size(), output.size()); i++) {
+                String expected = i < golden.size() ? golden.get(i) : "<none>";
+                String actual = i < output.size() ? output.get(i) : "<none>";
+                if (!expected.equals(actual)) {
+                    failures.add(entry.getKey() + " line " + i + ": expected \"" + expected + "\" but was \""
+                            + actual + "\"");
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that every optimized path equals the path it replaces.
+     */
+    private void checkProperties(Map<String, String> images) throws IOException {
+        FusedBrightnessCalc fusedBrightnessCalc = new FusedBrightnessCalc();
+        ImageCalc imageCalc = new ImageCalc();
+        for (String imageName : new String[]{"gradient", "checkerboard", "noise"}) {
+            String imagePath = images.get(imageName);
+            BufferedImage decoded = Image.readImage(imagePath);
+            Image image = new Image(decoded);
+            Image filled = imageCalc.imageFill(image);
+            double[][] merged = fusedBrightnessCalc.getTileBrightnesses(decoded, RESOLUTIONS);
+            for (int k = 0; k < RESOLUTIONS.length; k++) {
+                int resolution = RESOLUTIONS[k];
+                String name = imageName + " res " + resolution;
+                double[] fused = fusedBrightnessCalc.getTileBrightnesses(decoded, resolution);
+                List<Image> subImages = imageCalc.getSubImages(filled, resolution);
+                double[] reference = new double[subImages.size()];
+                double[] exact = new double[subImages.size()];
+                for (int t = 0; t < reference.length; t++) {
+                    reference[t] = imageCalc.getImageBrightness(subImages.get(t));
+                    exact[t] = floatingPointBrightness(subImages.get(t));
+                }
+                expectEqual(name + ": fused brightness against sub-images", reference, fused, 0);
+                expectEqual(name + ": fused brightness against floating point", exact, fused,
+                        BRIGHTNESS_TOLERANCE);
+                expectEqual(name + ": packed image pass", fused,
+                        fusedBrightnessCalc.getTileBrightnesses(image, resolution, new long[resolution * resolution]),
+                        0);
+                expectEqual(name + ": multi-resolution pass", fused, merged[k], 0);
+                double[] bands = new double[fused.length];
+                for (int firstRow = 0; firstRow < resolution; firstRow += 3) {
+                    double[] band = fusedBrightnessCalc.getTileBrightnesses(decoded, resolution, firstRow,
+                            Math.min(firstRow + 3, resolution));
+                    System.arraycopy(band, 0, bands, firstRow * resolution, band.length);
+                }
+                expectEqual(name + ": band passes", fused, bands, 0);
+            }
+        }
+
+        // The PPM decoder reads the same pixels ImageIO reads from the PNG
+        if (!new Image(Image.readImage(images.get("noise-ppm"))).equals(new Image(Image.readImage(images.get("noise"))))) {
+            failures.add("noise: PPM decoder against ImageIO");
+        }
+
+        for (String charset : CHARSETS) {
+            SubImgCharMatcher subImgCharMatcher = new SubImgCharMatcher(charset.toCharArray());
+            checkMatcher("charset \"" + charset + "\"", subImgCharMatcher);
+            // A set changed in place matches like a set built with the same chars
+            subImgCharMatcher.removeChars(charset.substring(0, charset.length() / 2).toCharArray());
+            subImgCharMatcher.addChar('~');
+            checkMatcher("changed charset \"" + charset + "\"", subImgCharMatcher);
+        }
+        checkMutationSequences();
+
+        for (int resolution : RESOLUTIONS) {
+            Shell.clearImgBrightness();
+            char[][] progressive;
+            try {
+                progressive = new AsciiArtAlgorithm(images.get("noise"), resolution, CHARSETS[2].toCharArray())
+                        .runProgressive(null, new RenderToken());
+            } catch (Exceptions.RenderCancelledException renderCancelledException) {
+                throw new IllegalStateException(renderCancelledException);
+            }
+            Shell.clearImgBrightness();
+            char[][] art = new AsciiArtAlgorithm(images.get("noise"), resolution, CHARSETS[2].toCharArray()).run();
+            if (!Arrays.deepEquals(progressive, art)) {
+                failures.add("noise res " + resolution + ": progressive render against run");
+            }
+        }
+
+        checkBinaryFrames();
+        checkSharedBrightnessCache();
+        checkRenderCache();
+        checkGifDisposal();
+        checkIncrementalRenders();
+        checkRawGray();
+    }
+
+    /**
+     * Checks a matcher against a linear scan of its normalized glyph levels, at every level and
+     * between them. The matcher quantizes brightness for its cache, so between equally close
+     * chars it may take either one.
+     */
+    private void checkMatcher(String name, SubImgCharMatcher subImgCharMatcher) {
+        Character[] chars = subImgCharMatcher.getKeysSet().toArray(new Character[0]);
+        double[] levels = new double[chars.length];
+        for (int i = 0; i < chars.length; i++) {
+            levels[i] = subImgCharMatcher.getNormalizedBrightness(chars[i]);
+        }
+        double[] brightnesses = new double[1001 + levels.length];
+        for (int step = 0; step <= 1000; step++) {
+            brightnesses[step] = step / 1000.0;
+        }
+        System.arraycopy(levels, 0, brightnesses, 1001, levels.length);
+        for (double brightness : brightnesses) {
+            char expected = linearScan(chars, levels, brightness);
+            char actual = subImgCharMatcher.getCharByImageBrightness(brightness);
+            double expectedDistance = Math.abs(subImgCharMatcher.getNormalizedBrightness(expected) - brightness);
+            double actualDistance = Math.abs(subImgCharMatcher.getNormalizedBrightness(actual) - brightness);
+            if (actualDistance > expectedDistance + MATCH_TOLERANCE) {
+                failures.add(name + ": brightness " + brightness + " matched '" + actual + "' instead of '"
+                        + expected + "'");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Changes a matcher in place with seeded sequences of adds and removes of printable chars,
+     * matching between some of them so the changes are applied in batches of every size, and
+     * checks the final matcher against a linear scan and against a matcher built from the final
+     * set.
+     */
+    private void checkMutationSequences() {
+        char[] printable = CHARSETS[2].toCharArray();
+        Random random = new Random(MUTATION_SEED);
+        for (int sequence = 0; sequence < MUTATION_SEQUENCES; sequence++) {
+            SubImgCharMatcher subImgCharMatcher = new SubImgCharMatcher(
+                    new char[]{printable[random.nextInt(printable.length)]});
+            StringBuilder operations = new StringBuilder();
+            for (int mutation = 0; mutation < MUTATIONS_PER_SEQUENCE; mutation++) {
+                char c = printable[random.nextInt(printable.length)];
+                // Removes keep at least one char, the matcher needs one to match
+                if (random.nextBoolean() || subImgCharMatcher.getSetSize() == 1) {
+                    subImgCharMatcher.addChar(c);
+                    operations.append('+').append(c);
+                } else {
+                    Character[] chars = subImgCharMatcher.getKeysSet().toArray(new Character[0]);
+                    char removed = chars[random.nextInt(chars.length)];
+                    subImgCharMatcher.removeChar(removed);
+                    operations.append('-').append(removed);
+                }
+                if (random.nextInt(4) == 0) {
+                    subImgCharMatcher.getCharByImageBrightness(random.nextDouble());
+                }
+            }
+            String name = "sequence " + sequence + " \"" + operations + "\"";
+            checkMatcher(name, subImgCharMatcher);
+            char[] finalSet = new char[subImgCharMatcher.getSetSize()];
+            int i = 0;
+            for (char c : subImgCharMatcher.getKeysSet()) {
+                finalSet[i++] = c;
+            }
+            SubImgCharMatcher built = new SubImgCharMatcher(finalSet);
+            for (int step = 0; step <= 1000; step++) {
+                double brightness = step / 1000.0;
+                char expected = built.getCharByImageBrightness(brightness);
+                char actual = subImgCharMatcher.getCharByImageBrightness(brightness);
+                double expectedDistance = Math.abs(built.getNormalizedBrightness(expected) - brightness);
+                double actualDistance = Math.abs(built.getNormalizedBrightness(actual) - brightness);
+                if (actualDistance > expectedDistance + MATCH_TOLERANCE) {
+                    failures.add(name + ": brightness " + brightness + " matched '" + actual
+                            + "' instead of '" + expected + "' of the matcher built from the final set");
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that frames written to a binary file, then appended by another output as a later
+     * run would, read back as written, packed and compressed or not, for charsets of one char to
+     * every printable one.
+     */
+    private void checkBinaryFrames() throws IOException {
+        Random random = new Random(FRAME_SEED);
+        for (String charset : new String[]{"#", "01", CHARSETS[0], CHARSETS[2]}) {
+            for (boolean compressed : new boolean[]{false, true}) {
+                String name = "binary frames of " + charset.length() + " chars"
+                        + (compressed ? ", compressed" : "");
+                String path = directory.resolve("frames-" + charset.length() + "-" + compressed + ".asciib")
+                        .toString();
+                char[] charSet = charset.toCharArray();
+                Map<String, String> renderParams = Map.of("resolution", String.valueOf(FRAME_COLS));
+                List<char[][]> frames = new ArrayList<>();
+                for (int i = 0; i < FRAME_COUNT; i++) {
+                    char[][] frame = new char[FRAME_ROWS][FRAME_COLS];
+                    for (char[] row : frame) {
+                        for (int x = 0; x < row.length; x++) {
+                            row[x] = charSet[random.nextInt(charSet.length)];
+                        }
+                    }
+                    frames.add(frame);
+                }
+                BinaryAsciiOutput output = new BinaryAsciiOutput(path, charSet, renderParams, compressed);
+                for (char[][] frame : frames.subList(0, FRAME_COUNT / 2)) {
+                    output.out(frame);
+                }
+                output = new BinaryAsciiOutput(path, charSet, renderParams, compressed);
+                for (char[][] frame : frames.subList(FRAME_COUNT / 2, FRAME_COUNT)) {
+                    output.out(frame);
+                }
+                try (BinaryAsciiReader reader = new BinaryAsciiReader(path)) {
+                    if (reader.getFrameCount() != FRAME_COUNT || reader.getRows() != FRAME_ROWS
+                            || reader.getCols() != FRAME_COLS || !Arrays.equals(reader.getCharSet(), charSet)
+                            || !reader.getRenderParams().equals(renderParams)) {
+                        failures.add(name + ": header or frame count differs from what was written");
+                        continue;
+                    }
+                    for (int i = 0; i < FRAME_COUNT; i++) {
+                        if (!Arrays.deepEquals(reader.readFrame(i), frames.get(i))) {
+                            failures.add(name + ": frame " + i + " differs from what was written");
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that brightness published to a shared cache reads back as published, from the
+     * instance that published it and from another one mapping the same file, that the cache
+     * compacts to the newest records when it fills up, and that a missing key is a miss.
+     */
+    private void checkSharedBrightnessCache() throws IOException {
+        Path path = directory.resolve("brightness.cache");
+        SharedBrightnessCache cache = new SharedBrightnessCache(path, SHARED_CACHE_SIZE);
+        Random random = new Random(FRAME_SEED);
+        TileGrid tileGrid = TileGrid.square(4);
+        double[][] published = new double[SHARED_CACHE_PUTS][];
+        for (int i = 0; i < SHARED_CACHE_PUTS; i++) {
+            published[i] = random.doubles(tileGrid.getCols() * tileGrid.getCols()).toArray();
+            cache.put(i, tileGrid, published[i]);
+            if (!Arrays.equals(cache.get(i, tileGrid), published[i])) {
+                failures.add("shared brightness cache: image " + i + " does not read back as published");
+                return;
+            }
+        }
+        if (cache.get(0, tileGrid) != null) {
+            failures.add("shared brightness cache: the oldest image is still cached, the cache never compacted");
+        }
+        SharedBrightnessCache other = new SharedBrightnessCache(path, SHARED_CACHE_SIZE);
+        for (int i = 0; i < SHARED_CACHE_PUTS; i++) {
+            double[] brightness = other.get(i, tileGrid);
+            if (brightness != null && !Arrays.equals(brightness, published[i])
+                    || brightness == null && i == SHARED_CACHE_PUTS - 1) {
+                failures.add("shared brightness cache: image " + i + " reads back differently in another instance");
+                return;
+            }
+        }
+        if (other.get(SHARED_CACHE_PUTS, tileGrid) != null || other.get(0, TileGrid.square(8)) != null) {
+            failures.add("shared brightness cache: a key never published was found");
+        }
+    }
+
+    /**
+     * Checks that a render evicted from a render cache is spilled and read back as it was put,
+     * and that a key never put is a miss.
+     */
+    private void checkRenderCache() throws IOException {
+        char[] charSet = CHARSETS[1].toCharArray();
+        char[][] first = new char[FRAME_ROWS][FRAME_COLS];
+        char[][] second = new char[FRAME_ROWS][FRAME_COLS];
+        Random random = new Random(FRAME_SEED);
+        for (int y = 0; y < FRAME_ROWS; y++) {
+            for (int x = 0; x < FRAME_COLS; x++) {
+                first[y][x] = charSet[random.nextInt(charSet.length)];
+                second[y][x] = charSet[random.nextInt(charSet.length)];
+            }
+        }
+        TileGrid tileGrid = TileGrid.square(FRAME_COLS);
+        RenderCache.Key firstKey = new RenderCache.Key(1, tileGrid, charSet, "Courier New", DitherMode.NONE, 0);
+        RenderCache.Key secondKey = new RenderCache.Key(2, tileGrid, charSet, "Courier New", DitherMode.NONE, 0);
+        RenderCache.Key missingKey = new RenderCache.Key(1, tileGrid, charSet, "Courier New",
+                DitherMode.ERROR_DIFFUSION, 0);
+        // A budget of a single render, so the second one evicts the first
+        RenderCache renderCache = new RenderCache(1);
+        renderCache.setSpillDirectory(directory.toFile());
+        renderCache.put(firstKey, first);
+        renderCache.put(secondKey, second);
+        if (!Arrays.deepEquals(renderCache.get(secondKey), second) || renderCache.getHits() != 1) {
+            failures.add("render cache: the latest render is not served from memory");
+        }
+        if (!Arrays.deepEquals(renderCache.get(firstKey), first) || renderCache.getSpillHits() != 1) {
+            failures.add("render cache: the evicted render is not read back from its spill file");
+        }
+        if (renderCache.get(missingKey) != null || renderCache.getMisses() != 1) {
+            failures.add("render cache: a key never put was found");
+        }
+    }
+
+    /**
+     * Checks that the frames of a GIF are composited over the previous ones according to their
+     * offsets and disposal methods: a full first frame, a frame cleared to the background after
+     * it is shown, a frame restoring what it covered, and a frame kept.
+     */
+    private void checkGifDisposal() throws IOException {
+        String[] disposals = {"none", "restoreToBackgroundColor", "restoreToPrevious", "none"};
+        int[][] rectangles = {{0, 0, 8, 8}, {2, 2, 4, 4}, {4, 4, 4, 4}, {0, 0, 2, 2}};
+        int[] colors = {0xFF0000, 0x000000, 0x0000FF, 0x000000};
+        int[] palette = {0xFFFFFF, 0xFF0000, 0x000000, 0x0000FF};
+        IndexColorModel colorModel = new IndexColorModel(8, palette.length, palette, 0, false, -1,
+                DataBuffer.TYPE_BYTE);
+        File file = directory.resolve("disposal.gif").toFile();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.prepareWriteSequence(null);
+            for (int i = 0; i < disposals.length; i++) {
+                int[] rectangle = rectangles[i];
+                BufferedImage frame = new BufferedImage(rectangle[2], rectangle[3],
+                        BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+                fill(frame, 0, 0, rectangle[2], rectangle[3], colors[i]);
+                ImageTypeSpecifier type = ImageTypeSpecifier.createFromRenderedImage(frame);
+                IIOMetadata metadata = writer.getDefaultImageMetadata(type, null);
+                String format = metadata.getNativeMetadataFormatName();
+                IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+                IIOMetadataNode descriptor = (IIOMetadataNode) root.getElementsByTagName("ImageDescriptor").item(0);
+                descriptor.setAttribute("imageLeftPosition", String.valueOf(rectangle[0]));
+                descriptor.setAttribute("imageTopPosition", String.valueOf(rectangle[1]));
+                // ImageIO loses the last row of interlaced frames this small
+                descriptor.setAttribute("interlaceFlag", "FALSE");
+                IIOMetadataNode control =
+                        (IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension").item(0);
+                control.setAttribute("disposalMethod", disposals[i]);
+                // Without a local colour table, the writer indexes its default palette
+                IIOMetadataNode colorTable = new IIOMetadataNode("LocalColorTable");
+                colorTable.setAttribute("sizeOfLocalColorTable", String.valueOf(palette.length));
+                colorTable.setAttribute("sortFlag", "FALSE");
+                for (int index = 0; index < palette.length; index++) {
+                    IIOMetadataNode entry = new IIOMetadataNode("ColorTableEntry");
+                    entry.setAttribute("index", String.valueOf(index));
+                    entry.setAttribute("red", String.valueOf(palette[index] >> 16 & 0xFF));
+                    entry.setAttribute("green", String.valueOf(palette[index] >> 8 & 0xFF));
+                    entry.setAttribute("blue", String.valueOf(palette[index] & 0xFF));
+                    colorTable.appendChild(entry);
+                }
+                root.appendChild(colorTable);
+                metadata.setFromTree(format, root);
+                writer.writeToSequence(new IIOImage(frame, null, metadata), null);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+
+        // The canvas starts white, the colour images are padded with
+        BufferedImage canvas = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+        fill(canvas, 0, 0, 8, 8, 0xFFFFFF);
+        ImageSequence imageSequence = new ImageSequence(file.getPath());
+        if (imageSequence.getFrameCount() != disposals.length) {
+            failures.add("GIF disposal: " + imageSequence.getFrameCount() + " frames instead of "
+                    + disposals.length);
+            return;
+        }
+        for (int i = 0; i < disposals.length; i++) {
+            int[] rectangle = rectangles[i];
+            BufferedImage previous = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+            previous.setData(canvas.getData());
+            fill(canvas, rectangle[0], rectangle[1], rectangle[2], rectangle[3], colors[i]);
+            if (!imageSequence.getFrame(i).equals(new Image(canvas))) {
+                failures.add("GIF disposal: frame " + i + " after " + disposals[Math.max(0, i - 1)]
+                        + " is not composited as expected");
+            }
+            if (disposals[i].equals("restoreToBackgroundColor")) {
+                fill(canvas, rectangle[0], rectangle[1], rectangle[2], rectangle[3], 0xFFFFFF);
+            } else if (disposals[i].equals("restoreToPrevious")) {
+                canvas = previous;
+            }
+        }
+    }
+
+    /**
+     * Checks that patches of incremental renders, applied one after the other, give the art of
+     * a full render of every image in a sequence where a region of seeded noise changes.
+     */
+    private void checkIncrementalRenders() {
+        TileGrid tileGrid = TileGrid.square(16);
+        char[] charSet = CHARSETS[1].toCharArray();
+        AsciiArtAlgorithm incremental = new AsciiArtAlgorithm(new Image(noise(64, 64, NOISE_SEED)), tileGrid,
+                charSet, 0);
+        char[][] patched = new char[16][16];
+        BufferedImage frame = noise(64, 64, NOISE_SEED);
+        Random random = new Random(FRAME_SEED);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            // Every frame after the first repaints a random region, most tiles keep their chars
+            if (i > 0) {
+                int x = random.nextInt(48);
+                int y = random.nextInt(48);
+                BufferedImage region = noise(16, 16, FRAME_SEED + i);
+                frame.setRGB(x, y, 16, 16, region.getRGB(0, 0, 16, 16, null, 0, 16), 0, 16);
+            }
+            Image image = new Image(frame);
+            AsciiPatch patch = incremental.runIncremental(image);
+            if (i == 0 && !patch.isFull()) {
+                failures.add("incremental render: the first patch does not hold every cell");
+            }
+            patch.applyTo(patched);
+            char[][] art = new AsciiArtAlgorithm(image, tileGrid, charSet, 0).run();
+            if (!Arrays.deepEquals(patched, art) || !Arrays.deepEquals(incremental.getLastResult(), art)) {
+                failures.add("incremental render: frame " + i + " patched differs from a full render");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks that a raw gray buffer decodes to the gray pixels of its samples, as many rows high
+     * as it holds.
+     */
+    private void checkRawGray() throws IOException {
+        int width = 37;
+        int height = 23;
+        byte[] samples = new byte[width * height];
+        new Random(FRAME_SEED).nextBytes(samples);
+        Path path = directory.resolve("samples.gray");
+        Files.write(path, samples);
+        BufferedImage decoded = Image.readRawGray(path.toString(), width);
+        if (decoded.getWidth() != width || decoded.getHeight() != height) {
+            failures.add("raw gray: decoded " + decoded.getWidth() + "x" + decoded.getHeight() + " instead of "
+                    + width + "x" + height);
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int gray = samples[y * width + x] & 0xFF;
+                if ((decoded.getRGB(x, y) & 0xFFFFFF) != gray * 0x010101) {
+                    failures.add("raw gray: pixel " + x + "," + y + " is not the gray of its sample " + gray);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Times the fused brightness pass and the matcher, the former against its floating point
+     * reference.
+     *
+     * @return The throughput of every stage, in millions of pixels or matches per second.
+     */
+    private Map<String, Double> checkPerformance() {
+        Map<String, Double> throughputs = new LinkedHashMap<>();
+        BufferedImage noise = noise(PERFORMANCE_IMAGE_SIZE, PERFORMANCE_IMAGE_SIZE, NOISE_SEED);
+        Image image = new Image(noise);
+        FusedBrightnessCalc fusedBrightnessCalc = new FusedBrightnessCalc();
+        ImageCalc imageCalc = new ImageCalc();
+        long pixels = (long) PERFORMANCE_IMAGE_SIZE * PERFORMANCE_IMAGE_SIZE;
+        long fusedNanos = bestOf(() -> fusedBrightnessCalc.getTileBrightnesses(noise, PERFORMANCE_RESOLUTION));
+        long referenceNanos = bestOf(() -> {
+            for (Image subImage : imageCalc.getSubImages(imageCalc.imageFill(image), PERFORMANCE_RESOLUTION)) {
+                floatingPointBrightness(subImage);
+            }
+        });
+        throughputs.put("brightness", report("brightness", fusedNanos, referenceNanos, pixels));
+        if (fusedNanos >= referenceNanos) {
+            failures.add("brightness: fused pass took " + fusedNanos / 1e6 + " ms, floating point reference "
+                    + referenceNanos / 1e6 + " ms");
+        }
+
+        char[] charSet = CHARSETS[2].toCharArray();
+        SubImgCharMatcher subImgCharMatcher = new SubImgCharMatcher(charSet);
+        Character[] chars = subImgCharMatcher.getKeysSet().toArray(new Character[0]);
+        double[] levels = new double[chars.length];
+        for (int i = 0; i < chars.length; i++) {
+            levels[i] = subImgCharMatcher.getNormalizedBrightness(chars[i]);
+        }
+        Random random = new Random(NOISE_SEED);
+        double[] brightnesses = new double[PERFORMANCE_MATCHES];
+        for (int i = 0; i < brightnesses.length; i++) {
+            brightnesses[i] = random.nextDouble();
+        }
+        long matcherNanos = bestOf(() -> {
+            for (double brightness : brightnesses) {
+                subImgCharMatcher.getCharByImageBrightness(brightness);
+            }
+        });
+        long scanNanos = bestOf(() -> {
+            for (double brightness : brightnesses) {
+                linearScan(chars, levels, brightness);
+            }
+        });
+        throughputs.put("matching", report("matching", matcherNanos, scanNanos, PERFORMANCE_MATCHES));
+        return throughputs;
+    }
+
+    /**
+     * Fails every stage whose throughput fell below its share of the recorded one.
+     */
+    private void compareThroughputs(Map<String, List<String>> goldens, Map<String, Double> throughputs) {
+        for (Map.Entry<String, Double> entry : throughputs.entrySet()) {
+            List<String> golden = goldens.get(THROUGHPUT_PREFIX + entry.getKey());
+            if (golden == null || golden.isEmpty()) {
+                failures.add("no recorded throughput for " + entry.getKey());
+                continue;
+            }
+            double recorded = Double.parseDouble(golden.get(0));
+            if (entry.getValue() < recorded * MIN_THROUGHPUT_SHARE) {
+                failures.add(String.format("%s: %.1f M/s, below %.0f%% of the recorded %.1f M/s", entry.getKey(),
+                        entry.getValue(), MIN_THROUGHPUT_SHARE * 100, recorded));
+            }
+        }
+    }
+
+    /**
+     * Renders an image with fresh brightness, so every case runs the whole pipeline.
+     */
+    private static char[][] render(String imagePath, TileGrid tileGrid, String charset, DitherMode ditherMode)
+            throws IOException {
+        Shell.clearImgBrightness();
+        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(imagePath, tileGrid, charset.toCharArray());
+        asciiArtAlgorithm.setDitherMode(ditherMode);
+        return asciiArtAlgorithm.run();
+    }
+
+    private void expectEqual(String name, double[] expected, double[] actual, double tolerance) {
+        if (expected.length != actual.length) {
+            failures.add(name + ": " + actual.length + " tiles instead of " + expected.length);
+            return;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (!(Math.abs(expected[i] - actual[i]) <= tolerance)) {
+                failures.add(name + ": tile " + i + " is " + actual[i] + " instead of " + expected[i]);
+                return;
+            }
+        }
+    }
+
+    private static double report(String stage, long optimizedNanos, long referenceNanos, long items) {
+        double throughput = items * 1e3 / optimizedNanos;
+        System.out.printf("%s: %.1f M/s optimized, %.1f M/s reference%n", stage, throughput,
+                items * 1e3 / referenceNanos);
+        return throughput;
+    }
+
+    private static long bestOf(Runnable runnable) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            runnable.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Finds the char of the closest level, the smallest one among equally close chars.
+     */
+    private static char linearScan(Character[] chars, double[] levels, double brightness) {
+        char closest = Character.MAX_VALUE;
+        double distance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < chars.length; i++) {
+            double d = Math.abs(levels[i] - brightness);
+            if (d < distance || (d == distance && chars[i] < closest)) {
+                closest = chars[i];
+                distance = d;
+            }
+        }
+        return closest;
+    }
+
+    private static double floatingPointBrightness(Image image) {
+        double sum = 0;
+        for (int x = 0; x < image.getHeight(); x++) {
+            for (int y = 0; y < image.getWidth(); y++) {
+                java.awt.Color color = image.getPixel(x, y);
+                sum += color.getRed() * 0.2126 + color.getGreen() * 0.7152 + color.getBlue() * 0.0722;
+            }
+        }
+        return sum / (image.getWidth() * image.getHeight() * 255.0);
+    }
+
+    private static BufferedImage gradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int level = x * 255 / (width - 1);
+                image.setRGB(x, y, level << 16 | (255 - y * 255 / (height - 1)) << 8 | level);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage checkerboard(int width, int height, int squareSize) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean dark = (x / squareSize + y / squareSize) % 2 == 0;
+                image.setRGB(x, y, dark ? 0x202020 : 0xE0E0E0);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage noise(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+        return image;
+    }
+
+    private static void fill(BufferedImage image, int x, int y, int width, int height, int rgb) {
+        for (int row = y; row < y + height; row++) {
+            for (int col = x; col < x + width; col++) {
+                image.setRGB(col, row, rgb);
+            }
+        }
+    }
+
+    private String writePng(String name, BufferedImage image) throws IOException {
+        File file = directory.resolve(name + ".png").toFile();
+        ImageIO.write(image, "png", file);
+        return file.getPath();
+    }
+
+    private String writePpm(String name, BufferedImage image) throws IOException {
+        Path path = directory.resolve(name + ".ppm");
+        try (OutputStream output = Files.newOutputStream(path)) {
+            output.write(("P6\n" + image.getWidth() + " " + image.getHeight() + "\n255\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    int rgb = image.getRGB(x, y);
+                    output.write(rgb >> 16);
+                    output.write(rgb >> 8);
+                    output.write(rgb);
+                }
+            }
+        }
+        return path.toString();
+    }
+
+    private static List<String> toLines(char[][] chars) {
+        List<String> lines = new ArrayList<>();
+        for (char[] row : chars) {
+            lines.add(ROW_PREFIX + new String(row));
+        }
+        return lines;
+    }
+
+    private static String digest(String path) throws IOException {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(Paths.get(path)));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeGoldens(Path goldenFile, Map<String, List<String>> outputs) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(goldenFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, List<String>> entry : outputs.entrySet()) {
+                boolean art = !entry.getKey().startsWith(HTML_PREFIX) && !entry.getKey().startsWith(THROUGHPUT_PREFIX);
+                writer.write(art ? ART_PREFIX + entry.getKey() : entry.getKey());
+                writer.newLine();
+                for (String line : entry.getValue()) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                writer.write(END);
+                writer.newLine();
+            }
+        }
+    }
+
+    private static Map<String, List<String>> readGoldens(Path goldenFile) throws IOException {
+        Map<String, List<String>> goldens = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(goldenFile, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String name = lines.get(i);
+            name = name.startsWith(ART_PREFIX) ? name.substring(ART_PREFIX.length()) : name;
+            List<String> output = new ArrayList<>();
+            for (i++; i < lines.size() && !lines.get(i).equals(END); i++) {
+                output.add(lines.get(i));
+            }
+            goldens.put(name, output);
+        }
+        return goldens;
+    }
+
+    private static String allPrintable() {
+        StringBuilder sb = new StringBuilder();
+        for (char c = ' '; c <= '~'; c++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package image;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Luminance kernel over packed RGB pixels written with the Vector API, processing as many pixels
+ * per instruction as the preferred vector of the CPU holds. It computes the same fixed point sums
+ * as LuminanceKernel, exactly.
+ * The class is only loaded by LuminanceKernel, and only when the jdk.incubator.vector module is
+ * present at run time, i.e. when the JVM was started with --add-modules jdk.incubator.vector.
+ * It lives in its own source root, compiled with that module against the classes of src, so
+ * the other sources build with plain javac.
+ */
+final class VectorLuminanceKernel implements LuminanceKernel.Sum {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    // long lanes of the same vector size, half as many, the int lanes are widened into
+    private static final VectorSpecies<Long> LONG_SPECIES = SPECIES.withLanes(long.class);
+    // vector additions into the int lanes before they could overflow, as for the scalar chunks
+    private static final int CHUNK_STEPS = LuminanceKernel.CHUNK_SIZE;
+
+    @Override
+    public long luminanceSum(int[] pixels, int from, int to) {
+        int i = from;
+        int upperBound = from + SPECIES.loopBound(to - from);
+        IntVector lanes = IntVector.zero(SPECIES);
+        LongVector longLanes = LongVector.zero(LONG_SPECIES);
+        int steps = 0;
+        for (; i < upperBound; i += SPECIES.length()) {
+            IntVector pixel = IntVector.fromArray(SPECIES, pixels, i);
+            IntVector red = pixel.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector green = pixel.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector blue = pixel.and(0xFF);
+            lanes = lanes.add(red.mul(LuminanceKernel.RED_WEIGHT))
+                    .add(green.mul(LuminanceKernel.GREEN_WEIGHT))
+                    .add(blue.mul(LuminanceKernel.BLUE_WEIGHT));
+            if (++steps == CHUNK_STEPS) {
+                longLanes = widenInto(lanes, longLanes);
+                lanes = IntVector.zero(SPECIES);
+                steps = 0;
+            }
+        }
+        long sum = widenInto(lanes, longLanes).reduceLanes(VectorOperators.ADD);
+        // The pixels left over a whole vector
+        return sum + LuminanceKernel.scalarLuminanceSum(pixels, i, to);
+    }
+
+    /**
+     * Adds the int lanes to the long lanes, since the int lanes together may exceed an int.
+     */
+    private static LongVector widenInto(IntVector lanes, LongVector longLanes) {
+        return longLanes.add(lanes.convertShape(VectorOperators.I2L, LONG_SPECIES, 0))
+                .add(lanes.convertShape(VectorOperators.I2L, LONG_SPECIES, 1));
+    }
+
+    @Override
+    public String toString() {
+        return "Vector API, " + SPECIES.length() + " int lanes";
+    }
+}